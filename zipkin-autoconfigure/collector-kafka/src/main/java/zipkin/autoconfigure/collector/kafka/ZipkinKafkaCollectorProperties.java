@@ -26,6 +26,10 @@ public class ZipkinKafkaCollectorProperties {
   private String groupId = "zipkin";
   private int streams = 1;
   private int maxMessageSize = 1024 * 1024;
+  private int batchSize = 1;
+  private int batchTimeoutMillis = 100;
+  /** Defaults to the count of available processors when null. */
+  private Integer decodeThreads;
   private Map<String, String> overrides = new LinkedHashMap<>();
 
   public String getTopic() {
@@ -68,6 +72,30 @@ public class ZipkinKafkaCollectorProperties {
     this.maxMessageSize = maxMessageSize;
   }
 
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  public void setBatchSize(int batchSize) {
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchTimeoutMillis() {
+    return batchTimeoutMillis;
+  }
+
+  public void setBatchTimeoutMillis(int batchTimeoutMillis) {
+    this.batchTimeoutMillis = batchTimeoutMillis;
+  }
+
+  public Integer getDecodeThreads() {
+    return decodeThreads;
+  }
+
+  public void setDecodeThreads(Integer decodeThreads) {
+    this.decodeThreads = decodeThreads;
+  }
+
   public Map<String, String> getOverrides() {
     return overrides;
   }
@@ -77,12 +105,16 @@ public class ZipkinKafkaCollectorProperties {
   }
 
   public KafkaCollector.Builder toBuilder() {
-    return KafkaCollector.builder()
+    KafkaCollector.Builder result = KafkaCollector.builder()
         .topic(topic)
         .zookeeper(zookeeper)
         .groupId(groupId)
         .streams(streams)
         .maxMessageSize(maxMessageSize)
+        .batchSize(batchSize)
+        .batchTimeoutMillis(batchTimeoutMillis)
         .overrides(overrides);
+    if (decodeThreads != null) result.decodeThreads(decodeThreads);
+    return result;
   }
 }
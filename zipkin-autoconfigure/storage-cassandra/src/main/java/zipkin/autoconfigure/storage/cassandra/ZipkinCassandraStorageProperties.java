@@ -38,6 +38,24 @@ public class ZipkinCassandraStorageProperties implements Serializable { // for S
   private int indexCacheTtl = 60;
   /** See {@link CassandraStorage.Builder#indexFetchMultiplier(int)} */
   private int indexFetchMultiplier = 3;
+  /** See {@link CassandraStorage.Builder#maxIndexFetchMultiplier(int)} */
+  private int maxIndexFetchMultiplier = 0;
+  /** See {@link CassandraStorage.Builder#indexFetchTimeBudget(int)} */
+  private int indexFetchTimeBudget = 1000;
+  /** See {@link CassandraStorage.Builder#writeBatchSize(int)} */
+  private int writeBatchSize = 1;
+  /** See {@link CassandraStorage.Builder#maxInFlightWrites(int)} */
+  private int maxInFlightWrites = 0;
+  /** See {@link CassandraStorage.Builder#inFlightWriteTimeout(int)} */
+  private int inFlightWriteTimeout = 1000;
+  /** See {@link CassandraStorage.Builder#traceFetchConcurrency(int)} */
+  private int traceFetchConcurrency = 0;
+  /** See {@link CassandraStorage.Builder#speculativeReadDelay(int)} */
+  private int speculativeReadDelay = 0;
+  /** See {@link CassandraStorage.Builder#maxSpeculativeReads(int)} */
+  private int maxSpeculativeReads = 1;
+  /** See {@link CassandraStorage.Builder#compressSpans(boolean)} */
+  private boolean compressSpans = false;
 
   public String getKeyspace() {
     return keyspace;
@@ -159,6 +177,78 @@ public class ZipkinCassandraStorageProperties implements Serializable { // for S
     this.indexFetchMultiplier = indexFetchMultiplier;
   }
 
+  public int getMaxIndexFetchMultiplier() {
+    return maxIndexFetchMultiplier;
+  }
+
+  public void setMaxIndexFetchMultiplier(int maxIndexFetchMultiplier) {
+    this.maxIndexFetchMultiplier = maxIndexFetchMultiplier;
+  }
+
+  public int getIndexFetchTimeBudget() {
+    return indexFetchTimeBudget;
+  }
+
+  public void setIndexFetchTimeBudget(int indexFetchTimeBudget) {
+    this.indexFetchTimeBudget = indexFetchTimeBudget;
+  }
+
+  public int getWriteBatchSize() {
+    return writeBatchSize;
+  }
+
+  public void setWriteBatchSize(int writeBatchSize) {
+    this.writeBatchSize = writeBatchSize;
+  }
+
+  public int getMaxInFlightWrites() {
+    return maxInFlightWrites;
+  }
+
+  public void setMaxInFlightWrites(int maxInFlightWrites) {
+    this.maxInFlightWrites = maxInFlightWrites;
+  }
+
+  public int getInFlightWriteTimeout() {
+    return inFlightWriteTimeout;
+  }
+
+  public void setInFlightWriteTimeout(int inFlightWriteTimeout) {
+    this.inFlightWriteTimeout = inFlightWriteTimeout;
+  }
+
+  public int getTraceFetchConcurrency() {
+    return traceFetchConcurrency;
+  }
+
+  public void setTraceFetchConcurrency(int traceFetchConcurrency) {
+    this.traceFetchConcurrency = traceFetchConcurrency;
+  }
+
+  public int getSpeculativeReadDelay() {
+    return speculativeReadDelay;
+  }
+
+  public void setSpeculativeReadDelay(int speculativeReadDelay) {
+    this.speculativeReadDelay = speculativeReadDelay;
+  }
+
+  public int getMaxSpeculativeReads() {
+    return maxSpeculativeReads;
+  }
+
+  public void setMaxSpeculativeReads(int maxSpeculativeReads) {
+    this.maxSpeculativeReads = maxSpeculativeReads;
+  }
+
+  public boolean isCompressSpans() {
+    return compressSpans;
+  }
+
+  public void setCompressSpans(boolean compressSpans) {
+    this.compressSpans = compressSpans;
+  }
+
   public CassandraStorage.Builder toBuilder() {
     return CassandraStorage.builder()
         .keyspace(keyspace)
@@ -173,6 +263,15 @@ public class ZipkinCassandraStorageProperties implements Serializable { // for S
         .indexTtl(indexTtl)
         .indexCacheMax(indexCacheMax)
         .indexCacheTtl(indexCacheTtl)
-        .indexFetchMultiplier(indexFetchMultiplier);
+        .indexFetchMultiplier(indexFetchMultiplier)
+        .maxIndexFetchMultiplier(maxIndexFetchMultiplier)
+        .indexFetchTimeBudget(indexFetchTimeBudget)
+        .writeBatchSize(writeBatchSize)
+        .maxInFlightWrites(maxInFlightWrites)
+        .inFlightWriteTimeout(inFlightWriteTimeout)
+        .traceFetchConcurrency(traceFetchConcurrency)
+        .speculativeReadDelay(speculativeReadDelay)
+        .maxSpeculativeReads(maxSpeculativeReads)
+        .compressSpans(compressSpans);
   }
 }
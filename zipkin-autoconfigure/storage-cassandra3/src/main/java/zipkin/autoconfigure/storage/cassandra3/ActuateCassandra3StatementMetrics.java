@@ -0,0 +1,95 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.autoconfigure.storage.cassandra3;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.Metrics;
+import com.datastax.driver.core.Session;
+import com.google.common.base.Supplier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Exports latency and errors of named storage statements to the "/metrics" endpoint:
+ *
+ * <pre>
+ * <ul>
+ *     <li>counter.zipkin_storage.statements.$name - cumulative attempts to execute the statement
+ * </li>
+ *     <li>counter.zipkin_storage.statement_errors.$name - cumulative attempts that failed</li>
+ *     <li>gauge.zipkin_storage.statement_latency.$name.$stat - milliseconds taken by recent
+ * attempts, where stat is one of mean, p50, p95, p99 or max</li>
+ * </ul>
+ * </pre>
+ *
+ * <p>Nothing is exported until the storage component connects to Cassandra.
+ */
+final class ActuateCassandra3StatementMetrics implements PublicMetrics {
+  static final String PREFIX = "zipkin.statements.";
+  static final MetricFilter STATEMENTS = (name, metric) -> name.startsWith(PREFIX);
+
+  final Supplier<Session> session;
+
+  ActuateCassandra3StatementMetrics(Supplier<Session> session) {
+    this.session = session;
+  }
+
+  @Override public Collection<Metric<?>> metrics() {
+    Session session = this.session.get();
+    if (session == null) return Collections.emptyList();
+    Metrics metrics = session.getCluster().getMetrics();
+    if (metrics == null) return Collections.emptyList(); // disabled on the cluster
+    MetricRegistry registry = metrics.getRegistry();
+
+    List<Metric<?>> result = new ArrayList<>();
+    for (Map.Entry<String, Timer> entry : registry.getTimers(STATEMENTS).entrySet()) {
+      String name = entry.getKey().substring(PREFIX.length());
+      Timer timer = entry.getValue();
+      result.add(metric("counter.zipkin_storage.statements." + name, timer.getCount()));
+      Snapshot snapshot = timer.getSnapshot();
+      String latency = "gauge.zipkin_storage.statement_latency." + name;
+      result.add(metric(latency + ".mean", millis(snapshot.getMean())));
+      result.add(metric(latency + ".p50", millis(snapshot.getMedian())));
+      result.add(metric(latency + ".p95", millis(snapshot.get95thPercentile())));
+      result.add(metric(latency + ".p99", millis(snapshot.get99thPercentile())));
+      result.add(metric(latency + ".max", millis(snapshot.getMax())));
+    }
+    for (Map.Entry<String, Counter> entry : registry.getCounters(STATEMENTS).entrySet()) {
+      String name = entry.getKey().substring(PREFIX.length());
+      if (!name.endsWith(".errors")) continue;
+      name = name.substring(0, name.length() - ".errors".length());
+      result.add(metric("counter.zipkin_storage.statement_errors." + name,
+          entry.getValue().getCount()));
+    }
+    return result;
+  }
+
+  static Metric<Number> metric(String name, Number value) {
+    return new Metric<>(name, value);
+  }
+
+  static double millis(double nanos) {
+    return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+}
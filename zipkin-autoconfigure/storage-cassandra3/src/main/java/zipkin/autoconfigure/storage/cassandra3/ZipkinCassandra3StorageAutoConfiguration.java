@@ -13,16 +13,18 @@
  */
 package zipkin.autoconfigure.storage.cassandra3;
 
+import com.datastax.driver.core.Session;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import zipkin.storage.StorageComponent;
-import zipkin.storage.cassandra3.Cassandra3Storage;
 import zipkin.storage.cassandra3.Cassandra3Storage.SessionFactory;
 
 /**
@@ -42,11 +44,27 @@ public class ZipkinCassandra3StorageAutoConfiguration {
   @Qualifier("tracingSessionFactory")
   SessionFactory tracingSessionFactory;
 
+  /** Set when the storage component connects, so that metrics don't cause a connection. */
+  volatile Session session;
+
   @Bean StorageComponent storage(ZipkinCassandra3StorageProperties properties,
       @Value("${zipkin.storage.strict-trace-id:true}") boolean strictTraceId) {
-    Cassandra3Storage.Builder builder = properties.toBuilder().strictTraceId(strictTraceId);
-    return tracingSessionFactory == null
-        ? builder.build()
-        : builder.sessionFactory(tracingSessionFactory).build();
+    SessionFactory delegate = tracingSessionFactory == null
+        ? SessionFactory.DEFAULT
+        : tracingSessionFactory;
+    return properties.toBuilder()
+        .strictTraceId(strictTraceId)
+        .sessionFactory(storage -> session = delegate.create(storage))
+        .build();
+  }
+
+  /** Exports statement metrics when the actuator is in the classpath, as it is in the server. */
+  @Configuration
+  @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.PublicMetrics")
+  static class StatementMetricsConfiguration {
+    @Bean
+    PublicMetrics cassandra3StatementMetrics(ZipkinCassandra3StorageAutoConfiguration config) {
+      return new ActuateCassandra3StatementMetrics(() -> config.session);
+    }
   }
 }
@@ -34,6 +34,18 @@ public class ZipkinCassandra3StorageProperties implements Serializable { // for
   private String password;
   /** See {@link Cassandra3Storage.Builder#indexFetchMultiplier(int)} */
   private int indexFetchMultiplier = 3;
+  /** See {@link Cassandra3Storage.Builder#maxInFlightWrites(int)} */
+  private int maxInFlightWrites = 0;
+  /** See {@link Cassandra3Storage.Builder#inFlightWriteTimeout(int)} */
+  private int inFlightWriteTimeout = 1000;
+  /** See {@link Cassandra3Storage.Builder#speculativeReadDelay(int)} */
+  private int speculativeReadDelay = 0;
+  /** See {@link Cassandra3Storage.Builder#maxSpeculativeReads(int)} */
+  private int maxSpeculativeReads = 1;
+  /** See {@link Cassandra3Storage.Builder#indexCacheMax(int)} */
+  private int indexCacheMax = 100000;
+  /** See {@link Cassandra3Storage.Builder#indexCacheTtl(int)} */
+  private int indexCacheTtl = 60;
 
   public String getKeyspace() {
     return keyspace;
@@ -107,6 +119,54 @@ public class ZipkinCassandra3StorageProperties implements Serializable { // for
     this.indexFetchMultiplier = indexFetchMultiplier;
   }
 
+  public int getMaxInFlightWrites() {
+    return maxInFlightWrites;
+  }
+
+  public void setMaxInFlightWrites(int maxInFlightWrites) {
+    this.maxInFlightWrites = maxInFlightWrites;
+  }
+
+  public int getInFlightWriteTimeout() {
+    return inFlightWriteTimeout;
+  }
+
+  public void setInFlightWriteTimeout(int inFlightWriteTimeout) {
+    this.inFlightWriteTimeout = inFlightWriteTimeout;
+  }
+
+  public int getSpeculativeReadDelay() {
+    return speculativeReadDelay;
+  }
+
+  public void setSpeculativeReadDelay(int speculativeReadDelay) {
+    this.speculativeReadDelay = speculativeReadDelay;
+  }
+
+  public int getMaxSpeculativeReads() {
+    return maxSpeculativeReads;
+  }
+
+  public void setMaxSpeculativeReads(int maxSpeculativeReads) {
+    this.maxSpeculativeReads = maxSpeculativeReads;
+  }
+
+  public int getIndexCacheMax() {
+    return indexCacheMax;
+  }
+
+  public void setIndexCacheMax(int indexCacheMax) {
+    this.indexCacheMax = indexCacheMax;
+  }
+
+  public int getIndexCacheTtl() {
+    return indexCacheTtl;
+  }
+
+  public void setIndexCacheTtl(int indexCacheTtl) {
+    this.indexCacheTtl = indexCacheTtl;
+  }
+
   public Builder toBuilder() {
     return builder()
         .keyspace(keyspace)
@@ -117,6 +177,12 @@ public class ZipkinCassandra3StorageProperties implements Serializable { // for
         .useSsl(useSsl)
         .username(username)
         .password(password)
-        .indexFetchMultiplier(indexFetchMultiplier);
+        .indexFetchMultiplier(indexFetchMultiplier)
+        .maxInFlightWrites(maxInFlightWrites)
+        .inFlightWriteTimeout(inFlightWriteTimeout)
+        .speculativeReadDelay(speculativeReadDelay)
+        .maxSpeculativeReads(maxSpeculativeReads)
+        .indexCacheMax(indexCacheMax)
+        .indexCacheTtl(indexCacheTtl);
   }
 }
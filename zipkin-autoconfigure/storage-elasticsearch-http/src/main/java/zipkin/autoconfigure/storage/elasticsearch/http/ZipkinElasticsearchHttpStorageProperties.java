@@ -40,10 +40,24 @@ public class ZipkinElasticsearchHttpStorageProperties implements Serializable {
   private char dateSeparator = '-';
   /** Sets maximum in-flight requests from this process to any Elasticsearch host. Defaults to 64 */
   private int maxRequests = 64;
+  /** Sets maximum in-flight requests to a single host. Defaults to 0, meaning maxRequests */
+  private int maxRequestsPerHost = 0;
+  /** When true, requests are balanced across hosts by outstanding requests. Defaults to false */
+  private boolean loadBalanceHosts = false;
+  /** Maximum idle connections kept open per host. Defaults to 0, meaning the OkHttp default */
+  private int maxIdleConnectionsPerHost = 0;
+  /** When true, request bodies are gzip compressed. Defaults to false */
+  private boolean compressRequests = false;
   /** Number of shards (horizontal scaling factor) per index. Defaults to 5. */
   private int indexShards = 5;
   /** Number of replicas (redundancy factor) per index. Defaults to 1.` */
   private int indexReplicas = 1;
+  /** When positive, names are cached and refreshed after this many millis. Defaults to 0 */
+  private int namesRefreshInterval = 0;
+  /** When positive, trace lookups search indices in this many recent millis first. Defaults to 0 */
+  private int traceLookback = 0;
+  /** When true, spans are routed to a shard by trace ID. Defaults to false. */
+  private boolean traceIdRouting = false;
   /** username used for basic auth. Needed when Shield or X-Pack security is enabled */
   private String username;
   /** password used for basic auth. Needed when Shield or X-Pack security is enabled */
@@ -99,6 +113,38 @@ public class ZipkinElasticsearchHttpStorageProperties implements Serializable {
     this.maxRequests = maxRequests;
   }
 
+  public int getMaxRequestsPerHost() {
+    return maxRequestsPerHost;
+  }
+
+  public void setMaxRequestsPerHost(int maxRequestsPerHost) {
+    this.maxRequestsPerHost = maxRequestsPerHost;
+  }
+
+  public boolean isLoadBalanceHosts() {
+    return loadBalanceHosts;
+  }
+
+  public void setLoadBalanceHosts(boolean loadBalanceHosts) {
+    this.loadBalanceHosts = loadBalanceHosts;
+  }
+
+  public int getMaxIdleConnectionsPerHost() {
+    return maxIdleConnectionsPerHost;
+  }
+
+  public void setMaxIdleConnectionsPerHost(int maxIdleConnectionsPerHost) {
+    this.maxIdleConnectionsPerHost = maxIdleConnectionsPerHost;
+  }
+
+  public boolean isCompressRequests() {
+    return compressRequests;
+  }
+
+  public void setCompressRequests(boolean compressRequests) {
+    this.compressRequests = compressRequests;
+  }
+
   public void setIndex(String index) {
     this.index = index;
   }
@@ -127,6 +173,30 @@ public class ZipkinElasticsearchHttpStorageProperties implements Serializable {
     this.indexReplicas = indexReplicas;
   }
 
+  public int getNamesRefreshInterval() {
+    return namesRefreshInterval;
+  }
+
+  public void setNamesRefreshInterval(int namesRefreshInterval) {
+    this.namesRefreshInterval = namesRefreshInterval;
+  }
+
+  public int getTraceLookback() {
+    return traceLookback;
+  }
+
+  public void setTraceLookback(int traceLookback) {
+    this.traceLookback = traceLookback;
+  }
+
+  public boolean isTraceIdRouting() {
+    return traceIdRouting;
+  }
+
+  public void setTraceIdRouting(boolean traceIdRouting) {
+    this.traceIdRouting = traceIdRouting;
+  }
+
   public String getUsername() {
     return username;
   }
@@ -159,7 +229,14 @@ public class ZipkinElasticsearchHttpStorageProperties implements Serializable {
         .dateSeparator(dateSeparator)
         .pipeline(pipeline)
         .maxRequests(maxRequests)
+        .maxRequestsPerHost(maxRequestsPerHost)
+        .loadBalanceHosts(loadBalanceHosts)
+        .maxIdleConnectionsPerHost(maxIdleConnectionsPerHost)
+        .compressRequests(compressRequests)
         .indexShards(indexShards)
-        .indexReplicas(indexReplicas);
+        .indexReplicas(indexReplicas)
+        .namesRefreshInterval(namesRefreshInterval)
+        .traceLookback(traceLookback)
+        .traceIdRouting(traceIdRouting);
   }
 }
@@ -126,6 +126,26 @@ public class ZipkinElasticsearchHttpStorageAutoConfigurationTest {
         .isEqualTo(200);
   }
 
+  @Test
+  public void configuresTraceLookbackAndRouting() {
+    context = new AnnotationConfigApplicationContext();
+    addEnvironment(context,
+        "zipkin.storage.type:elasticsearch",
+        "zipkin.storage.elasticsearch.hosts:http://host1:9200",
+        "zipkin.storage.elasticsearch.trace-lookback:86400000",
+        "zipkin.storage.elasticsearch.trace-id-routing:true"
+    );
+    context.register(PropertyPlaceholderAutoConfiguration.class,
+        ZipkinElasticsearchOkHttpAutoConfiguration.class,
+        ZipkinElasticsearchHttpStorageAutoConfiguration.class);
+    context.refresh();
+
+    assertThat(es().traceLookback())
+        .isEqualTo(86400000);
+    assertThat(es().traceIdRouting())
+        .isTrue();
+  }
+
   /** This helps ensure old setups don't break (provided they have http port 9200 open) */
   @Test
   public void coersesPort9300To9200() {
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.autoconfigure.storage.mysql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import zipkin.storage.StorageComponent;
+import zipkin.storage.mysql.MySQLStorage;
+
+/**
+ * Exports the state of the MySQL writer threads to the "/metrics" endpoint:
+ *
+ * <ul>
+ *     <li>gauge.zipkin_storage.mysql.queued_spans - spans waiting for a writer thread</li>
+ *     <li>counter.zipkin_storage.mysql.spans - cumulative spans committed</li>
+ *     <li>counter.zipkin_storage.mysql.spans_rejected - cumulative spans rejected as the queue was
+ * full</li>
+ *     <li>counter.zipkin_storage.mysql.transactions - cumulative transactions committed</li>
+ *     <li>counter.zipkin_storage.mysql.transactions_failed - cumulative transactions that failed
+ * </li>
+ *     <li>counter.zipkin_storage.mysql.transactions_retried - cumulative transactions retried after
+ * a deadlock</li>
+ * </ul>
+ *
+ * <p>Nothing is exported until spans are written with writer threads enabled, or when the storage
+ * bean was wrapped, such as for self-tracing.
+ */
+final class ActuateMySQLWriterMetrics implements PublicMetrics {
+  final StorageComponent storage;
+
+  ActuateMySQLWriterMetrics(StorageComponent storage) {
+    this.storage = storage;
+  }
+
+  @Override public Collection<Metric<?>> metrics() {
+    if (!(storage instanceof MySQLStorage)) return Collections.emptyList();
+
+    List<Metric<?>> result = new ArrayList<>();
+    for (Map.Entry<String, Number> entry : ((MySQLStorage) storage).writerMetrics().entrySet()) {
+      String type = entry.getKey().equals("queued_spans") ? "gauge" : "counter";
+      String name = type + ".zipkin_storage.mysql." + entry.getKey();
+      result.add(new Metric<>(name, entry.getValue()));
+    }
+    return result;
+  }
+}
@@ -19,6 +19,8 @@ import org.jooq.ExecuteListenerProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -57,6 +59,24 @@ public class ZipkinMySQLStorageAutoConfiguration {
         .strictTraceId(strictTraceId)
         .executor(executor)
         .datasource(dataSource)
+        .multiRowInserts(mysql.isMultiRowInserts())
+        .maxInsertBytes(mysql.getMaxInsertBytes())
+        .writerThreads(mysql.getWriterThreads())
+        .maxTransactionSpans(mysql.getMaxTransactionSpans())
+        .maxQueuedSpans(mysql.getMaxQueuedSpans())
+        .incrementalDependencies(mysql.isIncrementalDependencies())
+        .dependencyLinkDelay(mysql.getDependencyLinkDelay())
+        .keysetSearch(mysql.isKeysetSearch())
+        .partitionRetentionDays(mysql.getPartitionRetentionDays())
         .listenerProvider(listener).build();
   }
+
+  /** Exports writer metrics when the actuator is in the classpath, as it is in the server. */
+  @Configuration
+  @ConditionalOnClass(name = "org.springframework.boot.actuate.endpoint.PublicMetrics")
+  static class WriterMetricsConfiguration {
+    @Bean PublicMetrics mysqlWriterMetrics(StorageComponent storage) {
+      return new ActuateMySQLWriterMetrics(storage);
+    }
+  }
 }
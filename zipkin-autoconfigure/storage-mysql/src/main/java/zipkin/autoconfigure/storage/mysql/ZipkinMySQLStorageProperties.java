@@ -29,6 +29,15 @@ public class ZipkinMySQLStorageProperties implements Serializable { // for Spark
   private String db = "zipkin";
   private int maxActive = 10;
   private boolean useSsl;
+  private boolean multiRowInserts;
+  private int maxInsertBytes = 1024 * 1024;
+  private int writerThreads;
+  private int maxTransactionSpans = 1000;
+  private int maxQueuedSpans = 10000;
+  private boolean incrementalDependencies;
+  private int dependencyLinkDelay = 60;
+  private boolean keysetSearch;
+  private int partitionRetentionDays;
 
   public String getHost() {
     return host;
@@ -86,6 +95,78 @@ public class ZipkinMySQLStorageProperties implements Serializable { // for Spark
     this.useSsl = useSsl;
   }
 
+  public boolean isMultiRowInserts() {
+    return multiRowInserts;
+  }
+
+  public void setMultiRowInserts(boolean multiRowInserts) {
+    this.multiRowInserts = multiRowInserts;
+  }
+
+  public int getMaxInsertBytes() {
+    return maxInsertBytes;
+  }
+
+  public void setMaxInsertBytes(int maxInsertBytes) {
+    this.maxInsertBytes = maxInsertBytes;
+  }
+
+  public int getWriterThreads() {
+    return writerThreads;
+  }
+
+  public void setWriterThreads(int writerThreads) {
+    this.writerThreads = writerThreads;
+  }
+
+  public int getMaxTransactionSpans() {
+    return maxTransactionSpans;
+  }
+
+  public void setMaxTransactionSpans(int maxTransactionSpans) {
+    this.maxTransactionSpans = maxTransactionSpans;
+  }
+
+  public int getMaxQueuedSpans() {
+    return maxQueuedSpans;
+  }
+
+  public void setMaxQueuedSpans(int maxQueuedSpans) {
+    this.maxQueuedSpans = maxQueuedSpans;
+  }
+
+  public boolean isIncrementalDependencies() {
+    return incrementalDependencies;
+  }
+
+  public void setIncrementalDependencies(boolean incrementalDependencies) {
+    this.incrementalDependencies = incrementalDependencies;
+  }
+
+  public int getDependencyLinkDelay() {
+    return dependencyLinkDelay;
+  }
+
+  public void setDependencyLinkDelay(int dependencyLinkDelay) {
+    this.dependencyLinkDelay = dependencyLinkDelay;
+  }
+
+  public boolean isKeysetSearch() {
+    return keysetSearch;
+  }
+
+  public void setKeysetSearch(boolean keysetSearch) {
+    this.keysetSearch = keysetSearch;
+  }
+
+  public int getPartitionRetentionDays() {
+    return partitionRetentionDays;
+  }
+
+  public void setPartitionRetentionDays(int partitionRetentionDays) {
+    this.partitionRetentionDays = partitionRetentionDays;
+  }
+
   public DataSource toDataSource() {
     StringBuilder url = new StringBuilder("jdbc:mysql://");
     url.append(getHost()).append(":").append(getPort());
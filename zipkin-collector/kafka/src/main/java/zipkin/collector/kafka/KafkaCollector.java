@@ -17,8 +17,12 @@ import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import kafka.consumer.ConsumerConfig;
 import kafka.consumer.KafkaStream;
@@ -55,6 +59,9 @@ public final class KafkaCollector implements CollectorComponent {
     CollectorMetrics metrics = CollectorMetrics.NOOP_METRICS;
     String topic = "zipkin";
     int streams = 1;
+    int batchSize = 1;
+    int batchTimeoutMillis = 100;
+    int decodeThreads = Runtime.getRuntime().availableProcessors();
 
     @Override public Builder storage(StorageComponent storage) {
       delegate.storage(storage);
@@ -96,6 +103,46 @@ public final class KafkaCollector implements CollectorComponent {
       return this;
     }
 
+    /**
+     * Count of single-span messages each stream combines into one call to storage. Defaults to 1,
+     * which accepts each message as soon as it is read.
+     *
+     * <p>When greater than 1, messages are decoded on a pool of {@link #decodeThreads} shared by
+     * all streams. This helps legacy producers that send one span per message. Messages holding a
+     * list of spans are not batched, but are decoded on the same pool.
+     */
+    public Builder batchSize(int batchSize) {
+      if (batchSize < 1) throw new IllegalArgumentException("batchSize < 1");
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Maximum time a partial batch waits for more messages, when {@link #batchSize} is greater
+     * than 1. Defaults to 100.
+     *
+     * <p>This is also used as "consumer.timeout.ms", unless overridden, so that an idle stream
+     * flushes its batch.
+     */
+    public Builder batchTimeoutMillis(int batchTimeoutMillis) {
+      if (batchTimeoutMillis < 1) throw new IllegalArgumentException("batchTimeoutMillis < 1");
+      this.batchTimeoutMillis = batchTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Count of threads decoding and storing batches, when {@link #batchSize} is greater than 1.
+     * Defaults to the count of available processors.
+     *
+     * <p>Batches read from the same partition may be stored concurrently, so per-partition order
+     * isn't kept when batching.
+     */
+    public Builder decodeThreads(int decodeThreads) {
+      if (decodeThreads < 1) throw new IllegalArgumentException("decodeThreads < 1");
+      this.decodeThreads = decodeThreads;
+      return this;
+    }
+
     /** Maximum size of a message containing spans in bytes. Defaults to 1 MiB */
     public Builder maxMessageSize(int bytes) {
       properties.put("fetch.message.max.bytes", String.valueOf(bytes));
@@ -122,6 +169,9 @@ public final class KafkaCollector implements CollectorComponent {
     }
 
     @Override public KafkaCollector build() {
+      if (batchSize > 1 && !properties.containsKey("consumer.timeout.ms")) {
+        properties.put("consumer.timeout.ms", String.valueOf(batchTimeoutMillis));
+      }
       return new KafkaCollector(this);
     }
 
@@ -187,14 +237,21 @@ public final class KafkaCollector implements CollectorComponent {
 
   static final class LazyStreams extends LazyCloseable<ExecutorService> {
     final int streams;
+    final int batchSize;
+    final int batchTimeoutMillis;
+    final int decodeThreads;
     final String topic;
     final Collector collector;
     final CollectorMetrics metrics;
     final LazyCloseable<ZookeeperConsumerConnector> connector;
     final AtomicReference<CheckResult> failure = new AtomicReference<>();
+    volatile ExecutorService decoder; // null unless batching
 
     LazyStreams(Builder builder, LazyCloseable<ZookeeperConsumerConnector> connector) {
       this.streams = builder.streams;
+      this.batchSize = builder.batchSize;
+      this.batchTimeoutMillis = builder.batchTimeoutMillis;
+      this.decodeThreads = builder.decodeThreads;
       this.topic = builder.topic;
       this.collector = builder.delegate.build();
       this.metrics = builder.metrics;
@@ -206,12 +263,22 @@ public final class KafkaCollector implements CollectorComponent {
           ? Executors.newSingleThreadExecutor()
           : Executors.newFixedThreadPool(streams);
 
+      Executor decoder = Runnable::run;
+      if (batchSize > 1) {
+        // When decoding falls behind, the stream thread decodes its own batch. This slows reads
+        // from Kafka instead of buffering an unbounded amount of messages.
+        decoder = this.decoder = new ThreadPoolExecutor(decodeThreads, decodeThreads,
+            0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(decodeThreads),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+      }
+
       Map<String, Integer> topicCountMap = new LinkedHashMap<>(1);
       topicCountMap.put(topic, streams);
 
       for (KafkaStream<byte[], byte[]> stream : connector.get().createMessageStreams(topicCountMap)
           .get(topic)) {
-        pool.execute(guardFailures(new KafkaStreamProcessor(stream, collector, metrics)));
+        pool.execute(guardFailures(new KafkaStreamProcessor(
+            stream, collector, metrics, batchSize, batchTimeoutMillis, decoder)));
       }
       return pool;
     }
@@ -230,6 +297,15 @@ public final class KafkaCollector implements CollectorComponent {
     public void close() {
       ExecutorService maybeNull = maybeNull();
       if (maybeNull != null) maybeNull.shutdown();
+      ExecutorService decoder = this.decoder;
+      if (decoder == null) return;
+      // Let batches already handed off finish storing, but don't hang close on a slow store.
+      decoder.shutdown();
+      try {
+        decoder.awaitTermination(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
     }
   }
 }
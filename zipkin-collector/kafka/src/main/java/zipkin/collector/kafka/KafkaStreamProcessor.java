@@ -13,8 +13,12 @@
  */
 package zipkin.collector.kafka;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import kafka.consumer.ConsumerIterator;
+import kafka.consumer.ConsumerTimeoutException;
 import kafka.consumer.KafkaStream;
 import zipkin.Codec;
 import zipkin.collector.Collector;
@@ -22,23 +26,47 @@ import zipkin.collector.CollectorMetrics;
 
 import static zipkin.storage.Callback.NOOP;
 
-/** Consumes spans from Kafka messages, ignoring malformed input */
+/**
+ * Consumes spans from Kafka messages, ignoring malformed input.
+ *
+ * <p>Messages holding a single thrift span are accumulated until {@code batchSize} of them are
+ * read, or {@code batchTimeoutMillis} passes, then handed to the decoder as one call to {@link
+ * Collector#acceptSpans(List, Codec, zipkin.storage.Callback)}. When the batch size is 1, each
+ * message is accepted as soon as it is read.
+ */
 final class KafkaStreamProcessor implements Runnable {
   final KafkaStream<byte[], byte[]> stream;
   final Collector collector;
   final CollectorMetrics metrics;
+  final int batchSize;
+  final long batchTimeoutNanos;
+  final Executor decoder;
 
-  KafkaStreamProcessor(
-      KafkaStream<byte[], byte[]> stream, Collector collector, CollectorMetrics metrics) {
+  List<byte[]> batch; // only accessed by the stream thread
+  long batchDeadline;
+
+  KafkaStreamProcessor(KafkaStream<byte[], byte[]> stream, Collector collector,
+      CollectorMetrics metrics, int batchSize, int batchTimeoutMillis, Executor decoder) {
     this.stream = stream;
     this.collector = collector;
     this.metrics = metrics;
+    this.batchSize = batchSize;
+    this.batchTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(batchTimeoutMillis);
+    this.decoder = decoder;
   }
 
   @Override
   public void run() {
     ConsumerIterator<byte[], byte[]> messages = stream.iterator();
-    while (messages.hasNext()) {
+    while (true) {
+      try {
+        if (!messages.hasNext()) break;
+      } catch (ConsumerTimeoutException e) {
+        // No message arrived within "consumer.timeout.ms": don't hold a partial batch while idle.
+        // The iterator resets its state on timeout, so it is safe to keep polling.
+        flush();
+        continue;
+      }
       byte[] bytes = messages.next().message();
       metrics.incrementMessages();
 
@@ -57,14 +85,32 @@ final class KafkaStreamProcessor implements Runnable {
       // .. When serializing a List[ThriftSpan], the first byte is the member type, TType.STRUCT(12)
       // .. As ThriftSpan has no STRUCT fields: so, if the first byte is TType.STRUCT(12), it is a list.
       if (bytes[0] == '[') {
-        collector.acceptSpans(bytes, Codec.JSON, NOOP);
+        decoder.execute(() -> collector.acceptSpans(bytes, Codec.JSON, NOOP));
       } else {
         if (bytes[0] == 12 /* TType.STRUCT */) {
-          collector.acceptSpans(bytes, Codec.THRIFT, NOOP);
+          decoder.execute(() -> collector.acceptSpans(bytes, Codec.THRIFT, NOOP));
         } else {
-          collector.acceptSpans(Collections.singletonList(bytes), Codec.THRIFT, NOOP);
+          addToBatch(bytes);
         }
       }
     }
+    flush();
+  }
+
+  /** Legacy producers send a span per message, which we combine to amortize storage overhead. */
+  void addToBatch(byte[] span) {
+    if (batch == null) {
+      batch = new ArrayList<>(batchSize);
+      batchDeadline = System.nanoTime() + batchTimeoutNanos;
+    }
+    batch.add(span);
+    if (batch.size() >= batchSize || System.nanoTime() - batchDeadline >= 0) flush();
+  }
+
+  void flush() {
+    if (batch == null) return;
+    List<byte[]> spans = batch;
+    batch = null; // the decoder may run later, so hand off the list instead of clearing it
+    decoder.execute(() -> collector.acceptSpans(spans, Codec.THRIFT, NOOP));
   }
 }
@@ -96,6 +96,35 @@ public class KafkaCollectorTest {
     assertThat(kafkaMetrics.spans()).isEqualTo(1);
   }
 
+  /** Ensures legacy encoding is combined into one storage call when batching */
+  @Test
+  public void messagesWithSingleThriftSpan_batched() throws Exception {
+    Builder builder = builder("single_span_batched").batchSize(TRACE.size());
+
+    for (Span span : TRACE) {
+      producer.send(new KeyedMessage<>(builder.topic, Codec.THRIFT.writeSpan(span)));
+    }
+
+    try (KafkaCollector collector = newKafkaTransport(builder, consumer)) {
+      assertThat(recvdSpans.take()).containsExactlyElementsOf(TRACE);
+    }
+
+    assertThat(kafkaMetrics.messages()).isEqualTo(TRACE.size());
+    assertThat(kafkaMetrics.spans()).isEqualTo(TRACE.size());
+  }
+
+  /** Ensures a partial batch isn't held while the stream is idle */
+  @Test
+  public void messagesWithSingleThriftSpan_batchFlushedWhenIdle() throws Exception {
+    Builder builder = builder("single_span_batch_idle").batchSize(100).batchTimeoutMillis(10);
+
+    producer.send(new KeyedMessage<>(builder.topic, Codec.THRIFT.writeSpan(TRACE.get(0))));
+
+    try (KafkaCollector collector = newKafkaTransport(builder, consumer)) {
+      assertThat(recvdSpans.take()).containsExactly(TRACE.get(0));
+    }
+  }
+
   /** Ensures list encoding works: a TBinaryProtocol encoded list of spans */
   @Test
   public void messageWithMultipleSpans_thrift() throws Exception {
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Inflates a gzip request body in one pass, as opposed to copying it through {@link
+ * java.util.zip.GZIPInputStream} into a growing buffer.
+ *
+ * <p>The output array is sized from the ISIZE field of the gzip trailer, so a typical body is
+ * inflated without resizing or a final copy. As ISIZE comes from the client, it is only a hint:
+ * it is capped by what the input could inflate to and by {@link #MAX_INITIAL_SIZE}, so a forged
+ * trailer can't make a tiny body allocate a large array. The array still grows if the hint is
+ * wrong, up to a limit which protects against zip bombs. The {@link Inflater} and {@link CRC32}
+ * are reused per thread.
+ */
+final class Gunzip {
+  static final int FHCRC = 2, FEXTRA = 4, FNAME = 8, FCOMMENT = 16; // gzip header flags
+  static final int HEADER_BYTES = 10, TRAILER_BYTES = 8;
+  /** Deflate can't compress better than this, so ISIZE can't honestly exceed input times it. */
+  static final int MAX_DEFLATE_RATIO = 1032;
+  /** Larger bodies start at this size and grow as they are inflated. */
+  static final int MAX_INITIAL_SIZE = 1024 * 1024;
+
+  static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(() -> new Inflater(true));
+  static final ThreadLocal<CRC32> CRC = ThreadLocal.withInitial(CRC32::new);
+
+  /**
+   * Returns the inflated body, which may hold concatenated gzip members.
+   *
+   * @param maxBytes limit of inflated bytes, beyond which an exception is raised
+   */
+  static byte[] gunzip(byte[] input, int maxBytes) throws IOException {
+    byte[] out = new byte[initialSize(input, maxBytes)];
+    int outLength = 0;
+    int offset = 0;
+    Inflater inflater = INFLATER.get();
+    CRC32 crc = CRC.get();
+    try {
+      do {
+        offset = readHeader(input, offset);
+        inflater.reset();
+        inflater.setInput(input, offset, input.length - offset);
+        int memberStart = outLength;
+        while (!inflater.finished()) {
+          int count;
+          if (outLength < out.length) {
+            count = inflater.inflate(out, outLength, out.length - outLength);
+          } else { // the size hint may be exact, so only grow if there's more output
+            byte[] next = new byte[1];
+            count = inflater.inflate(next);
+            if (count > 0) {
+              out = grow(out, maxBytes);
+              out[outLength] = next[0];
+            }
+          }
+          if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            throw new EOFException("Unexpected end of gzip input");
+          }
+          outLength += count;
+        }
+        offset = input.length - inflater.getRemaining();
+
+        if (input.length - offset < TRAILER_BYTES) {
+          throw new EOFException("Unexpected end of gzip trailer");
+        }
+        crc.reset();
+        crc.update(out, memberStart, outLength - memberStart);
+        if (readInt(input, offset) != (int) crc.getValue()
+            || readInt(input, offset + 4) != outLength - memberStart) { // ISIZE is modulo 2^32
+          throw new ZipException("Corrupt gzip trailer");
+        }
+        offset += TRAILER_BYTES;
+      } while (isMember(input, offset)); // like GZIPInputStream, ignores trailing garbage
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid deflate data");
+    }
+    return outLength == out.length ? out : Arrays.copyOf(out, outLength);
+  }
+
+  /**
+   * Reads ISIZE of the last member, which is the inflated size of a single-member body, capped to
+   * what the input could inflate to and {@link #MAX_INITIAL_SIZE}.
+   */
+  static int initialSize(byte[] input, int maxBytes) throws IOException {
+    if (input.length < HEADER_BYTES + TRAILER_BYTES) return 0; // will fail reading the header
+    long isize = readInt(input, input.length - 4) & 0xffffffffL;
+    if (isize > maxBytes) throw new IOException("Inflated size exceeds " + maxBytes + " bytes");
+    long inflatable = Math.min((long) input.length * MAX_DEFLATE_RATIO, MAX_INITIAL_SIZE);
+    return (int) Math.min(isize, inflatable);
+  }
+
+  static byte[] grow(byte[] out, int maxBytes) throws IOException {
+    if (out.length >= maxBytes) {
+      throw new IOException("Inflated size exceeds " + maxBytes + " bytes");
+    }
+    long newLength = Math.max(out.length * 2L, 1024);
+    return Arrays.copyOf(out, (int) Math.min(newLength, maxBytes));
+  }
+
+  static boolean isMember(byte[] input, int offset) {
+    return input.length - offset >= HEADER_BYTES
+        && (input[offset] & 0xff) == 0x1f && (input[offset + 1] & 0xff) == 0x8b;
+  }
+
+  /** Returns the offset of deflate data after the gzip header at the given offset. */
+  static int readHeader(byte[] input, int offset) throws IOException {
+    if (input.length - offset < HEADER_BYTES) throw new EOFException("Truncated gzip header");
+    if (!isMember(input, offset)) throw new ZipException("Not in GZIP format");
+    if (input[offset + 2] != 8) throw new ZipException("Unsupported compression method");
+    int flags = input[offset + 3] & 0xff;
+    int pos = offset + HEADER_BYTES; // skips MTIME, XFL and OS
+    if ((flags & FEXTRA) != 0) {
+      if (input.length - pos < 2) throw new EOFException("Truncated gzip header");
+      pos += 2 + ((input[pos] & 0xff) | (input[pos + 1] & 0xff) << 8);
+    }
+    if ((flags & FNAME) != 0) pos = skipZeroTerminated(input, pos);
+    if ((flags & FCOMMENT) != 0) pos = skipZeroTerminated(input, pos);
+    if ((flags & FHCRC) != 0) pos += 2;
+    if (pos > input.length) throw new EOFException("Truncated gzip header");
+    return pos;
+  }
+
+  static int skipZeroTerminated(byte[] input, int pos) throws EOFException {
+    while (pos < input.length) {
+      if (input[pos++] == 0) return pos;
+    }
+    throw new EOFException("Truncated gzip header");
+  }
+
+  /** Reads a little-endian int, as used in the gzip trailer */
+  static int readInt(byte[] input, int offset) {
+    return (input[offset] & 0xff)
+        | (input[offset + 1] & 0xff) << 8
+        | (input[offset + 2] & 0xff) << 16
+        | (input[offset + 3] & 0xff) << 24;
+  }
+
+  private Gunzip() {
+  }
+}
@@ -13,23 +13,28 @@
  */
 package zipkin.server;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
+import java.util.function.Consumer;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.StreamUtils;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.SettableListenableFuture;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.ExceptionHandler;
-import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import zipkin.Codec;
 import zipkin.collector.Collector;
 import zipkin.collector.CollectorMetrics;
@@ -52,28 +57,81 @@ public class ZipkinHttpCollector {
 
   final CollectorMetrics metrics;
   final Collector collector;
+  final int maxInflatedBytes;
 
   @Autowired ZipkinHttpCollector(StorageComponent storage, CollectorSampler sampler,
-      CollectorMetrics metrics) {
+      CollectorMetrics metrics,
+      @Value("${zipkin.collector.http.max-inflated-bytes:33554432}") int maxInflatedBytes) {
     this.metrics = metrics.forTransport("http");
+    this.maxInflatedBytes = maxInflatedBytes;
     this.collector = Collector.builder(getClass())
         .storage(storage).sampler(sampler).metrics(this.metrics).build();
   }
 
   @RequestMapping(value = "/api/v1/spans", method = POST)
-  public ListenableFuture<ResponseEntity<?>> uploadSpansJson(
+  public void uploadSpansJson(
       @RequestHeader(value = "Content-Encoding", required = false) String encoding,
-      @RequestBody byte[] body
-  ) {
-    return validateAndStoreSpans(encoding, Codec.JSON, body);
+      HttpServletRequest request
+  ) throws Exception {
+    readAndStoreSpans(encoding, Codec.JSON, request);
   }
 
   @RequestMapping(value = "/api/v1/spans", method = POST, consumes = APPLICATION_THRIFT)
-  public ListenableFuture<ResponseEntity<?>> uploadSpansThrift(
+  public void uploadSpansThrift(
       @RequestHeader(value = "Content-Encoding", required = false) String encoding,
-      @RequestBody byte[] body
-  ) {
-    return validateAndStoreSpans(encoding, Codec.THRIFT, body);
+      HttpServletRequest request
+  ) throws Exception {
+    readAndStoreSpans(encoding, Codec.THRIFT, request);
+  }
+
+  /**
+   * Starts async processing before the body is read, so that the request thread is released while
+   * a client sends spans. The body is read as it arrives, then decoded and stored.
+   */
+  void readAndStoreSpans(String encoding, Codec codec, HttpServletRequest request)
+      throws Exception {
+    DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+    WebAsyncUtils.getAsyncManager(request).startDeferredResultProcessing(result);
+    try {
+      readAndStoreSpans(encoding, codec, request.getInputStream(), request.getContentLength(),
+          result);
+    } catch (IOException | RuntimeException e) {
+      result.setErrorResult(e); // async processing started, so don't throw
+    }
+  }
+
+  /**
+   * Reads the body without blocking, completing the result once spans are stored.
+   *
+   * <p>When the request doesn't support non-blocking reads, such as in mock environments, the body
+   * is read with blocking I/O instead.
+   */
+  void readAndStoreSpans(String encoding, Codec codec, ServletInputStream in, int contentLength,
+      DeferredResult<ResponseEntity<?>> result) throws IOException {
+    Consumer<byte[]> onBody = body -> validateAndStoreSpans(encoding, codec, body)
+        .addCallback(result::setResult, result::setErrorResult);
+    Consumer<Throwable> onError = t -> {
+      metrics.incrementMessages();
+      metrics.incrementMessagesDropped();
+      result.setResult(ResponseEntity.badRequest()
+          .body("Cannot read spans: " + t.getMessage() + "\n"));
+    };
+    if (contentLength > maxInflatedBytes) {
+      onError.accept(new IOException("Body exceeds " + maxInflatedBytes + " bytes"));
+      return;
+    }
+    BodyReader reader =
+        new BodyReader(in, contentLength, maxInflatedBytes, onBody, onError, result::setErrorResult);
+    try {
+      in.setReadListener(reader);
+    } catch (UnsupportedOperationException e) {
+      byte[] body = StreamUtils.copyToByteArray(in);
+      if (body.length > maxInflatedBytes) {
+        onError.accept(new IOException("Body exceeds " + maxInflatedBytes + " bytes"));
+      } else {
+        onBody.accept(body);
+      }
+    }
   }
 
   ListenableFuture<ResponseEntity<?>> validateAndStoreSpans(String encoding, Codec codec,
@@ -82,10 +140,11 @@ public class ZipkinHttpCollector {
     metrics.incrementMessages();
     if (encoding != null && encoding.contains("gzip")) {
       try {
-        body = gunzip(body);
+        body = Gunzip.gunzip(body, maxInflatedBytes);
       } catch (IOException e) {
         metrics.incrementMessagesDropped();
         result.set(ResponseEntity.badRequest().body("Cannot gunzip spans: " + e.getMessage() + "\n"));
+        return result;
       }
     }
     collector.acceptSpans(body, codec, new Callback<Void>() {
@@ -103,21 +162,72 @@ public class ZipkinHttpCollector {
     return result;
   }
 
-  private static final ThreadLocal<byte[]> GZIP_BUFFER = new ThreadLocal<byte[]>() {
-    @Override protected byte[] initialValue() {
-      return new byte[1024];
+  /**
+   * Accumulates the request body as it arrives, without blocking on a slow client. Failures are
+   * passed to callbacks, as opposed to thrown to the container.
+   */
+  static final class BodyReader implements ReadListener {
+    /** Content-Length comes from the client, so don't trust it to presize a large buffer. */
+    static final int MAX_INITIAL_CAPACITY = 64 * 1024;
+
+    final ServletInputStream in;
+    final int maxBytes;
+    final ByteArrayOutputStream body;
+    final Consumer<byte[]> onBody;
+    final Consumer<Throwable> onReadError;
+    final Consumer<Throwable> onUnexpectedError;
+    final byte[] buf = new byte[8192];
+    boolean done; // the container calls the listener from one thread at a time
+
+    /**
+     * @param onReadError called when the body couldn't be read, or is larger than maxBytes
+     * @param onUnexpectedError called when processing the body failed
+     */
+    BodyReader(ServletInputStream in, int contentLength, int maxBytes, Consumer<byte[]> onBody,
+        Consumer<Throwable> onReadError, Consumer<Throwable> onUnexpectedError) {
+      this.in = in;
+      this.maxBytes = maxBytes;
+      this.body = new ByteArrayOutputStream(initialCapacity(contentLength));
+      this.onBody = onBody;
+      this.onReadError = onReadError;
+      this.onUnexpectedError = onUnexpectedError;
     }
-  };
-
-  static byte[] gunzip(byte[] input) throws IOException {
-    GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(input));
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length)) {
-      byte[] buf = GZIP_BUFFER.get();
-      int len;
-      while ((len = in.read(buf)) > 0) {
-        outputStream.write(buf, 0, len);
+
+    @Override public void onDataAvailable() {
+      if (done) return;
+      try {
+        int len;
+        while (in.isReady() && (len = in.read(buf)) != -1) {
+          if (body.size() + len > maxBytes) {
+            onError(new IOException("Body exceeds " + maxBytes + " bytes"));
+            return;
+          }
+          body.write(buf, 0, len);
+        }
+      } catch (IOException e) {
+        onError(e);
+      }
+    }
+
+    @Override public void onAllDataRead() {
+      if (done) return;
+      done = true;
+      try {
+        onBody.accept(body.toByteArray());
+      } catch (RuntimeException e) {
+        onUnexpectedError.accept(e);
       }
-      return outputStream.toByteArray();
+    }
+
+    @Override public void onError(Throwable t) {
+      if (done) return;
+      done = true;
+      onReadError.accept(t);
+    }
+
+    /** Presizes from Content-Length, up to {@link #MAX_INITIAL_CAPACITY}, growing from there. */
+    static int initialCapacity(int contentLength) {
+      return contentLength > 0 ? Math.min(contentLength, MAX_INITIAL_CAPACITY) : 8192;
     }
   }
 }
@@ -0,0 +1,130 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+import org.junit.Test;
+import zipkin.Codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static zipkin.TestObjects.TRACE;
+
+public class GunzipTest {
+  byte[] body = Codec.JSON.writeSpans(TRACE);
+
+  @Test public void inflates() throws IOException {
+    assertThat(Gunzip.gunzip(gzip(body), body.length))
+        .isEqualTo(body);
+  }
+
+  @Test public void inflates_concatenatedMembers() throws IOException {
+    ByteArrayOutputStream concatenated = new ByteArrayOutputStream();
+    concatenated.write(gzip(Arrays.copyOf(body, 10)));
+    concatenated.write(gzip(Arrays.copyOfRange(body, 10, body.length)));
+
+    assertThat(Gunzip.gunzip(concatenated.toByteArray(), body.length))
+        .isEqualTo(body);
+  }
+
+  /** Inflating past the size in the gzip trailer is rejected as corrupt, even under the limit. */
+  @Test public void checksInflatedSizeAgainstTrailer() throws IOException {
+    byte[] gzipped = gzip(body);
+    writeIsize(gzipped, body.length - 1);
+
+    try {
+      Gunzip.gunzip(gzipped, body.length);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessage("Corrupt gzip trailer");
+    }
+  }
+
+  @Test public void rejectsInflatedSizeOverLimit() throws IOException {
+    try {
+      Gunzip.gunzip(gzip(new byte[1024 * 1024]), 1024);
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Inflated size exceeds 1024 bytes");
+    }
+  }
+
+  @Test public void rejectsInflatedSizeOverLimit_whenTrailerLies() throws IOException {
+    byte[] gzipped = gzip(new byte[1024 * 1024]);
+    writeIsize(gzipped, 0);
+
+    try {
+      Gunzip.gunzip(gzipped, 1024);
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException e) {
+      assertThat(e).hasMessage("Inflated size exceeds 1024 bytes");
+    }
+  }
+
+  /** A forged trailer on a tiny body shouldn't allocate an array as large as the limit. */
+  @Test public void capsInitialSizeWhenTrailerLies() throws IOException {
+    int maxBytes = 32 * 1024 * 1024;
+    byte[] gzipped = gzip(new byte[0]);
+    writeIsize(gzipped, maxBytes);
+
+    assertThat(Gunzip.initialSize(gzipped, maxBytes))
+        .isLessThanOrEqualTo(gzipped.length * Gunzip.MAX_DEFLATE_RATIO);
+
+    try {
+      Gunzip.gunzip(gzipped, maxBytes);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessage("Corrupt gzip trailer");
+    }
+  }
+
+  @Test public void capsInitialSizeOfLargeBodies() throws IOException {
+    byte[] large = new byte[4 * Gunzip.MAX_INITIAL_SIZE];
+    byte[] gzipped = gzip(large);
+
+    assertThat(Gunzip.initialSize(gzipped, large.length))
+        .isEqualTo(Math.min(Gunzip.MAX_INITIAL_SIZE, gzipped.length * Gunzip.MAX_DEFLATE_RATIO));
+    assertThat(Gunzip.gunzip(gzipped, large.length))
+        .isEqualTo(large);
+  }
+
+  @Test public void rejectsTruncatedInput() throws IOException {
+    byte[] gzipped = gzip(body);
+
+    try {
+      Gunzip.gunzip(Arrays.copyOf(gzipped, gzipped.length - 1), body.length);
+      failBecauseExceptionWasNotThrown(IOException.class);
+    } catch (IOException expected) {
+    }
+  }
+
+  /** Overwrites the inflated size in the gzip trailer, which is little endian */
+  static void writeIsize(byte[] gzipped, int isize) {
+    for (int i = 0; i < 4; i++) {
+      gzipped[gzipped.length - 4 + i] = (byte) (isize >>> (8 * i));
+    }
+  }
+
+  static byte[] gzip(byte[] input) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (GZIPOutputStream gzip = new GZIPOutputStream(result)) {
+      gzip.write(input);
+    }
+    return result.toByteArray();
+  }
+}
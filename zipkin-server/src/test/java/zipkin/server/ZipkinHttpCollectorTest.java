@@ -0,0 +1,222 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import org.junit.Test;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.context.request.async.DeferredResult;
+import zipkin.Codec;
+import zipkin.TestObjects;
+import zipkin.collector.CollectorSampler;
+import zipkin.collector.InMemoryCollectorMetrics;
+import zipkin.storage.InMemoryStorage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.TestObjects.TRACE;
+
+/** Drives the non-blocking read path, which MockMvc doesn't support. */
+public class ZipkinHttpCollectorTest {
+  InMemoryStorage storage = new InMemoryStorage();
+  InMemoryCollectorMetrics metrics = new InMemoryCollectorMetrics();
+  ZipkinHttpCollector collector =
+      new ZipkinHttpCollector(storage, CollectorSampler.ALWAYS_SAMPLE, metrics, 1024 * 1024);
+  DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+  FakeInputStream in = new FakeInputStream();
+
+  @Test
+  public void readsBodyAsItArrives() throws Exception {
+    byte[] body = Codec.JSON.writeSpans(TRACE);
+    collector.readAndStoreSpans(null, Codec.JSON, in, body.length, result);
+
+    // half the body arrives, then the client stalls
+    in.arrive(Arrays.copyOfRange(body, 0, body.length / 2));
+    assertThat(result.hasResult()).isFalse();
+
+    in.arrive(Arrays.copyOfRange(body, body.length / 2, body.length));
+    in.finish();
+
+    assertThat(result.getResult()).isSameAs(ZipkinHttpCollector.SUCCESS);
+    assertThat(storage.acceptedSpanCount()).isEqualTo(TRACE.size());
+  }
+
+  /** Content-Length is only a hint, so a large one doesn't presize a large buffer. */
+  @Test
+  public void readsBodyLargerThanInitialCapacity() throws Exception {
+    byte[] body = Codec.JSON.writeSpans(Arrays.asList(TestObjects.LOTS_OF_SPANS).subList(0, 1000));
+    assertThat(body.length).isGreaterThan(ZipkinHttpCollector.BodyReader.MAX_INITIAL_CAPACITY);
+    assertThat(ZipkinHttpCollector.BodyReader.initialCapacity(body.length))
+        .isEqualTo(ZipkinHttpCollector.BodyReader.MAX_INITIAL_CAPACITY);
+
+    collector.readAndStoreSpans(null, Codec.JSON, in, body.length, result);
+    for (int i = 0; i < body.length; i += 8192) {
+      in.arrive(Arrays.copyOfRange(body, i, Math.min(body.length, i + 8192)));
+    }
+    in.finish();
+
+    assertThat(result.getResult()).isSameAs(ZipkinHttpCollector.SUCCESS);
+    assertThat(storage.acceptedSpanCount()).isEqualTo(1000);
+  }
+
+  @Test
+  public void readsBodyWithoutContentLength() throws Exception {
+    byte[] body = Codec.JSON.writeSpans(TRACE);
+    collector.readAndStoreSpans(null, Codec.JSON, in, -1, result);
+
+    in.arrive(body);
+    in.finish();
+
+    assertThat(result.getResult()).isSameAs(ZipkinHttpCollector.SUCCESS);
+  }
+
+  @Test
+  public void rejectsOversizedContentLength() throws Exception {
+    collector.readAndStoreSpans(null, Codec.JSON, in, 1024 * 1024 + 1, result);
+
+    assertThat(in.listener).isNull(); // didn't start reading
+    assertBadRequest("Cannot read spans: Body exceeds 1048576 bytes\n");
+  }
+
+  @Test
+  public void rejectsOversizedBody() throws Exception {
+    collector.readAndStoreSpans(null, Codec.JSON, in, -1, result);
+
+    in.arrive(new byte[1024 * 1024]);
+    assertThat(result.hasResult()).isFalse();
+    in.arrive(new byte[1]);
+
+    assertBadRequest("Cannot read spans: Body exceeds 1048576 bytes\n");
+
+    in.finish(); // completing the body after failure is ignored
+    assertThat(storage.acceptedSpanCount()).isZero();
+  }
+
+  @Test
+  public void reportsReadError() throws Exception {
+    collector.readAndStoreSpans(null, Codec.JSON, in, -1, result);
+
+    in.arrive(new byte[10]);
+    in.listener.onError(new IOException("connection reset"));
+
+    assertBadRequest("Cannot read spans: connection reset\n");
+  }
+
+  @Test
+  public void reportsExceptionReading() throws Exception {
+    collector.readAndStoreSpans(null, Codec.JSON, in, -1, result);
+
+    in.readError = new IOException("connection reset");
+    in.arrive(new byte[10]);
+
+    assertBadRequest("Cannot read spans: connection reset\n");
+  }
+
+  /** Exceptions processing the body mustn't escape to the container */
+  @Test
+  public void bodyReader_reportsUnexpectedError() throws Exception {
+    IllegalStateException error = new IllegalStateException("storage fell over");
+    AtomicReference<Throwable> readError = new AtomicReference<>();
+    AtomicReference<Throwable> unexpectedError = new AtomicReference<>();
+    in.setReadListener(new ZipkinHttpCollector.BodyReader(in, -1, 1024, body -> {
+      throw error;
+    }, readError::set, unexpectedError::set));
+
+    in.arrive(new byte[10]);
+    in.finish();
+
+    assertThat(readError.get()).isNull();
+    assertThat(unexpectedError.get()).isSameAs(error);
+  }
+
+  @Test
+  public void bodyReader_ignoresEventsAfterError() throws Exception {
+    AtomicReference<byte[]> body = new AtomicReference<>();
+    AtomicInteger errors = new AtomicInteger();
+    in.setReadListener(new ZipkinHttpCollector.BodyReader(in, -1, 1024, body::set,
+        t -> errors.incrementAndGet(), t -> errors.incrementAndGet()));
+
+    in.arrive(new byte[10]);
+    in.listener.onError(new IOException("connection reset"));
+    in.listener.onError(new IOException("connection reset"));
+    in.finish();
+
+    assertThat(errors.get()).isEqualTo(1);
+    assertThat(body.get()).isNull();
+  }
+
+  void assertBadRequest(String message) {
+    ResponseEntity<?> response = (ResponseEntity<?>) result.getResult();
+    assertThat(response.getStatusCodeValue()).isEqualTo(400);
+    assertThat(response.getBody()).isEqualTo(message);
+    assertThat(metrics.forTransport("http").messagesDropped()).isEqualTo(1);
+  }
+
+  /** Simulates a client sending the body in chunks, notifying the listener like a container. */
+  static final class FakeInputStream extends ServletInputStream {
+    final Deque<byte[]> chunks = new ArrayDeque<>();
+    ReadListener listener;
+    IOException readError;
+    byte[] current;
+    int pos;
+    boolean finished;
+
+    void arrive(byte[] chunk) throws IOException {
+      chunks.add(chunk);
+      listener.onDataAvailable();
+    }
+
+    void finish() throws IOException {
+      finished = true;
+      listener.onAllDataRead();
+    }
+
+    @Override public boolean isFinished() {
+      return finished && !isReady();
+    }
+
+    @Override public boolean isReady() {
+      while (current == null || pos == current.length) {
+        if (chunks.isEmpty()) return false;
+        current = chunks.poll();
+        pos = 0;
+      }
+      return true;
+    }
+
+    @Override public void setReadListener(ReadListener listener) {
+      this.listener = listener;
+    }
+
+    @Override public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+    }
+
+    @Override public int read(byte[] b, int off, int len) throws IOException {
+      if (readError != null) throw readError;
+      if (!isReady()) throw new IllegalStateException("read when not ready");
+      int count = Math.min(len, current.length - pos);
+      System.arraycopy(current, pos, b, off, count);
+      pos += count;
+      return count;
+    }
+  }
+}
@@ -31,7 +31,6 @@ import java.nio.ByteBuffer;
 import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import zipkin.Codec;
 import zipkin.Span;
 import zipkin.internal.Nullable;
 import zipkin.internal.Pair;
@@ -40,11 +39,14 @@ import zipkin.storage.guava.GuavaSpanConsumer;
 import static com.google.common.util.concurrent.Futures.transform;
 import static zipkin.internal.ApplyTimestampAndDuration.guessTimestamp;
 import static zipkin.storage.cassandra.CassandraUtil.bindWithName;
+import static zipkin.storage.cassandra.CassandraUtil.metricRegistry;
 
 final class CassandraSpanConsumer implements GuavaSpanConsumer {
   private static final Logger LOG = LoggerFactory.getLogger(CassandraSpanConsumer.class);
   private static final long WRITTEN_NAMES_TTL
       = Long.getLong("zipkin.store.cassandra.internal.writtenNamesTtl", 60 * 60 * 1000);
+  private static final long WRITTEN_NAMES_MAX
+      = Long.getLong("zipkin.store.cassandra.internal.writtenNamesMax", 100000);
 
   private static final Function<Object, Void> TO_VOID = Functions.<Void>constant(null);
 
@@ -60,10 +62,24 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
   private final Schema.Metadata metadata;
   private final DeduplicatingExecutor deduplicatingExecutor;
   private final CompositeIndexer indexer;
+  private final int writeBatchSize;
+  private final boolean compressSpans;
 
   CassandraSpanConsumer(Session session, int bucketCount, int spanTtl, int indexTtl,
       @Nullable CacheBuilderSpec indexCacheSpec) {
+    this(session, bucketCount, spanTtl, indexTtl, indexCacheSpec, 1);
+  }
+
+  CassandraSpanConsumer(Session session, int bucketCount, int spanTtl, int indexTtl,
+      @Nullable CacheBuilderSpec indexCacheSpec, int writeBatchSize) {
+    this(session, bucketCount, spanTtl, indexTtl, indexCacheSpec, writeBatchSize, false);
+  }
+
+  CassandraSpanConsumer(Session session, int bucketCount, int spanTtl, int indexTtl,
+      @Nullable CacheBuilderSpec indexCacheSpec, int writeBatchSize, boolean compressSpans) {
     this.session = session;
+    this.writeBatchSize = writeBatchSize;
+    this.compressSpans = compressSpans;
     this.timestampCodec = new TimestampCodec(session);
     this.spanTtl = spanTtl;
     this.metadata = Schema.readMetadata(session);
@@ -88,8 +104,10 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
             .value("bucket", 0) // bucket is deprecated on this index
             .value("span_name", QueryBuilder.bindMarker("span_name"))));
 
-    deduplicatingExecutor = new DeduplicatingExecutor(session, WRITTEN_NAMES_TTL);
-    indexer = new CompositeIndexer(session, indexCacheSpec, bucketCount, this.indexTtl);
+    deduplicatingExecutor = new DeduplicatingExecutor(session, WRITTEN_NAMES_TTL,
+        WRITTEN_NAMES_MAX, metricRegistry(session));
+    indexer = new CompositeIndexer(session, indexCacheSpec, bucketCount, this.indexTtl,
+        metadata.hasTimeBucketIndex);
   }
 
   private RegularStatement maybeUseTtl(Insert value) {
@@ -101,10 +119,15 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
   /**
    * This fans out into many requests, last count was 8 * spans.size. If any of these fail, the
    * returned future will fail. Most callers drop or log the result.
+   *
+   * <p>When {@code writeBatchSize} is greater than one, span and index rows that share a partition
+   * are sent together as unlogged batches, which reduces the request count considerably.
    */
   @Override
   public ListenableFuture<Void> accept(List<Span> rawSpans) {
     ImmutableSet.Builder<ListenableFuture<?>> futures = ImmutableSet.builder();
+    PartitionBatcher batcher =
+        writeBatchSize > 1 ? new PartitionBatcher(session, writeBatchSize) : null;
 
     ImmutableList.Builder<Span> spans = ImmutableList.builder();
     for (Span span : rawSpans) {
@@ -113,6 +136,7 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
       spans.add(span);
 
       futures.add(storeSpan(
+          batcher,
           span.traceId,
           timestamp != null ? timestamp : 0L,
           String.format("%s%d_%d_%d",
@@ -121,7 +145,7 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
               span.annotations.hashCode(),
               span.binaryAnnotations.hashCode()),
           // store the raw span without any adjustments
-          ByteBuffer.wrap(Codec.THRIFT.writeSpan(span))));
+          SpanBlobCodec.encode(span, compressSpans)));
 
       for (String serviceName : span.serviceNames()) {
         // SpanStore.getServiceNames
@@ -132,14 +156,30 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
         }
       }
     }
-    futures.addAll(indexer.index(spans.build()));
+    if (batcher == null) {
+      futures.addAll(indexer.index(spans.build()));
+    } else {
+      // span inserts are already deferred to the batcher, so execute them even if indexing fails
+      try {
+        batcher.addAll(indexer.bind(spans.build()));
+      } catch (RuntimeException ex) {
+        futures.add(Futures.immediateFailedFuture(ex));
+      }
+      try {
+        futures.addAll(batcher.execute());
+      } catch (RuntimeException ex) {
+        futures.add(Futures.immediateFailedFuture(ex));
+      }
+    }
     return transform(Futures.allAsList(futures.build()), TO_VOID);
   }
 
   /**
-   * Store the span in the underlying storage for later retrieval.
+   * Store the span in the underlying storage for later retrieval. When a batcher is present, the
+   * insert is deferred until it executes, and the returned future is already done.
    */
-  ListenableFuture<?> storeSpan(long traceId, long timestamp, String key, ByteBuffer span) {
+  ListenableFuture<?> storeSpan(@Nullable PartitionBatcher batcher, long traceId, long timestamp,
+      String key, ByteBuffer span) {
     try {
       // If we couldn't guess the timestamp, that probably means that there was a missing timestamp.
       if (0 == timestamp && metadata.compactionClass.contains("DateTieredCompactionStrategy")) {
@@ -155,7 +195,9 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
           .setBytes("span", span);
       if (!metadata.hasDefaultTtl) bound.setInt("ttl_", spanTtl);
 
-      return session.executeAsync(bound);
+      if (batcher == null) return session.executeAsync(bound);
+      batcher.add(bound);
+      return Futures.immediateFuture(null);
     } catch (RuntimeException ex) {
       return Futures.immediateFailedFuture(ex);
     }
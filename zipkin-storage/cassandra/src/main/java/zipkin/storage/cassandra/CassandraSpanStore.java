@@ -14,6 +14,7 @@
 package zipkin.storage.cassandra;
 
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ProtocolVersion;
 import com.datastax.driver.core.ResultSet;
@@ -22,7 +23,6 @@ import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.common.base.Function;
 import com.google.common.collect.ContiguousSet;
-import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
@@ -40,12 +40,12 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import zipkin.Codec;
 import zipkin.DependencyLink;
 import zipkin.Span;
 import zipkin.internal.CorrectForClockSkew;
@@ -64,6 +64,8 @@ import static com.google.common.util.concurrent.Futures.allAsList;
 import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
 import static com.google.common.util.concurrent.Futures.immediateFuture;
 import static com.google.common.util.concurrent.Futures.transform;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static zipkin.internal.Util.getDays;
 
 public final class CassandraSpanStore implements GuavaSpanStore {
@@ -72,8 +74,13 @@ public final class CassandraSpanStore implements GuavaSpanStore {
   static final ListenableFuture<List<String>> EMPTY_LIST =
       immediateFuture(Collections.<String>emptyList());
 
+  /** Bounds how many hour buckets are queried at the same time: a day's worth. */
+  static final int TIME_BUCKET_WINDOW = 24;
+
   private final int maxTraceCols;
   private final int indexFetchMultiplier;
+  private final int maxIndexFetchMultiplier;
+  private final int indexFetchTimeBudget;
   private final boolean strictTraceId;
   private final Session session;
   private final TimestampCodec timestampCodec;
@@ -86,13 +93,20 @@ public final class CassandraSpanStore implements GuavaSpanStore {
   private final PreparedStatement selectTraceIdsByServiceNames;
   private final PreparedStatement selectTraceIdsBySpanName;
   private final PreparedStatement selectTraceIdsByAnnotation;
+  @Nullable private final PreparedStatement selectTraceIdsByTimeBucket;
+  /** Rows in {@link Tables#TIME_BUCKET_INDEX} expire after this long. Zero if they don't. */
+  private final long timeBucketTtlMicros;
   private final Function<ResultSet, Map<Long, Long>> traceIdToTimestamp;
+  @Nullable private final ConcurrentTraceFetcher concurrentTraceFetcher;
 
   CassandraSpanStore(Session session, int bucketCount, int maxTraceCols, int indexFetchMultiplier,
-      boolean strictTraceId) {
+      int maxIndexFetchMultiplier, int indexFetchTimeBudget, boolean strictTraceId,
+      int traceFetchConcurrency) {
     this.session = session;
     this.maxTraceCols = maxTraceCols;
     this.indexFetchMultiplier = indexFetchMultiplier;
+    this.maxIndexFetchMultiplier = maxIndexFetchMultiplier;
+    this.indexFetchTimeBudget = indexFetchTimeBudget;
     this.strictTraceId = strictTraceId;
 
     ProtocolVersion protocolVersion = session.getCluster()
@@ -152,6 +166,24 @@ public final class CassandraSpanStore implements GuavaSpanStore {
             .limit(QueryBuilder.bindMarker("limit_"))
             .orderBy(QueryBuilder.desc("ts")));
 
+    KeyspaceMetadata keyspaceMetadata = Schema.getKeyspaceMetadata(session);
+    if (Schema.hasUpgrade2_timeBucketIndex(keyspaceMetadata)) {
+      timeBucketTtlMicros = SECONDS.toMicros(keyspaceMetadata
+          .getTable(Tables.TIME_BUCKET_INDEX).getOptions().getDefaultTimeToLive());
+      selectTraceIdsByTimeBucket = session.prepare(
+          QueryBuilder.select("ts", "trace_id")
+              .from(Tables.TIME_BUCKET_INDEX)
+              .where(QueryBuilder.eq("time_bucket", QueryBuilder.bindMarker("time_bucket")))
+              .and(QueryBuilder.in("bucket", QueryBuilder.bindMarker("bucket")))
+              .and(QueryBuilder.gte("ts", QueryBuilder.bindMarker("start_ts")))
+              .and(QueryBuilder.lte("ts", QueryBuilder.bindMarker("end_ts")))
+              .limit(QueryBuilder.bindMarker("limit_"))
+              .orderBy(QueryBuilder.desc("ts")));
+    } else {
+      timeBucketTtlMicros = 0L;
+      selectTraceIdsByTimeBucket = null;
+    }
+
     if (protocolVersion.compareTo(ProtocolVersion.V4) < 0) {
       LOG.warn("Please update Cassandra to 2.2 or later, as some features may fail");
       // Log vs failing on "Partition KEY part service_name cannot be restricted by IN relation"
@@ -168,6 +200,10 @@ public final class CassandraSpanStore implements GuavaSpanStore {
               .orderBy(QueryBuilder.desc("ts")));
     }
 
+    concurrentTraceFetcher = traceFetchConcurrency > 0
+        ? new ConcurrentTraceFetcher(session, traceFetchConcurrency)
+        : null;
+
     traceIdToTimestamp = input -> {
       Map<Long, Long> result = new LinkedHashMap<>();
       for (Row row : input) {
@@ -181,13 +217,47 @@ public final class CassandraSpanStore implements GuavaSpanStore {
    * This fans out into a potentially large amount of requests related to the amount of annotations
    * queried. The returned future will fail if any of the inputs fail.
    *
-   * <p>When {@link QueryRequest#serviceName service name} is unset, service names will be
+   * <p>When {@link QueryRequest#serviceName service name} is unset, trace IDs are read from
+   * {@link Tables#TIME_BUCKET_INDEX}. If the schema lacks that table, service names will be
    * fetched eagerly, implying an additional query.
    */
   @Override
   public ListenableFuture<List<List<Span>>> getTraces(final QueryRequest request) {
+    if (maxIndexFetchMultiplier > indexFetchMultiplier) {
+      return new AdaptiveSearch(request).search(indexFetchMultiplier);
+    }
     // Over fetch on indexes as they don't return distinct (trace id, timestamp) rows.
-    final int traceIndexFetchSize = request.limit * indexFetchMultiplier;
+    ListenableFuture<Set<Long>> traceIds =
+        getTraceIds(request, request.limit * indexFetchMultiplier);
+    return transform(traceIds, new AsyncFunction<Set<Long>, List<List<Span>>>() {
+      @Override public ListenableFuture<List<List<Span>>> apply(Set<Long> traceIds) {
+        traceIds = ImmutableSet.copyOf(Iterators.limit(traceIds.iterator(), request.limit));
+        return transform(getSpansByTraceIds(traceIds, maxTraceCols),
+            new Function<List<Span>, List<List<Span>>>() {
+              @Override public List<List<Span>> apply(List<Span> input) {
+                return groupAndFilter(input, request);
+              }
+            });
+      }
+
+      @Override public String toString() {
+        return "getSpansByTraceIds";
+      }
+    });
+  }
+
+  List<List<Span>> groupAndFilter(List<Span> input, QueryRequest request) {
+    // Indexes only contain Span.traceId, so our matches are imprecise on Span.traceIdHigh
+    List<List<Span>> result = new ArrayList<>();
+    for (List<Span> trace : GroupByTraceId.apply(input, strictTraceId, true)) {
+      if (trace.get(0).traceIdHigh == 0 || request.test(trace)) result.add(trace);
+    }
+    return result;
+  }
+
+  /** Returns trace IDs matching the request, reading up to the given rows from each index. */
+  ListenableFuture<Set<Long>> getTraceIds(final QueryRequest request,
+      final int traceIndexFetchSize) {
     ListenableFuture<Map<Long, Long>> traceIdToTimestamp;
     if (request.spanName != null) {
       traceIdToTimestamp = getTraceIdsBySpanName(request.serviceName, request.spanName,
@@ -195,6 +265,9 @@ public final class CassandraSpanStore implements GuavaSpanStore {
     } else if (request.serviceName != null) {
       traceIdToTimestamp = getTraceIdsByServiceNames(Collections.singletonList(request.serviceName),
           request.endTs * 1000, request.lookback * 1000, traceIndexFetchSize);
+    } else if (selectTraceIdsByTimeBucket != null) {
+      traceIdToTimestamp = getTraceIdsByTimeBucket(
+          request.endTs * 1000, request.lookback * 1000, traceIndexFetchSize);
     } else {
       checkArgument(selectTraceIdsByServiceNames != null,
           "getTraces without serviceName requires Cassandra 2.2 or later");
@@ -228,24 +301,62 @@ public final class CassandraSpanStore implements GuavaSpanStore {
       // We achieve the AND goal, by intersecting each of the key sets.
       traceIds = Futures.transform(allAsList(futureKeySetsToIntersect), CassandraUtil.intersectKeySets());
     }
-    return transform(traceIds, new AsyncFunction<Set<Long>, List<List<Span>>>() {
-      @Override public ListenableFuture<List<List<Span>>> apply(Set<Long> traceIds) {
-        traceIds = ImmutableSet.copyOf(Iterators.limit(traceIds.iterator(), request.limit));
-        return transform(getSpansByTraceIds(traceIds, maxTraceCols),
-            new Function<List<Span>, List<List<Span>>>() {
-              @Override public List<List<Span>> apply(List<Span> input) {
-                // Indexes only contain Span.traceId, so our matches are imprecise on Span.traceIdHigh
-                return FluentIterable.from(GroupByTraceId.apply(input, strictTraceId, true))
-                    .filter(trace -> trace.get(0).traceIdHigh == 0 || request.test(trace))
-                    .toList();
+    return traceIds;
+  }
+
+  /**
+   * Repeats index queries, doubling the index fetch multiplier each round, until {@link
+   * QueryRequest#limit} traces match. This stops early when a round finds no more trace IDs than
+   * the last, when {@link CassandraStorage.Builder#maxIndexFetchMultiplier(int)} is reached or when
+   * the time budget is spent. Spans are only read for trace IDs not read in a prior round.
+   *
+   * <p>Rounds run one after another, so state here isn't accessed concurrently.
+   */
+  final class AdaptiveSearch {
+    final QueryRequest request;
+    final long deadlineNanos;
+    final Set<Long> readTraceIds = new LinkedHashSet<>();
+    final List<List<Span>> result = new ArrayList<>();
+    int lastTraceIdCount = -1;
+
+    AdaptiveSearch(QueryRequest request) {
+      this.request = request;
+      this.deadlineNanos = System.nanoTime() + MILLISECONDS.toNanos(indexFetchTimeBudget);
+    }
+
+    ListenableFuture<List<List<Span>>> search(final int multiplier) {
+      return transform(getTraceIds(request, request.limit * multiplier),
+          new AsyncFunction<Set<Long>, List<List<Span>>>() {
+            @Override public ListenableFuture<List<List<Span>>> apply(Set<Long> traceIds) {
+              final boolean exhausted = traceIds.size() <= lastTraceIdCount;
+              lastTraceIdCount = traceIds.size();
+
+              Set<Long> toRead = new LinkedHashSet<>();
+              for (Long traceId : traceIds) {
+                if (result.size() + toRead.size() >= request.limit) break;
+                if (readTraceIds.add(traceId)) toRead.add(traceId);
               }
-            });
-      }
+              return transform(getSpansByTraceIds(toRead, maxTraceCols),
+                  new AsyncFunction<List<Span>, List<List<Span>>>() {
+                    @Override public ListenableFuture<List<List<Span>>> apply(List<Span> input) {
+                      result.addAll(groupAndFilter(input, request));
+                      if (result.size() >= request.limit
+                          || exhausted
+                          || multiplier >= maxIndexFetchMultiplier
+                          || System.nanoTime() >= deadlineNanos) {
+                        Collections.sort(result, GroupByTraceId.TRACE_DESCENDING);
+                        return immediateFuture(result);
+                      }
+                      return search(Math.min(multiplier * 2, maxIndexFetchMultiplier));
+                    }
+                  });
+            }
 
-      @Override public String toString() {
-        return "getSpansByTraceIds";
-      }
-    });
+            @Override public String toString() {
+              return "adaptiveSearch(" + multiplier + ")";
+            }
+          });
+    }
   }
 
   @Override public ListenableFuture<List<Span>> getRawTrace(long traceId) {
@@ -367,12 +478,16 @@ public final class CassandraSpanStore implements GuavaSpanStore {
    * the first annotation timestamp in that span. First event should be first in the spans list. <p>
    * The return list will contain only spans that have been found, thus the return list may not
    * match the provided list of ids.
+   *
+   * <p>When {@link CassandraStorage.Builder#traceFetchConcurrency(int)} is set, this reads each
+   * trace with a separate query, and {@code limit} applies per trace instead of overall.
    */
   ListenableFuture<List<Span>> getSpansByTraceIds(Set<Long> traceIds, int limit) {
     checkNotNull(traceIds, "traceIds");
     if (traceIds.isEmpty()) {
       return immediateFuture(Collections.<Span>emptyList());
     }
+    if (concurrentTraceFetcher != null) return concurrentTraceFetcher.fetch(traceIds, limit);
 
     try {
       BoundStatement bound = CassandraUtil.bindWithName(selectTraces, "select-traces")
@@ -386,7 +501,7 @@ public final class CassandraSpanStore implements GuavaSpanStore {
             @Override public List<Span> apply(ResultSet input) {
               List<Span> result = new ArrayList<>(input.getAvailableWithoutFetching());
               for (Row row : input) {
-                result.add(Codec.THRIFT.readSpan(row.getBytes("span")));
+                result.add(SpanBlobCodec.decode(row.getBytes("span")));
               }
               return result;
             }
@@ -397,6 +512,66 @@ public final class CassandraSpanStore implements GuavaSpanStore {
     }
   }
 
+  /**
+   * Reads {@link Tables#TIME_BUCKET_INDEX} in windows of {@link #TIME_BUCKET_WINDOW} hours, newest
+   * first, starting with the hour of {@code endTs}. Hours in a window are queried concurrently.
+   * Windows repeat until {@code limit} trace IDs are found or the lookback is exhausted.
+   *
+   * <p>The lookback is capped at the table's default TTL, as older hours have already expired.
+   */
+  ListenableFuture<Map<Long, Long>> getTraceIdsByTimeBucket(long endTs, long lookback,
+      int limit) {
+    long startTs = Math.max(endTs - lookback, 0); // >= 1970
+    if (timeBucketTtlMicros > 0) startTs = Math.max(startTs, endTs - timeBucketTtlMicros);
+    return getTraceIdsByTimeBucket(InsertTraceIdByTimeBucket.timeBucket(endTs),
+        InsertTraceIdByTimeBucket.timeBucket(startTs), startTs, endTs, limit,
+        new LinkedHashMap<Long, Long>());
+  }
+
+  ListenableFuture<Map<Long, Long>> getTraceIdsByTimeBucket(final int timeBucket,
+      final int startTimeBucket, final long startTs, final long endTs, final int limit,
+      final Map<Long, Long> result) {
+    final int windowEnd = Math.max(timeBucket - TIME_BUCKET_WINDOW + 1, startTimeBucket);
+    List<ListenableFuture<Map<Long, Long>>> futures = new ArrayList<>();
+    try {
+      for (int i = timeBucket; i >= windowEnd; i--) {
+        BoundStatement bound =
+            CassandraUtil.bindWithName(selectTraceIdsByTimeBucket, "select-trace-ids-by-time-bucket")
+                .setInt("time_bucket", i)
+                .setSet("bucket", buckets)
+                .setBytesUnsafe("start_ts", timestampCodec.serialize(startTs))
+                .setBytesUnsafe("end_ts", timestampCodec.serialize(endTs))
+                .setInt("limit_", limit - result.size());
+
+        bound.setFetchSize(Integer.MAX_VALUE);
+
+        futures.add(transform(session.executeAsync(bound), traceIdToTimestamp));
+      }
+    } catch (RuntimeException ex) {
+      return immediateFailedFuture(ex);
+    }
+
+    return transform(allAsList(futures),
+        new AsyncFunction<List<Map<Long, Long>>, Map<Long, Long>>() {
+          @Override public ListenableFuture<Map<Long, Long>> apply(List<Map<Long, Long>> input) {
+            // Results are in hour order, newest first, so the most recent trace IDs are kept
+            for (Map<Long, Long> hour : input) {
+              for (Map.Entry<Long, Long> entry : hour.entrySet()) {
+                if (result.size() >= limit) return immediateFuture(result);
+                if (!result.containsKey(entry.getKey())) {
+                  result.put(entry.getKey(), entry.getValue());
+                }
+              }
+            }
+            if (result.size() >= limit || windowEnd <= startTimeBucket) {
+              return immediateFuture(result);
+            }
+            return getTraceIdsByTimeBucket(windowEnd - 1, startTimeBucket, startTs, endTs, limit,
+                result);
+          }
+        });
+  }
+
   ListenableFuture<Map<Long, Long>> getTraceIdsByServiceNames(List<String> serviceNames, long endTs,
       long lookback, int limit) {
     if (serviceNames.isEmpty()) return immediateFuture(Collections.<Long, Long>emptyMap());
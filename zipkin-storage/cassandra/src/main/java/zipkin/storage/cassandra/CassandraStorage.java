@@ -64,6 +64,15 @@ public final class CassandraStorage
     int indexCacheMax = 100000;
     int indexCacheTtl = 60;
     int indexFetchMultiplier = 3;
+    int maxIndexFetchMultiplier = 0;
+    int indexFetchTimeBudget = 1000;
+    int writeBatchSize = 1;
+    int maxInFlightWrites = 0;
+    int inFlightWriteTimeout = 1000;
+    int traceFetchConcurrency = 0;
+    int speculativeReadDelay = 0;
+    int maxSpeculativeReads = 1;
+    boolean compressSpans = false;
 
     /**
      * Used to avoid hot spots when writing indexes used to query by service name or annotation.
@@ -229,6 +238,120 @@ public final class CassandraStorage
       return this;
     }
 
+    /**
+     * When greater than {@link #indexFetchMultiplier}, trace searches that return less than {@link
+     * QueryRequest#limit} traces are repeated with double the multiplier, up to this value.
+     * Defaults to 0, which disables the feature.
+     *
+     * <p>A fixed multiplier over-fetches for most queries, yet can still return too few traces
+     * when annotation queries intersect sparsely. With this set, you can lower {@link
+     * #indexFetchMultiplier} to suit common queries, and selective queries will read more rows as
+     * needed. Spans are only read once per trace ID, even when a search is repeated.
+     */
+    public Builder maxIndexFetchMultiplier(int maxIndexFetchMultiplier) {
+      this.maxIndexFetchMultiplier = maxIndexFetchMultiplier;
+      return this;
+    }
+
+    /**
+     * How long in milliseconds a trace search can keep repeating to find more traces. Defaults to
+     * 1000. This is only read when {@link #maxIndexFetchMultiplier} is set.
+     */
+    public Builder indexFetchTimeBudget(int indexFetchTimeBudget) {
+      this.indexFetchTimeBudget = indexFetchTimeBudget;
+      return this;
+    }
+
+    /**
+     * Maximum statements in an unlogged batch of span or index rows. Defaults to 1, which disables
+     * batching.
+     *
+     * <p>When greater than one, rows written by the same request that share a partition key are
+     * grouped into an {@link com.datastax.driver.core.BatchStatement.Type#UNLOGGED unlogged} batch,
+     * routed to a replica of that partition. This reduces requests and coordinator load, especially
+     * for index rows, which share partitions like service name. Service and span names are not
+     * batched, as they are already deduplicated.
+     */
+    public Builder writeBatchSize(int writeBatchSize) {
+      this.writeBatchSize = writeBatchSize;
+      return this;
+    }
+
+    /**
+     * Maximum count of write requests in flight at the same time. Defaults to 0, which is
+     * unlimited.
+     *
+     * <p>Each call to the span consumer fans out into many asynchronous requests. Under bursts,
+     * these can exceed the driver's per-connection request queue, resulting in {@code
+     * BusyPoolException}. When set, writes beyond this limit wait for {@link
+     * #inFlightWriteTimeout} before failing. A good starting point is a fraction of
+     * {@link #maxConnections} times 1024, the driver's default max requests per connection.
+     */
+    public Builder maxInFlightWrites(int maxInFlightWrites) {
+      this.maxInFlightWrites = maxInFlightWrites;
+      return this;
+    }
+
+    /**
+     * How long in milliseconds a write waits for an in-flight permit before it is rejected.
+     * Defaults to 1000. This is only read when {@link #maxInFlightWrites} is greater than zero.
+     */
+    public Builder inFlightWriteTimeout(int inFlightWriteTimeout) {
+      this.inFlightWriteTimeout = inFlightWriteTimeout;
+      return this;
+    }
+
+    /**
+     * When greater than zero, spans are read with one query per trace ID, at most this many at the
+     * same time. Defaults to 0, which reads all traces with a single query.
+     *
+     * <p>The single query restricts trace IDs with an {@code IN} clause. This forces one
+     * coordinator to read from replicas of every trace, and {@link #maxTraceCols} caps the spans
+     * returned across all traces. When set, each query reads one partition, so it is routed to a
+     * replica. Large traces are read in pages, and {@link #maxTraceCols} applies per trace.
+     */
+    public Builder traceFetchConcurrency(int traceFetchConcurrency) {
+      this.traceFetchConcurrency = traceFetchConcurrency;
+      return this;
+    }
+
+    /**
+     * When greater than zero, a SELECT that hasn't completed within this many milliseconds is sent
+     * to another replica, and the first response wins. Defaults to 0, which disables speculative
+     * reads.
+     *
+     * <p>This protects trace lookups from a single slow coordinator, for example one in a garbage
+     * collection pause, at the cost of extra reads. A good starting point is the p99 latency of
+     * reads, as reported by the statement metrics. Writes are never speculatively executed.
+     */
+    public Builder speculativeReadDelay(int speculativeReadDelay) {
+      this.speculativeReadDelay = speculativeReadDelay;
+      return this;
+    }
+
+    /**
+     * Maximum count of additional replicas a slow SELECT is sent to. Defaults to 1. This is only
+     * read when {@link #speculativeReadDelay} is greater than zero.
+     */
+    public Builder maxSpeculativeReads(int maxSpeculativeReads) {
+      this.maxSpeculativeReads = maxSpeculativeReads;
+      return this;
+    }
+
+    /**
+     * When true, spans are deflated before they are stored in the {@code traces} table, unless
+     * that doesn't make them smaller. Defaults to false.
+     *
+     * <p>A preset dictionary of common span strings makes even small spans shrink considerably,
+     * reducing disk usage and the bytes read per trace. Compressed and uncompressed spans are read
+     * transparently. However, older versions of Zipkin cannot read compressed spans, so upgrade all
+     * servers before enabling this.
+     */
+    public Builder compressSpans(boolean compressSpans) {
+      this.compressSpans = compressSpans;
+      return this;
+    }
+
     @Override public CassandraStorage build() {
       return new CassandraStorage(this);
     }
@@ -253,6 +376,15 @@ public final class CassandraStorage
   final String keyspace;
   final CacheBuilderSpec indexCacheSpec;
   final int indexFetchMultiplier;
+  final int maxIndexFetchMultiplier;
+  final int indexFetchTimeBudget;
+  final int writeBatchSize;
+  final int maxInFlightWrites;
+  final int inFlightWriteTimeout;
+  final int traceFetchConcurrency;
+  final int speculativeReadDelay;
+  final int maxSpeculativeReads;
+  final boolean compressSpans;
   final boolean strictTraceId;
   final LazySession session;
 
@@ -276,6 +408,15 @@ public final class CassandraStorage
         : CacheBuilderSpec.parse("maximumSize=" + builder.indexCacheMax
             + ",expireAfterWrite=" + builder.indexCacheTtl + "s");
     this.indexFetchMultiplier = builder.indexFetchMultiplier;
+    this.maxIndexFetchMultiplier = builder.maxIndexFetchMultiplier;
+    this.indexFetchTimeBudget = builder.indexFetchTimeBudget;
+    this.writeBatchSize = builder.writeBatchSize;
+    this.maxInFlightWrites = builder.maxInFlightWrites;
+    this.inFlightWriteTimeout = builder.inFlightWriteTimeout;
+    this.traceFetchConcurrency = builder.traceFetchConcurrency;
+    this.speculativeReadDelay = builder.speculativeReadDelay;
+    this.maxSpeculativeReads = builder.maxSpeculativeReads;
+    this.compressSpans = builder.compressSpans;
   }
 
   /** Lazy initializes or returns the session in use by this storage component. */
@@ -285,11 +426,16 @@ public final class CassandraStorage
 
   @Override protected CassandraSpanStore computeGuavaSpanStore() {
     return new CassandraSpanStore(session.get(), bucketCount, maxTraceCols,
-        indexFetchMultiplier, strictTraceId);
+        indexFetchMultiplier, maxIndexFetchMultiplier, indexFetchTimeBudget, strictTraceId,
+        traceFetchConcurrency);
   }
 
   @Override protected CassandraSpanConsumer computeGuavaSpanConsumer() {
-    return new CassandraSpanConsumer(session.get(), bucketCount, spanTtl, indexTtl, indexCacheSpec);
+    Session writeSession = maxInFlightWrites > 0
+        ? ThrottledSession.create(session.get(), maxInFlightWrites, inFlightWriteTimeout)
+        : session.get();
+    return new CassandraSpanConsumer(writeSession, bucketCount, spanTtl, indexTtl, indexCacheSpec,
+        writeBatchSize, compressSpans);
   }
 
   @Override public CheckResult check() {
@@ -320,6 +466,9 @@ public final class CassandraStorage
     )) {
       futures.add(session.get().executeAsync(format("TRUNCATE %s", cf)));
     }
+    if (Schema.hasUpgrade2_timeBucketIndex(Schema.getKeyspaceMetadata(session.get()))) {
+      futures.add(session.get().executeAsync(format("TRUNCATE %s", Tables.TIME_BUCKET_INDEX)));
+    }
     Futures.getUnchecked(Futures.allAsList(futures));
   }
 }
@@ -13,8 +13,12 @@
  */
 package zipkin.storage.cassandra;
 
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Metrics;
 import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
 import com.google.common.base.Function;
 import com.google.common.collect.Sets;
 import java.nio.ByteBuffer;
@@ -111,6 +115,16 @@ final class CassandraUtil {
     return (Function) KeySet.INSTANCE;
   }
 
+  /**
+   * Returns the cluster's metrics registry, which the driver reports via JMX. When metrics are
+   * disabled on the cluster, this returns a new registry, only visible to the caller.
+   */
+  static MetricRegistry metricRegistry(Session session) {
+    Cluster cluster = session.getCluster();
+    Metrics metrics = cluster != null ? cluster.getMetrics() : null;
+    return metrics != null ? metrics.getRegistry() : new MetricRegistry();
+  }
+
   static BoundStatement bindWithName(PreparedStatement prepared, String name) {
     return new NamedBoundStatement(prepared, name);
   }
@@ -13,9 +13,11 @@
  */
 package zipkin.storage.cassandra;
 
+import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Session;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.List;
@@ -33,15 +35,17 @@ final class CompositeIndexer {
   private final ConcurrentMap<PartitionKeyToTraceId, Pair<Long>> sharedState;
 
   CompositeIndexer(Session session, CacheBuilderSpec spec, int bucketCount,
-      @Nullable Integer indexTtl) {
+      @Nullable Integer indexTtl, boolean timeBucketIndex) {
     this.sharedState = spec == null ? null :
         CacheBuilder.from(spec).<PartitionKeyToTraceId, Pair<Long>>build().asMap();
     Indexer.Factory factory = new Indexer.Factory(session, indexTtl, sharedState);
-    this.indexers = ImmutableSet.of(
-        factory.create(new InsertTraceIdByServiceName(bucketCount)),
-        factory.create(new InsertTraceIdBySpanName()),
-        factory.create(new InsertTraceIdByAnnotation(bucketCount))
-    );
+    ImmutableSet.Builder<Indexer> indexers = ImmutableSet.<Indexer>builder()
+        .add(factory.create(new InsertTraceIdByServiceName(bucketCount)))
+        .add(factory.create(new InsertTraceIdBySpanName()))
+        .add(factory.create(new InsertTraceIdByAnnotation(bucketCount)));
+    // Schema from before upgrade 2 lacks this table
+    if (timeBucketIndex) indexers.add(factory.create(new InsertTraceIdByTimeBucket(bucketCount)));
+    this.indexers = indexers.build();
   }
 
   ImmutableSet<ListenableFuture<?>> index(List<Span> spans) {
@@ -52,6 +56,15 @@ final class CompositeIndexer {
     return result.build();
   }
 
+  /** Like {@link #index(List)}, except returns statements instead of executing them. */
+  ImmutableList<BoundStatement> bind(List<Span> spans) {
+    ImmutableList.Builder<BoundStatement> result = ImmutableList.builder();
+    for (Indexer optimizer : indexers) {
+      result.addAll(optimizer.bind(spans));
+    }
+    return result.build();
+  }
+
   public void clear() {
     sharedState.clear();
   }
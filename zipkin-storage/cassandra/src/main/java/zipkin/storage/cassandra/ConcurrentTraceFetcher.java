@@ -0,0 +1,150 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import zipkin.Span;
+
+import static com.google.common.util.concurrent.Futures.immediateFailedFuture;
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static com.google.common.util.concurrent.Futures.transform;
+import static zipkin.internal.Util.checkArgument;
+import static zipkin.storage.cassandra.CassandraUtil.bindWithName;
+
+/**
+ * Fetches spans with one query per trace ID, as opposed to one query with an {@code IN} clause.
+ *
+ * <p>Each query restricts a single partition, so the token-aware load balancing policy sends it
+ * directly to a replica, instead of a coordinator fanning out to all replicas of all traces. At
+ * most {@code concurrency} traces are read at the same time. Large traces are read page by page,
+ * without blocking a thread.
+ */
+final class ConcurrentTraceFetcher {
+  final Session session;
+  final PreparedStatement selectTrace;
+  final int concurrency;
+
+  ConcurrentTraceFetcher(Session session, int concurrency) {
+    checkArgument(concurrency > 0, "concurrency <= 0");
+    this.session = session;
+    this.concurrency = concurrency;
+    this.selectTrace = session.prepare(
+        QueryBuilder.select("span")
+            .from("traces")
+            .where(QueryBuilder.eq("trace_id", QueryBuilder.bindMarker("trace_id")))
+            .limit(QueryBuilder.bindMarker("limit_")));
+  }
+
+  /**
+   * Returns spans of all traces, or fails if reading any of them failed.
+   *
+   * @param limit maximum spans to read per trace
+   */
+  ListenableFuture<List<Span>> fetch(Set<Long> traceIds, int limit) {
+    if (traceIds.isEmpty()) return immediateFuture(Collections.<Span>emptyList());
+    Fetch fetch = new Fetch(ImmutableList.copyOf(traceIds), limit);
+    for (int i = 0; i < concurrency; i++) {
+      if (!fetch.next()) break;
+    }
+    return fetch.result;
+  }
+
+  /** Reads spans in the trace, following pages asynchronously. */
+  ListenableFuture<List<Span>> fetch(long traceId, int limit) {
+    try {
+      BoundStatement bound = bindWithName(selectTrace, "select-trace")
+          .setLong("trace_id", traceId)
+          .setInt("limit_", limit);
+      return transform(session.executeAsync(bound), new ReadPages());
+    } catch (RuntimeException ex) {
+      return immediateFailedFuture(ex);
+    }
+  }
+
+  /** Holds the state of one call to {@link #fetch(Set, int)}. */
+  final class Fetch {
+    final List<Long> traceIds;
+    final int limit;
+    final AtomicInteger nextIndex = new AtomicInteger();
+    final AtomicInteger remaining;
+    final AtomicReferenceArray<List<Span>> traces;
+    final SettableFuture<List<Span>> result = SettableFuture.create();
+
+    Fetch(List<Long> traceIds, int limit) {
+      this.traceIds = traceIds;
+      this.limit = limit;
+      this.remaining = new AtomicInteger(traceIds.size());
+      this.traces = new AtomicReferenceArray<>(traceIds.size());
+    }
+
+    /** Starts reading the next trace, returning false if there are none left or we failed. */
+    boolean next() {
+      if (result.isDone()) return false;
+      final int index = nextIndex.getAndIncrement();
+      if (index >= traceIds.size()) return false;
+      Futures.addCallback(fetch(traceIds.get(index), limit), new FutureCallback<List<Span>>() {
+        @Override public void onSuccess(List<Span> spans) {
+          traces.set(index, spans);
+          if (remaining.decrementAndGet() == 0) {
+            complete();
+          } else {
+            next();
+          }
+        }
+
+        @Override public void onFailure(Throwable t) {
+          result.setException(t);
+        }
+      });
+      return true;
+    }
+
+    void complete() {
+      List<Span> spans = new ArrayList<>();
+      for (int i = 0, length = traces.length(); i < length; i++) {
+        spans.addAll(traces.get(i));
+      }
+      result.set(spans);
+    }
+  }
+
+  static final class ReadPages implements AsyncFunction<ResultSet, List<Span>> {
+    final List<Span> spans = new ArrayList<>();
+
+    @Override public ListenableFuture<List<Span>> apply(ResultSet input) {
+      // only consume what's already fetched, as iterating further would block on the next page
+      for (int i = input.getAvailableWithoutFetching(); i > 0; i--) {
+        spans.add(SpanBlobCodec.decode(input.one().getBytes("span")));
+      }
+      if (input.isFullyFetched()) return immediateFuture(spans);
+      return transform(input.fetchMoreResults(), this);
+    }
+  }
+}
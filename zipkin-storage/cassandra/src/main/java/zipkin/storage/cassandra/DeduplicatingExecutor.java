@@ -13,18 +13,22 @@
  */
 package zipkin.storage.cassandra;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.Session;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
@@ -32,60 +36,58 @@ import static zipkin.internal.Util.checkNotNull;
 
 /**
  * This reduces load on cassandra by preventing semantically equivalent requests from being invoked,
- * subject to a local TTL.
+ * subject to a local TTL and maximum size.
  *
  * <p>Ex. If you want to test that you don't repeatedly send bad data, you could send a 400 back.
  *
  * <pre>{@code
  * ttl = 60 * 1000; // 1 minute
- * deduper = new DeduplicatingExecutor(session, ttl);
+ * deduper = new DeduplicatingExecutor(session, ttl, maxSize, metrics);
  *
  * // the result of the first execution against "foo" is returned to other callers
  * // until it expires a minute later.
  * deduper.maybeExecute(bound, "foo");
  * deduper.maybeExecute(bound, "foo");
  * }</pre>
+ *
+ * <p>Entries only hold the key and a future disconnected from cassandra state. Notably, the bound
+ * statement is not retained after it is executed.
+ *
+ * <p>Counters named "zipkin.dedupe.hits", "zipkin.dedupe.misses" and "zipkin.dedupe.evictions"
+ * are added to the supplied registry.
  */
 class DeduplicatingExecutor { // not final for testing
 
   private final Session session;
-  private final LoadingCache<BoundStatementKey, ListenableFuture<Void>> cache;
+  private final Cache<Object, ListenableFuture<Void>> cache;
+  final Counter hits, misses, evictions;
 
   /**
    * @param session which conditionally executes bound statements
    * @param ttl how long the results of statements are remembered, in milliseconds.
+   * @param maxSize how many keys to remember before the least recently used are evicted.
+   * @param metrics where to add counters of hits, misses and evictions
    */
-  DeduplicatingExecutor(Session session, long ttl) {
+  DeduplicatingExecutor(Session session, long ttl, long maxSize, MetricRegistry metrics) {
     this.session = session;
+    this.hits = metrics.counter("zipkin.dedupe.hits");
+    this.misses = metrics.counter("zipkin.dedupe.misses");
+    this.evictions = metrics.counter("zipkin.dedupe.evictions");
     this.cache = CacheBuilder.newBuilder()
         .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+        .maximumSize(maxSize)
         .ticker(new Ticker() {
           @Override public long read() {
             return nanoTime();
           }
         })
-        // TODO: maximum size or weight
-        .build(new CacheLoader<BoundStatementKey, ListenableFuture<Void>>() {
-          @Override public ListenableFuture<Void> load(final BoundStatementKey key) {
-            ListenableFuture<?> cassandraFuture = executeAsync(key.statement);
-
-            // Drop the cassandra future so that we don't hold references to cassandra state for
-            // long periods of time.
-            final SettableFuture<Void> disconnectedFuture = SettableFuture.create();
-            Futures.addCallback(cassandraFuture, new FutureCallback<Object>() {
-
-              @Override public void onSuccess(Object result) {
-                disconnectedFuture.set(null);
-              }
-
-              @Override public void onFailure(Throwable t) {
-                cache.invalidate(key);
-                disconnectedFuture.setException(t);
-              }
-            });
-            return disconnectedFuture;
+        .removalListener(new RemovalListener<Object, ListenableFuture<Void>>() {
+          @Override
+          public void onRemoval(RemovalNotification<Object, ListenableFuture<Void>> notification) {
+            if (notification.wasEvicted()) evictions.inc();
           }
-        });
+        })
+        .build();
   }
 
   /**
@@ -99,15 +101,22 @@ class DeduplicatingExecutor { // not final for testing
    * @return future of work initiated by this or a previous request
    */
   ListenableFuture<Void> maybeExecuteAsync(BoundStatement statement, Object key) {
-    BoundStatementKey cacheKey = new BoundStatementKey(statement, key);
+    checkNotNull(statement, "statement");
+    checkNotNull(key, "key");
+    Loader loader = new Loader(statement, key);
     try {
-      ListenableFuture<Void> result = cache.get(new BoundStatementKey(statement, key));
+      ListenableFuture<Void> result = cache.get(key, loader);
+      if (loader.called) {
+        misses.inc();
+      } else {
+        hits.inc();
+      }
       // A future could be constructed directly (i.e. immediate future), get the value to
       // see if it was exceptional. If so, the catch block will invalidate that key.
       if (result.isDone()) result.get();
       return result;
     } catch (UncheckedExecutionException | ExecutionException e) {
-      cache.invalidate(cacheKey);
+      cache.invalidate(key);
       return Futures.immediateFailedFuture(e.getCause());
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
@@ -115,6 +124,39 @@ class DeduplicatingExecutor { // not final for testing
     }
   }
 
+  /** Executes the statement on a cache miss, without the cache retaining it. */
+  final class Loader implements Callable<ListenableFuture<Void>> {
+    final BoundStatement statement;
+    final Object key;
+    boolean called;
+
+    Loader(BoundStatement statement, Object key) {
+      this.statement = statement;
+      this.key = key;
+    }
+
+    @Override public ListenableFuture<Void> call() {
+      called = true;
+      ListenableFuture<?> cassandraFuture = executeAsync(statement);
+
+      // Drop the cassandra future so that we don't hold references to cassandra state for
+      // long periods of time.
+      final SettableFuture<Void> disconnectedFuture = SettableFuture.create();
+      Futures.addCallback(cassandraFuture, new FutureCallback<Object>() {
+
+        @Override public void onSuccess(Object result) {
+          disconnectedFuture.set(null);
+        }
+
+        @Override public void onFailure(Throwable t) {
+          cache.invalidate(key);
+          disconnectedFuture.setException(t);
+        }
+      });
+      return disconnectedFuture;
+    }
+  }
+
   // visible for testing, since nanoTime is weird and can return negative
   long nanoTime() {
     return System.nanoTime();
@@ -127,34 +169,4 @@ class DeduplicatingExecutor { // not final for testing
   @VisibleForTesting void clear() {
     cache.invalidateAll();
   }
-
-  /** Used to hold a reference to the last statement executed, but without using it in hashCode */
-  static final class BoundStatementKey {
-    final BoundStatement statement;
-    final Object key;
-
-    BoundStatementKey(BoundStatement statement, Object key) {
-      this.statement = checkNotNull(statement, "statement");
-      this.key = checkNotNull(key, "key");
-    }
-
-    @Override
-    public String toString() {
-      return "(" + key + ", " + statement + ")";
-    }
-
-    @Override
-    public boolean equals(Object o) {
-      if (o == this) return true;
-      if (o instanceof BoundStatementKey) {
-        return this.key.equals(((BoundStatementKey) o).key);
-      }
-      return false;
-    }
-
-    @Override
-    public int hashCode() {
-      return key.hashCode();
-    }
-  }
 }
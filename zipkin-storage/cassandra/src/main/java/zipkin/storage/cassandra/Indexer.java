@@ -19,6 +19,7 @@ import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.Insert;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSetMultimap.Builder;
@@ -80,6 +81,15 @@ final class Indexer {
   }
 
   ImmutableSet<ListenableFuture<?>> index(List<Span> spans) {
+    ImmutableSet.Builder<ListenableFuture<?>> result = ImmutableSet.builder();
+    for (BoundStatement bound : bind(spans)) {
+      result.add(session.executeAsync(bound));
+    }
+    return result.build();
+  }
+
+  /** Like {@link #index(List)}, except returns statements instead of executing them. */
+  ImmutableList<BoundStatement> bind(List<Span> spans) {
     // First parse each span into partition keys used to support query requests
     Builder<PartitionKeyToTraceId, Long> parsed = ImmutableSetMultimap.builder();
     for (Span span : spans) {
@@ -110,8 +120,8 @@ final class Indexer {
       }
     }
 
-    // For each entry, insert a new row in the index table asynchronously
-    ImmutableSet.Builder<ListenableFuture<?>> result = ImmutableSet.builder();
+    // For each entry, bind a new row in the index table
+    ImmutableList.Builder<BoundStatement> result = ImmutableList.builder();
     for (Map.Entry<PartitionKeyToTraceId, Long> entry : toInsert.entries()) {
       BoundStatement bound = bindWithName(prepared, boundName)
           .setLong("trace_id", entry.getKey().traceId)
@@ -120,7 +130,7 @@ final class Indexer {
         bound.setInt("ttl_", indexTtl);
       }
       index.bindPartitionKey(bound, entry.getKey().partitionKey);
-      result.add(session.executeAsync(bound));
+      result.add(bound);
     }
     return result.build();
   }
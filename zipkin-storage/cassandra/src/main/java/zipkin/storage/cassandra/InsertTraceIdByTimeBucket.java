@@ -0,0 +1,63 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.querybuilder.Insert;
+import com.datastax.driver.core.querybuilder.QueryBuilder;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import zipkin.Span;
+
+import static zipkin.internal.ApplyTimestampAndDuration.guessTimestamp;
+
+// QueryRequest.serviceName == null
+final class InsertTraceIdByTimeBucket implements Indexer.IndexSupport {
+  static final long BUCKET_MICROS = TimeUnit.HOURS.toMicros(1);
+
+  /** Returns the time bucket of the timestamp in epoch microseconds. */
+  static int timeBucket(long timestamp) {
+    return (int) (timestamp / BUCKET_MICROS);
+  }
+
+  private final int bucketCount;
+
+  InsertTraceIdByTimeBucket(int bucketCount) {
+    this.bucketCount = bucketCount;
+  }
+
+  @Override public String table() {
+    return Tables.TIME_BUCKET_INDEX;
+  }
+
+  @Override public Insert declarePartitionKey(Insert insert) {
+    return insert.value("time_bucket", QueryBuilder.bindMarker("time_bucket"))
+        .value("bucket", QueryBuilder.bindMarker("bucket"));
+  }
+
+  @Override
+  public BoundStatement bindPartitionKey(BoundStatement bound, String partitionKey) {
+    return bound.setInt("bucket", ThreadLocalRandom.current().nextInt(bucketCount))
+        .setInt("time_bucket", Integer.parseInt(partitionKey));
+  }
+
+  @Override
+  public Set<String> partitionKeys(Span span) {
+    Long timestamp = guessTimestamp(span);
+    if (timestamp == null) return Collections.emptySet();
+    return Collections.singleton(String.valueOf(timeBucket(timestamp)));
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
+import com.datastax.driver.core.Configuration;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.Session;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static zipkin.internal.Util.checkArgument;
+
+/**
+ * Groups bound statements by their routing key and executes each group as an {@link
+ * BatchStatement.Type#UNLOGGED unlogged} batch of at most {@code maxBatchSize} statements.
+ *
+ * <p>All statements in a batch share a partition, so a token-aware load balancing policy sends the
+ * batch straight to a replica, and the coordinator doesn't fan out. Statements without a routing
+ * key, or alone in their partition, are executed individually.
+ *
+ * <p>This is not thread-safe: create one per call to {@link CassandraSpanConsumer#accept}.
+ */
+final class PartitionBatcher {
+  final Session session;
+  final int maxBatchSize;
+  final ProtocolVersion protocolVersion;
+  final CodecRegistry codecRegistry;
+  final Map<ByteBuffer, List<BoundStatement>> partitions = new LinkedHashMap<>();
+  final List<BoundStatement> unrouted = new ArrayList<>();
+
+  PartitionBatcher(Session session, int maxBatchSize) {
+    checkArgument(maxBatchSize > 1, "maxBatchSize <= 1");
+    this.session = session;
+    this.maxBatchSize = maxBatchSize;
+    Configuration configuration = session.getCluster().getConfiguration();
+    this.protocolVersion = configuration.getProtocolOptions().getProtocolVersion();
+    this.codecRegistry = configuration.getCodecRegistry();
+  }
+
+  PartitionBatcher add(BoundStatement bound) {
+    ByteBuffer routingKey = bound.getRoutingKey(protocolVersion, codecRegistry);
+    if (routingKey == null) {
+      unrouted.add(bound);
+      return this;
+    }
+    List<BoundStatement> partition = partitions.get(routingKey);
+    if (partition == null) partitions.put(routingKey, partition = new ArrayList<>());
+    partition.add(bound);
+    return this;
+  }
+
+  PartitionBatcher addAll(Iterable<BoundStatement> bound) {
+    for (BoundStatement b : bound) add(b);
+    return this;
+  }
+
+  /** Executes all statements added so far, clearing state. */
+  ImmutableSet<ListenableFuture<?>> execute() {
+    ImmutableSet.Builder<ListenableFuture<?>> result = ImmutableSet.builder();
+    for (BoundStatement bound : unrouted) {
+      result.add(session.executeAsync(bound));
+    }
+    for (List<BoundStatement> partition : partitions.values()) {
+      for (int i = 0, length = partition.size(); i < length; i += maxBatchSize) {
+        List<BoundStatement> chunk = partition.subList(i, Math.min(length, i + maxBatchSize));
+        if (chunk.size() == 1) {
+          result.add(session.executeAsync(chunk.get(0)));
+          continue;
+        }
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.addAll(chunk);
+        result.add(session.executeAsync(batch));
+      }
+    }
+    unrouted.clear();
+    partitions.clear();
+    return result.build();
+  }
+}
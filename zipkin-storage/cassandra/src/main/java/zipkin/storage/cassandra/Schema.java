@@ -33,6 +33,8 @@ final class Schema {
 
   private static final String UPGRADE_1 = "/cassandra-schema-cql3-upgrade-1.txt";
 
+  private static final String UPGRADE_2 = "/cassandra-schema-cql3-upgrade-2.txt";
+
   private Schema() {
   }
 
@@ -51,16 +53,23 @@ final class Schema {
       LOG.warn("schema lacks default ttls: apply {}, or set CassandraStorage.ensureSchema=true",
           UPGRADE_1);
     }
-    return new Metadata(compactionClass, hasDefaultTtl);
+    boolean hasTimeBucketIndex = hasUpgrade2_timeBucketIndex(keyspaceMetadata);
+    if (!hasTimeBucketIndex) {
+      LOG.warn("schema lacks {}: apply {}, or set CassandraStorage.ensureSchema=true",
+          Tables.TIME_BUCKET_INDEX, UPGRADE_2);
+    }
+    return new Metadata(compactionClass, hasDefaultTtl, hasTimeBucketIndex);
   }
 
   static final class Metadata {
     final String compactionClass;
     final boolean hasDefaultTtl;
+    final boolean hasTimeBucketIndex;
 
-    Metadata(String compactionClass, boolean hasDefaultTtl) {
+    Metadata(String compactionClass, boolean hasDefaultTtl, boolean hasTimeBucketIndex) {
       this.compactionClass = compactionClass;
       this.hasDefaultTtl = hasDefaultTtl;
+      this.hasTimeBucketIndex = hasTimeBucketIndex;
     }
   }
 
@@ -89,6 +98,10 @@ final class Schema {
       LOG.info("Upgrading schema {}", UPGRADE_1);
       applyCqlFile(keyspace, session, UPGRADE_1);
     }
+    if (!hasUpgrade2_timeBucketIndex(keyspaceMetadata)) {
+      LOG.info("Upgrading schema {}", UPGRADE_2);
+      applyCqlFile(keyspace, session, UPGRADE_2);
+    }
   }
 
   static boolean hasUpgrade1_defaultTtl(KeyspaceMetadata keyspaceMetadata) {
@@ -98,6 +111,10 @@ final class Schema {
     return keyspaceMetadata.getTable("traces").getOptions().getDefaultTimeToLive() > 0;
   }
 
+  static boolean hasUpgrade2_timeBucketIndex(KeyspaceMetadata keyspaceMetadata) {
+    return keyspaceMetadata.getTable(Tables.TIME_BUCKET_INDEX) != null;
+  }
+
   static void applyCqlFile(String keyspace, Session session, String resource) {
     try (Reader reader = new InputStreamReader(Schema.class.getResourceAsStream(resource), UTF_8)) {
       for (String cmd : CharStreams.toString(reader).split(";")) {
@@ -18,6 +18,7 @@ import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.PoolingOptions;
 import com.datastax.driver.core.QueryLogger;
 import com.datastax.driver.core.Session;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
 import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 import com.datastax.driver.core.policies.LatencyAwarePolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
@@ -50,14 +51,17 @@ public interface SessionFactory {
       try {
         Cluster cluster = closer.register(buildCluster(cassandra));
         cluster.register(new QueryLogger.Builder().build());
+        Session session;
         if (cassandra.ensureSchema) {
-          Session session = closer.register(cluster.connect());
+          session = closer.register(cluster.connect());
           Schema.ensureExists(cassandra.keyspace, session);
           session.execute("USE " + cassandra.keyspace);
-          return session;
         } else {
-          return cluster.connect(cassandra.keyspace);
+          session = cluster.connect(cassandra.keyspace);
         }
+        // metrics are initialized on connect, so the tracker is registered afterwards
+        cluster.register(new StatementMetrics(CassandraUtil.metricRegistry(session)));
+        return session;
       } catch (RuntimeException e) {
         try {
           closer.close();
@@ -87,6 +91,11 @@ public interface SessionFactory {
       builder.withPoolingOptions(new PoolingOptions().setMaxConnectionsPerHost(
           HostDistance.LOCAL, cassandra.maxConnections
       ));
+      if (cassandra.speculativeReadDelay > 0) {
+        builder.withSpeculativeExecutionPolicy(new SpeculativeReadPolicy(
+            new ConstantSpeculativeExecutionPolicy(
+                cassandra.speculativeReadDelay, cassandra.maxSpeculativeReads)));
+      }
       if (cassandra.useSsl) {
         builder = builder.withSSL();
       }
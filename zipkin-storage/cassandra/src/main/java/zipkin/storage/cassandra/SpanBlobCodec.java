@@ -0,0 +1,140 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import zipkin.Codec;
+import zipkin.Span;
+
+import static zipkin.internal.Util.UTF_8;
+
+/**
+ * Encodes the {@code traces.span} column, optionally compressing it.
+ *
+ * <p>Uncompressed blobs are thrift, which always starts with a field type between 0 and 16. A
+ * compressed blob starts with a marker byte that is never a field type, followed by the length of
+ * the thrift encoded span as a 4-byte big-endian integer, followed by the span deflated with a
+ * preset dictionary. The dictionary holds strings common in spans, such as core annotations and
+ * http tags, which otherwise dominate small spans. Both forms are read transparently, so
+ * compression can be enabled on a keyspace that already has data.
+ *
+ * <p>The dictionary must never change once data was written with it. To change it, add a new
+ * marker, and keep reading the old one.
+ */
+final class SpanBlobCodec {
+  /** Deflated with {@link #DICTIONARY_V1} */
+  static final byte DEFLATE_V1 = (byte) 0x81;
+  static final int HEADER_LENGTH = 5;
+
+  /** Most frequent strings last, as deflate prefers the closest match. */
+  static final byte[] DICTIONARY_V1 = ("sql.queryhttp.hosthttp.urlhttp.methodhttp.request.size"
+      + "http.response.sizehttp.status_codemvc.controller.classmvc.controller.method"
+      + "spring.instance_iderrorlclocalhostGETPOSThttp.pathcacrsasssrcscr").getBytes(UTF_8);
+
+  static final ThreadLocal<Deflater> DEFLATER = new ThreadLocal<Deflater>() {
+    @Override protected Deflater initialValue() {
+      return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    }
+  };
+
+  static final ThreadLocal<Inflater> INFLATER = new ThreadLocal<Inflater>() {
+    @Override protected Inflater initialValue() {
+      return new Inflater(true);
+    }
+  };
+
+  /**
+   * Returns the thrift encoded span, compressed when {@code compress} is true and that makes it
+   * smaller.
+   */
+  static ByteBuffer encode(Span span, boolean compress) {
+    byte[] thrift = Codec.THRIFT.writeSpan(span);
+    if (!compress) return ByteBuffer.wrap(thrift);
+
+    Deflater deflater = DEFLATER.get();
+    deflater.reset();
+    deflater.setDictionary(DICTIONARY_V1);
+    deflater.setInput(thrift);
+    deflater.finish();
+
+    // only worth storing compressed if smaller than the thrift encoding
+    byte[] result = new byte[thrift.length];
+    int length = HEADER_LENGTH;
+    while (!deflater.finished() && length < result.length) {
+      length += deflater.deflate(result, length, result.length - length);
+    }
+    if (!deflater.finished()) return ByteBuffer.wrap(thrift);
+
+    result[0] = DEFLATE_V1;
+    result[1] = (byte) (thrift.length >>> 24);
+    result[2] = (byte) (thrift.length >>> 16);
+    result[3] = (byte) (thrift.length >>> 8);
+    result[4] = (byte) thrift.length;
+    return ByteBuffer.wrap(result, 0, length);
+  }
+
+  /**
+   * Decodes a span written by {@link #encode}, compressed or not.
+   *
+   * @throws IllegalArgumentException if the span couldn't be decoded
+   */
+  static Span decode(ByteBuffer blob) {
+    if (!blob.hasRemaining() || blob.get(blob.position()) != DEFLATE_V1) {
+      return Codec.THRIFT.readSpan(blob);
+    }
+    if (blob.remaining() < HEADER_LENGTH) {
+      throw new IllegalArgumentException("Truncated compressed span: " + blob.remaining() + "b");
+    }
+    int pos = blob.position();
+    int length = blob.getInt(pos + 1);
+    if (length < 0) throw new IllegalArgumentException("Corrupt compressed span: length=" + length);
+
+    int count = blob.remaining() - HEADER_LENGTH;
+    byte[] input;
+    int offset;
+    if (blob.hasArray()) {
+      input = blob.array();
+      offset = blob.arrayOffset() + pos + HEADER_LENGTH;
+    } else {
+      input = new byte[count];
+      offset = 0;
+      ByteBuffer copy = blob.duplicate();
+      copy.position(pos + HEADER_LENGTH);
+      copy.get(input);
+    }
+
+    Inflater inflater = INFLATER.get();
+    inflater.reset();
+    inflater.setDictionary(DICTIONARY_V1);
+    inflater.setInput(input, offset, count);
+    byte[] thrift = new byte[length];
+    int inflated = 0;
+    try {
+      while (inflated < length) {
+        int read = inflater.inflate(thrift, inflated, length - inflated);
+        if (read == 0 && (inflater.needsInput() || inflater.finished())) {
+          throw new IllegalArgumentException(
+              "Truncated compressed span: inflated " + inflated + " of " + length + "b");
+        }
+        inflated += read;
+      }
+    } catch (DataFormatException e) {
+      throw new IllegalArgumentException("Corrupt compressed span: " + e.getMessage(), e);
+    }
+    return Codec.THRIFT.readSpan(thrift);
+  }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.RegularStatement;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.policies.NoSpeculativeExecutionPolicy;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy;
+
+import static zipkin.internal.Util.checkNotNull;
+
+/**
+ * Applies the delegate policy only to SELECT statements, so that a slow coordinator doesn't
+ * dominate read latency, without multiplying writes.
+ *
+ * <p>The driver only speculatively executes idempotent statements. Statements made with {@code
+ * QueryBuilder}, as all in this module are, are idempotent unless they use non-idempotent
+ * functions.
+ */
+final class SpeculativeReadPolicy implements SpeculativeExecutionPolicy {
+  final SpeculativeExecutionPolicy delegate;
+
+  SpeculativeReadPolicy(SpeculativeExecutionPolicy delegate) {
+    this.delegate = checkNotNull(delegate, "delegate");
+  }
+
+  @Override public void init(Cluster cluster) {
+    delegate.init(cluster);
+  }
+
+  @Override
+  public SpeculativeExecutionPlan newPlan(String loggedKeyspace, Statement statement) {
+    return isSelect(statement)
+        ? delegate.newPlan(loggedKeyspace, statement)
+        : NoSpeculativeExecutionPolicy.INSTANCE.newPlan(loggedKeyspace, statement);
+  }
+
+  @Override public void close() {
+    delegate.close();
+  }
+
+  static boolean isSelect(Statement statement) {
+    String query;
+    if (statement instanceof BoundStatement) {
+      query = ((BoundStatement) statement).preparedStatement().getQueryString();
+    } else if (statement instanceof RegularStatement) {
+      query = ((RegularStatement) statement).getQueryString();
+    } else { // ex. a batch, which only includes writes
+      return false;
+    }
+    return query.trim().regionMatches(true, 0, "SELECT", 0, 6);
+  }
+}
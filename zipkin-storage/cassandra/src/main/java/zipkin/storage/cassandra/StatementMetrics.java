@@ -0,0 +1,85 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Host;
+import com.datastax.driver.core.LatencyTracker;
+import com.datastax.driver.core.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import static zipkin.internal.Util.checkNotNull;
+
+/**
+ * Records the latency and errors of each statement named with {@link
+ * CassandraUtil#bindWithName}, so that slow queries can be identified without self-tracing.
+ *
+ * <p>Metrics are added to the cluster's registry, which the driver reports via JMX:
+ * <ul>
+ *   <li>zipkin.statements.$name - timer of each attempt to execute the statement</li>
+ *   <li>zipkin.statements.$name.errors - counter of attempts that failed</li>
+ * </ul>
+ *
+ * <p>The driver reports each attempt separately, so retries count once per host tried.
+ * Statements without a name, such as schema queries, are not recorded.
+ */
+final class StatementMetrics implements LatencyTracker {
+  static final String PREFIX = "zipkin.statements.";
+
+  final MetricRegistry registry;
+  final ConcurrentMap<String, Metrics> metrics = new ConcurrentHashMap<>();
+
+  StatementMetrics(MetricRegistry registry) {
+    this.registry = checkNotNull(registry, "registry");
+  }
+
+  @Override public void update(Host host, Statement statement, Exception exception,
+      long newLatencyNanos) {
+    if (!(statement instanceof NamedBoundStatement)) return;
+    Metrics m = metrics(((NamedBoundStatement) statement).name);
+    m.latency.update(newLatencyNanos, TimeUnit.NANOSECONDS);
+    if (exception != null) m.errors.inc();
+  }
+
+  Metrics metrics(String name) {
+    Metrics result = metrics.get(name);
+    if (result != null) return result;
+    result = new Metrics(
+        registry.timer(PREFIX + name),
+        registry.counter(PREFIX + name + ".errors"));
+    Metrics previous = metrics.putIfAbsent(name, result);
+    return previous != null ? previous : result;
+  }
+
+  @Override public void onRegister(Cluster cluster) {
+  }
+
+  @Override public void onUnregister(Cluster cluster) {
+  }
+
+  static final class Metrics {
+    final Timer latency;
+    final Counter errors;
+
+    Metrics(Timer latency, Counter errors) {
+      this.latency = latency;
+      this.errors = errors;
+    }
+  }
+}
@@ -81,6 +81,17 @@ final class Tables {
    */
   static final String ANNOTATIONS_INDEX = "annotations_index";
 
+  /**
+   * This index supports trace id lookups when {@link QueryRequest#serviceName} is unset, within
+   * the interval of {@link QueryRequest#endTs} - {@link QueryRequest#lookback}.
+   *
+   * <p>The partition key is the hour of the span's timestamp, with a bucket (random number between
+   * 0 and 9) to avoid hot partitions. Recent traces are read starting at the hour of {@link
+   * QueryRequest#endTs}, moving backwards until enough are found. This avoids reading {@link
+   * #SERVICE_NAME_INDEX} for every service name.
+   */
+  static final String TIME_BUCKET_INDEX = "time_bucket_index";
+
   private Tables() {
   }
 }
@@ -0,0 +1,167 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+import com.google.common.util.concurrent.AbstractFuture;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static zipkin.internal.Util.checkArgument;
+import static zipkin.internal.Util.checkNotNull;
+import static zipkin.storage.cassandra.CassandraUtil.metricRegistry;
+
+/**
+ * Limits the count of statements executing asynchronously, so that bursts of writes queue here
+ * instead of overflowing the driver's per-connection request queues with {@code
+ * BusyPoolException}.
+ *
+ * <p>When no permit is available, the caller waits up to a timeout for one to free up. If none
+ * does, the statement is not executed, and the returned future fails with a {@link
+ * RejectedExecutionException}.
+ *
+ * <p>Waiting blocks the thread calling {@code executeAsync}, usually a collector thread. This is
+ * intentional: it pushes back on the transport instead of buffering statements in memory. Keep
+ * the timeout short, as a blocked HTTP or Kafka thread reads no more spans until it returns.
+ *
+ * <p>Metrics are added to the cluster's registry, which the driver reports via JMX:
+ * <ul>
+ *   <li>zipkin.writes.in-flight - counter of statements currently executing</li>
+ *   <li>zipkin.writes.waited - counter of statements that waited for a permit</li>
+ *   <li>zipkin.writes.rejected - counter of statements that timed out waiting for a permit</li>
+ *   <li>zipkin.writes.wait-time - timer of how long statements waited for a permit</li>
+ * </ul>
+ */
+final class ThrottledSession extends AbstractInvocationHandler {
+
+  static Session create(Session target, int maxInFlight, long timeoutMillis) {
+    return Reflection.newProxy(Session.class,
+        new ThrottledSession(target, maxInFlight, timeoutMillis));
+  }
+
+  final Session target;
+  final Semaphore permits;
+  final long timeoutMillis;
+  final Counter inFlight, waited, rejected;
+  final Timer waitTime;
+
+  ThrottledSession(Session target, int maxInFlight, long timeoutMillis) {
+    checkArgument(maxInFlight > 0, "maxInFlight <= 0");
+    checkArgument(timeoutMillis >= 0, "timeoutMillis < 0");
+    this.target = checkNotNull(target, "target");
+    this.permits = new Semaphore(maxInFlight);
+    this.timeoutMillis = timeoutMillis;
+    MetricRegistry registry = metricRegistry(target);
+    this.inFlight = registry.counter("zipkin.writes.in-flight");
+    this.waited = registry.counter("zipkin.writes.waited");
+    this.rejected = registry.counter("zipkin.writes.rejected");
+    this.waitTime = registry.timer("zipkin.writes.wait-time");
+  }
+
+  @Override protected Object handleInvocation(Object proxy, Method method, Object[] args)
+      throws Throwable {
+    if (method.getName().equals("executeAsync") && args.length == 1
+        && args[0] instanceof Statement) {
+      return executeAsync((Statement) args[0]);
+    }
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) throw e.getCause();
+      throw e;
+    }
+  }
+
+  ResultSetFuture executeAsync(Statement statement) {
+    if (!permits.tryAcquire()) {
+      waited.inc();
+      Timer.Context context = waitTime.time();
+      try {
+        if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+          rejected.inc();
+          return new FailedResultSetFuture(new RejectedExecutionException(
+              "Timed out after " + timeoutMillis + "ms waiting to execute " + statement));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        rejected.inc();
+        return new FailedResultSetFuture(new RejectedExecutionException(
+            "Interrupted waiting to execute " + statement, e));
+      } finally {
+        context.stop();
+      }
+    }
+    inFlight.inc();
+    ResultSetFuture result;
+    try {
+      result = target.executeAsync(statement);
+    } catch (RuntimeException | Error e) {
+      release();
+      throw e;
+    }
+    result.addListener(this::release, directExecutor());
+    return result;
+  }
+
+  void release() {
+    inFlight.dec();
+    permits.release();
+  }
+
+  @Override public boolean equals(Object obj) {
+    if (obj instanceof ThrottledSession) {
+      ThrottledSession other = (ThrottledSession) obj;
+      return target.equals(other.target);
+    }
+    return false;
+  }
+
+  @Override public int hashCode() {
+    return target.hashCode();
+  }
+
+  @Override public String toString() {
+    return target.toString();
+  }
+
+  static final class FailedResultSetFuture extends AbstractFuture<ResultSet>
+      implements ResultSetFuture {
+    final RuntimeException cause;
+
+    FailedResultSetFuture(RuntimeException cause) {
+      this.cause = cause;
+      setException(cause);
+    }
+
+    @Override public ResultSet getUninterruptibly() {
+      throw cause;
+    }
+
+    @Override public ResultSet getUninterruptibly(long timeout, TimeUnit unit) {
+      throw cause;
+    }
+  }
+}
@@ -16,6 +16,7 @@ package zipkin.storage.cassandra;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.spi.LoggingEvent;
 import ch.qos.logback.core.Appender;
+import com.codahale.metrics.Timer;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import java.util.stream.IntStream;
@@ -151,6 +152,74 @@ public class CassandraSpanConsumerTest {
     assertThat(rowCount(Tables.SERVICE_NAME_INDEX)).isEqualTo(201L);
   }
 
+  /** Batching should change the count of requests, not the rows written. */
+  @Test
+  public void writeBatchSize_writesSameRows() {
+    CassandraSpanConsumer batching = new CassandraSpanConsumer(
+        storage.session(),
+        storage.bucketCount,
+        storage.spanTtl,
+        storage.indexTtl,
+        null,
+        2 // smaller than the trace, so that its partition spans multiple batches
+    );
+    Futures.getUnchecked(batching.accept(TestObjects.TRACE));
+
+    assertThat(rowCount("traces")).isEqualTo(TestObjects.TRACE.size());
+    assertThat(storage.spanStore().getRawTrace(0L, TestObjects.TRACE.get(0).traceId))
+        .hasSameSizeAs(TestObjects.TRACE);
+
+    long batchedServiceNameIndex = rowCount(Tables.SERVICE_NAME_INDEX);
+    long batchedSpanNameIndex = rowCount(Tables.SERVICE_SPAN_NAME_INDEX);
+    long batchedAnnotationsIndex = rowCount(Tables.ANNOTATIONS_INDEX);
+
+    // compare against the default, which doesn't batch
+    clear();
+    CassandraSpanConsumer withoutBatching = new CassandraSpanConsumer(
+        storage.session(),
+        storage.bucketCount,
+        storage.spanTtl,
+        storage.indexTtl,
+        null
+    );
+    Futures.getUnchecked(withoutBatching.accept(TestObjects.TRACE));
+
+    assertThat(rowCount(Tables.SERVICE_NAME_INDEX)).isEqualTo(batchedServiceNameIndex);
+    assertThat(rowCount(Tables.SERVICE_SPAN_NAME_INDEX)).isEqualTo(batchedSpanNameIndex);
+    assertThat(rowCount(Tables.ANNOTATIONS_INDEX)).isEqualTo(batchedAnnotationsIndex);
+  }
+
+  @Test
+  public void compressSpans_readsSameTrace() {
+    CassandraSpanConsumer compressing = new CassandraSpanConsumer(
+        storage.session(),
+        storage.bucketCount,
+        storage.spanTtl,
+        storage.indexTtl,
+        null,
+        1,
+        true
+    );
+    Futures.getUnchecked(compressing.accept(TestObjects.TRACE));
+
+    Span first = TestObjects.TRACE.get(0);
+    assertThat(storage.spanStore().getRawTrace(first.traceIdHigh, first.traceId))
+        .hasSameSizeAs(TestObjects.TRACE)
+        .containsOnlyElementsOf(TestObjects.TRACE);
+  }
+
+  /** The default session factory records latency of each statement by its name */
+  @Test
+  public void recordsLatencyByStatementName() {
+    Timer insertSpan = CassandraUtil.metricRegistry(storage.session())
+        .timer(StatementMetrics.PREFIX + "insert-span");
+    long count = insertSpan.getCount();
+
+    accept(TestObjects.TRACE.get(0));
+
+    assertThat(insertSpan.getCount()).isGreaterThan(count);
+  }
+
   void accept(Span... spans) {
     Futures.getUnchecked(storage.computeGuavaSpanConsumer().accept(ImmutableList.copyOf(spans)));
   }
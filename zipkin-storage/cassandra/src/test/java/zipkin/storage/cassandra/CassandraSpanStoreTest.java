@@ -13,8 +13,16 @@
  */
 package zipkin.storage.cassandra;
 
+import com.datastax.driver.core.Session;
+import com.google.common.reflect.AbstractInvocationHandler;
+import com.google.common.reflect.Reflection;
+import com.google.common.util.concurrent.Futures;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import org.junit.AssumptionViolatedException;
@@ -76,7 +84,38 @@ public class CassandraSpanStoreTest extends SpanStoreTest {
   @Test
   public void overFetchesToCompensateForDuplicateIndexData() {
     int traceCount = 100;
+    acceptTracesWithDuplicateIndexData(traceCount);
 
+    // Index ends up containing more rows than services * trace count, and cannot be de-duped
+    // in a server-side query.
+    assertThat(rowCount(Tables.SERVICE_NAME_INDEX))
+        .isGreaterThan(traceCount * store().getServiceNames().size());
+
+    // Implementation over-fetches on the index to allow the user to receive unsurprising results.
+    assertThat(store().getTraces(QueryRequest.builder().limit(traceCount).build()))
+        .hasSize(traceCount);
+  }
+
+  @Test
+  public void maxIndexFetchMultiplier_repeatsSearchUntilLimitMatches() {
+    int traceCount = 100;
+    acceptTracesWithDuplicateIndexData(traceCount);
+
+    CassandraSpanStore fixed = new CassandraSpanStore(storage.session(), storage.bucketCount,
+        storage.maxTraceCols, 1, 0, 1000, storage.strictTraceId, 0);
+    CassandraSpanStore adaptive = new CassandraSpanStore(storage.session(), storage.bucketCount,
+        storage.maxTraceCols, 1, 8, 1000, storage.strictTraceId, 0);
+
+    QueryRequest request = QueryRequest.builder().serviceName("app").limit(traceCount).build();
+
+    // sanity check that a multiplier of one isn't enough
+    assertThat(Futures.getUnchecked(fixed.getTraces(request)).size())
+        .isLessThan(traceCount);
+    assertThat(Futures.getUnchecked(adaptive.getTraces(request)))
+        .hasSize(traceCount);
+  }
+
+  void acceptTracesWithDuplicateIndexData(int traceCount) {
     List<Span> spans = new ArrayList<>();
     for (int i = 0; i < traceCount; i++) {
       final long delta = i * 1000; // all timestamps happen a millisecond later
@@ -93,15 +132,6 @@ public class CassandraSpanStoreTest extends SpanStoreTest {
     }
 
     accept(spans.toArray(new Span[0]));
-
-    // Index ends up containing more rows than services * trace count, and cannot be de-duped
-    // in a server-side query.
-    assertThat(rowCount(Tables.SERVICE_NAME_INDEX))
-        .isGreaterThan(traceCount * store().getServiceNames().size());
-
-    // Implementation over-fetches on the index to allow the user to receive unsurprising results.
-    assertThat(store().getTraces(QueryRequest.builder().limit(traceCount).build()))
-        .hasSize(traceCount);
   }
 
   @Test
@@ -131,6 +161,59 @@ public class CassandraSpanStoreTest extends SpanStoreTest {
     assertThat(store().getTraces(queryRequest)).hasSize(queryLimit);
   }
 
+  /** Reads more hours than are queried at once, to ensure windows are read newest first. */
+  @Test
+  public void getTraces_spansSeveralTimeBuckets() {
+    long now = System.currentTimeMillis();
+    int hours = CassandraSpanStore.TIME_BUCKET_WINDOW + 6;
+
+    List<Span> spans = new ArrayList<>();
+    for (int i = 0; i < hours; i++) {
+      spans.add(TestObjects.LOTS_OF_SPANS[i].toBuilder()
+          .timestamp((now - TimeUnit.HOURS.toMillis(i) - 1000L) * 1000).build());
+    }
+    accept(spans.toArray(new Span[0]));
+
+    QueryRequest.Builder request = QueryRequest.builder()
+        .endTs(now)
+        .lookback(TimeUnit.HOURS.toMillis(hours));
+
+    assertThat(store().getTraces(request.limit(hours).build()))
+        .hasSize(hours);
+
+    // when the limit is met by the first window, the older ones aren't returned
+    assertThat(store().getTraces(request.limit(3).build()))
+        .extracting(t -> t.get(0).traceId)
+        .containsExactly(spans.get(0).traceId, spans.get(1).traceId, spans.get(2).traceId);
+  }
+
+  /** Hours older than the index TTL have expired, so aren't queried, even if in the lookback. */
+  @Test
+  public void getTraceIdsByTimeBucket_lookbackCappedAtTtl() {
+    AtomicInteger queries = new AtomicInteger();
+    Session counting = Reflection.newProxy(Session.class, new AbstractInvocationHandler() {
+      @Override protected Object handleInvocation(Object proxy, Method method, Object[] args)
+          throws Throwable {
+        if (method.getName().equals("executeAsync")) queries.incrementAndGet();
+        try {
+          return method.invoke(storage.session(), args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      }
+    });
+    CassandraSpanStore store = new CassandraSpanStore(counting, storage.bucketCount,
+        storage.maxTraceCols, storage.indexFetchMultiplier, 0, 1000, storage.strictTraceId, 0);
+
+    long endTs = System.currentTimeMillis() * 1000;
+    assertThat(Futures.getUnchecked(store.getTraceIdsByTimeBucket(endTs, endTs, 10)))
+        .isEmpty();
+
+    // one query per hour of the default 3 day TTL, as opposed to every hour since 1970
+    assertThat(queries.get())
+        .isEqualTo((int) TimeUnit.DAYS.toHours(3) + 1);
+  }
+
   long rowCount(String table) {
     return storage.session().execute("SELECT COUNT(*) from " + table).one().getLong(0);
   }
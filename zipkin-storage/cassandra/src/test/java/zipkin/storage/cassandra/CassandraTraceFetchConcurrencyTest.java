@@ -0,0 +1,38 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import zipkin.storage.SpanStoreTest;
+
+/** Runs the span store tests, reading each trace with a separate query. */
+public class CassandraTraceFetchConcurrencyTest extends SpanStoreTest {
+
+  private final CassandraStorage storage;
+
+  public CassandraTraceFetchConcurrencyTest() {
+    // check everything is ok
+    CassandraTestGraph.INSTANCE.storage.get().check();
+    storage = CassandraStorage.builder()
+        .traceFetchConcurrency(2) // lower than the trace count in some tests
+        .keyspace("test_zipkin").build();
+  }
+
+  @Override protected CassandraStorage storage() {
+    return storage;
+  }
+
+  @Override public void clear() {
+    storage.clear();
+  }
+}
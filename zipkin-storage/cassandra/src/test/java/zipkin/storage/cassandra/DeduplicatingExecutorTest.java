@@ -13,6 +13,7 @@
  */
 package zipkin.storage.cassandra;
 
+import com.codahale.metrics.MetricRegistry;
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
@@ -141,8 +142,8 @@ public class DeduplicatingExecutorTest {
   @Test
   public void multithreaded() throws Exception {
     Session session = mock(Session.class);
-    DeduplicatingExecutor executor =
-        new DeduplicatingExecutor(session, TimeUnit.SECONDS.toMillis(1L));
+    DeduplicatingExecutor executor = new DeduplicatingExecutor(session,
+        TimeUnit.SECONDS.toMillis(1L), 1000L, new MetricRegistry());
     BoundStatement statement = mock(BoundStatement.class);
     when(session.executeAsync(statement))
         .thenAnswer(invocationOnMock -> mock(ResultSetFuture.class));
@@ -190,6 +191,30 @@ public class DeduplicatingExecutorTest {
         .isNotEqualTo(firstFuture);
   }
 
+  @Test
+  public void countsHitsAndMisses() {
+    executor.maybeExecuteAsync(first, "foo");
+    executor.maybeExecuteAsync(next, "foo");
+    executor.maybeExecuteAsync(next, "foo");
+    executor.maybeExecuteAsync(first, "bar");
+
+    assertThat(executor.misses.getCount()).isEqualTo(2);
+    assertThat(executor.hits.getCount()).isEqualTo(2);
+    assertThat(executor.evictions.getCount()).isZero();
+  }
+
+  @Test
+  public void evictsWhenMaxSizeExceeded() {
+    executor = new TestDeduplicatingExecutor(Futures::immediateFuture, 1L);
+
+    ListenableFuture<Void> firstFoo = executor.maybeExecuteAsync(first, "foo");
+    executor.maybeExecuteAsync(first, "bar"); // pushes out foo
+
+    assertThat(executor.maybeExecuteAsync(next, "foo"))
+        .isNotEqualTo(firstFoo);
+    assertThat(executor.evictions.getCount()).isPositive();
+  }
+
   static class TestDeduplicatingExecutor extends DeduplicatingExecutor {
     static TestDeduplicatingExecutor create(Function<BoundStatement, ListenableFuture<?>> callee) {
       return new TestDeduplicatingExecutor(callee);
@@ -199,7 +224,12 @@ public class DeduplicatingExecutorTest {
     long nanoTime;
 
     protected TestDeduplicatingExecutor(Function<BoundStatement, ListenableFuture<?>> delegate) {
-      super(fakeSession(delegate), TimeUnit.SECONDS.toMillis(1L));
+      this(delegate, 1000L);
+    }
+
+    TestDeduplicatingExecutor(Function<BoundStatement, ListenableFuture<?>> delegate,
+        long maxSize) {
+      super(fakeSession(delegate), TimeUnit.SECONDS.toMillis(1L), maxSize, new MetricRegistry());
       this.delegate = delegate;
     }
 
@@ -68,6 +68,7 @@ public class EnsureSchemaTest {
     KeyspaceMetadata metadata = session.getCluster().getMetadata().getKeyspace(keyspace);
     assertThat(metadata).isNotNull();
     assertThat(Schema.hasUpgrade1_defaultTtl(metadata)).isTrue();
+    assertThat(Schema.hasUpgrade2_timeBucketIndex(metadata)).isTrue();
   }
 
   @Test public void installsTablesWhenMissing() {
@@ -79,6 +80,7 @@ public class EnsureSchemaTest {
     KeyspaceMetadata metadata = session.getCluster().getMetadata().getKeyspace(keyspace);
     assertThat(metadata).isNotNull();
     assertThat(Schema.hasUpgrade1_defaultTtl(metadata)).isTrue();
+    assertThat(Schema.hasUpgrade2_timeBucketIndex(metadata)).isTrue();
   }
 
   @Test public void upgradesOldSchema() {
@@ -89,5 +91,6 @@ public class EnsureSchemaTest {
     KeyspaceMetadata metadata = session.getCluster().getMetadata().getKeyspace(keyspace);
     assertThat(metadata).isNotNull();
     assertThat(Schema.hasUpgrade1_defaultTtl(metadata)).isTrue();
+    assertThat(Schema.hasUpgrade2_timeBucketIndex(metadata)).isTrue();
   }
 }
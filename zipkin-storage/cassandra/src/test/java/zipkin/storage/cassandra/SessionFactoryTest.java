@@ -19,9 +19,12 @@ import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.Host;
 import com.datastax.driver.core.HostDistance;
 import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.SimpleStatement;
 import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 import com.datastax.driver.core.policies.LatencyAwarePolicy;
+import com.datastax.driver.core.policies.NoSpeculativeExecutionPolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
+import com.datastax.driver.core.policies.SpeculativeExecutionPolicy;
 import com.datastax.driver.core.policies.TokenAwarePolicy;
 import java.net.InetSocketAddress;
 import org.junit.Test;
@@ -163,4 +166,24 @@ public class SessionFactoryTest {
 
     assertThat(poolingOptions.getMaxConnectionsPerHost(HostDistance.LOCAL)).isEqualTo(16);
   }
+
+  @Test
+  public void speculativeExecution_defaultsToNone() {
+    assertThat(buildCluster(CassandraStorage.builder().build())
+        .getConfiguration().getPolicies().getSpeculativeExecutionPolicy())
+        .isSameAs(NoSpeculativeExecutionPolicy.INSTANCE);
+  }
+
+  @Test
+  public void speculativeReadDelay_onlyAppliesToSelects() {
+    SpeculativeExecutionPolicy policy =
+        buildCluster(CassandraStorage.builder().speculativeReadDelay(50).build())
+            .getConfiguration().getPolicies().getSpeculativeExecutionPolicy();
+    Host host = mock(Host.class);
+
+    assertThat(policy.newPlan("zipkin", new SimpleStatement("SELECT * FROM traces"))
+        .nextExecution(host)).isEqualTo(50L);
+    assertThat(policy.newPlan("zipkin", new SimpleStatement("INSERT INTO traces (a) VALUES (1)"))
+        .nextExecution(host)).isEqualTo(-1L);
+  }
 }
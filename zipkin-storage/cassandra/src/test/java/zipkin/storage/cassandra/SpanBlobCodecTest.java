@@ -0,0 +1,113 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import zipkin.BinaryAnnotation;
+import zipkin.BinaryAnnotation.Type;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.TestObjects;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class SpanBlobCodecTest {
+
+  @Test
+  public void uncompressed_isThrift() {
+    for (Span span : TestObjects.TRACE) {
+      ByteBuffer blob = SpanBlobCodec.encode(span, false);
+
+      assertThat(blob).isEqualTo(ByteBuffer.wrap(Codec.THRIFT.writeSpan(span)));
+      assertThat(SpanBlobCodec.decode(blob)).isEqualTo(span);
+    }
+  }
+
+  @Test
+  public void compressed_roundTrip() {
+    for (Span span : TestObjects.TRACE) {
+      ByteBuffer blob = SpanBlobCodec.encode(span, true);
+
+      assertThat(blob.get(0)).isEqualTo(SpanBlobCodec.DEFLATE_V1);
+      assertThat(SpanBlobCodec.decode(blob)).isEqualTo(span);
+    }
+  }
+
+  @Test
+  public void compressed_isSmaller() {
+    for (Span span : TestObjects.TRACE) {
+      assertThat(SpanBlobCodec.encode(span, true).remaining())
+          .isLessThan(Codec.THRIFT.writeSpan(span).length);
+    }
+  }
+
+  /** The driver can return a buffer positioned within a larger array */
+  @Test
+  public void compressed_decodesSlice() {
+    Span span = TestObjects.TRACE.get(0);
+    ByteBuffer blob = SpanBlobCodec.encode(span, true);
+
+    ByteBuffer padded = ByteBuffer.allocate(blob.remaining() + 10);
+    padded.position(5);
+    padded.put(blob.duplicate());
+    padded.position(5);
+    padded.limit(5 + blob.remaining());
+
+    assertThat(SpanBlobCodec.decode(padded.slice())).isEqualTo(span);
+    assertThat(SpanBlobCodec.decode(padded)).isEqualTo(span);
+  }
+
+  @Test
+  public void compressed_decodesDirectBuffer() {
+    Span span = TestObjects.TRACE.get(0);
+    ByteBuffer blob = SpanBlobCodec.encode(span, true);
+
+    ByteBuffer direct = ByteBuffer.allocateDirect(blob.remaining());
+    direct.put(blob.duplicate());
+    direct.flip();
+
+    assertThat(SpanBlobCodec.decode(direct)).isEqualTo(span);
+  }
+
+  /** Random data doesn't compress, so is stored as thrift */
+  @Test
+  public void compressed_fallsBackToThriftWhenNotSmaller() {
+    byte[] random = new byte[1024];
+    new Random(1L).nextBytes(random);
+    Span span = Span.builder().traceId(1L).id(1L).name("")
+        .addBinaryAnnotation(BinaryAnnotation.create("random", random, Type.BYTES, null))
+        .build();
+
+    ByteBuffer blob = SpanBlobCodec.encode(span, true);
+
+    assertThat(blob).isEqualTo(ByteBuffer.wrap(Codec.THRIFT.writeSpan(span)));
+    assertThat(SpanBlobCodec.decode(blob)).isEqualTo(span);
+  }
+
+  @Test
+  public void decode_truncated() {
+    ByteBuffer blob = SpanBlobCodec.encode(TestObjects.TRACE.get(0), true);
+    blob.limit(blob.limit() - 4);
+
+    try {
+      SpanBlobCodec.decode(blob);
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessageContaining("compressed span");
+    }
+  }
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra;
+
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ThrottledSessionTest {
+  Session delegate = mock(Session.class);
+  ResultSetFuture pending = mock(ResultSetFuture.class);
+  Statement statement = mock(Statement.class);
+
+  ThrottledSession throttled = new ThrottledSession(delegate, 1, 0);
+  Session session = ThrottledSession.create(delegate, 1, 0);
+
+  @Test
+  public void rejectsWhenNoPermitsAvailable() throws Exception {
+    when(delegate.executeAsync(statement)).thenReturn(pending);
+
+    assertThat(throttled.executeAsync(statement)).isSameAs(pending);
+    ResultSetFuture rejected = throttled.executeAsync(statement);
+
+    try {
+      rejected.get();
+      failBecauseExceptionWasNotThrown(ExecutionException.class);
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(RejectedExecutionException.class);
+    }
+    verify(delegate, times(1)).executeAsync(statement);
+    assertThat(throttled.inFlight.getCount()).isEqualTo(1);
+    assertThat(throttled.waited.getCount()).isEqualTo(1);
+    assertThat(throttled.rejected.getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void releasesPermitWhenComplete() {
+    when(delegate.executeAsync(statement)).thenReturn(pending);
+
+    throttled.executeAsync(statement);
+
+    ArgumentCaptor<Runnable> listener = ArgumentCaptor.forClass(Runnable.class);
+    verify(pending).addListener(listener.capture(), any());
+    listener.getValue().run();
+
+    assertThat(throttled.inFlight.getCount()).isZero();
+    assertThat(throttled.executeAsync(statement)).isSameAs(pending);
+    assertThat(throttled.rejected.getCount()).isZero();
+  }
+
+  @Test
+  public void releasesPermitWhenExecuteThrows() {
+    when(delegate.executeAsync(statement)).thenThrow(new IllegalStateException());
+
+    try {
+      throttled.executeAsync(statement);
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException e) {
+      // expected
+    }
+
+    assertThat(throttled.inFlight.getCount()).isZero();
+    assertThat(throttled.permits.availablePermits()).isEqualTo(1);
+  }
+
+  @Test
+  public void proxy_throttlesExecuteAsync() {
+    when(delegate.executeAsync(statement)).thenReturn(pending);
+
+    session.executeAsync(statement);
+    session.executeAsync(statement);
+
+    verify(delegate, times(1)).executeAsync(statement);
+  }
+
+  @Test
+  public void proxy_passesThroughOtherMethods() {
+    when(delegate.getLoggedKeyspace()).thenReturn("zipkin");
+
+    assertThat(session.getLoggedKeyspace()).isEqualTo("zipkin");
+    session.executeAsync("TRUNCATE traces");
+
+    verify(delegate).executeAsync("TRUNCATE traces");
+    verify(delegate, never()).executeAsync(eq(statement));
+  }
+}
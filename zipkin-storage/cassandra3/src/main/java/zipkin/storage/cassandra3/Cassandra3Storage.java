@@ -16,6 +16,7 @@ package zipkin.storage.cassandra3;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheBuilderSpec;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
 import zipkin.internal.LazyCloseable;
@@ -62,6 +63,12 @@ public final class Cassandra3Storage
     String password;
     int maxTraceCols = 100000;
     int indexFetchMultiplier = 3;
+    int maxInFlightWrites = 0;
+    int inFlightWriteTimeout = 1000;
+    int speculativeReadDelay = 0;
+    int maxSpeculativeReads = 1;
+    int indexCacheMax = 100000;
+    int indexCacheTtl = 60;
     SessionFactory sessionFactory = SessionFactory.DEFAULT;
 
     /** {@inheritDoc} */
@@ -159,6 +166,83 @@ public final class Cassandra3Storage
       return this;
     }
 
+    /**
+     * Maximum count of write requests in flight at the same time. Defaults to 0, which is
+     * unlimited.
+     *
+     * <p>Each call to the span consumer fans out into many asynchronous requests. Under bursts,
+     * these can exceed the driver's per-connection request queue, resulting in {@code
+     * BusyPoolException}. When set, writes beyond this limit wait for {@link
+     * #inFlightWriteTimeout} before failing. A good starting point is a fraction of
+     * {@link #maxConnections} times 1024, the driver's default max requests per connection.
+     */
+    public Builder maxInFlightWrites(int maxInFlightWrites) {
+      this.maxInFlightWrites = maxInFlightWrites;
+      return this;
+    }
+
+    /**
+     * How long in milliseconds a write waits for an in-flight permit before it is rejected.
+     * Defaults to 1000. This is only read when {@link #maxInFlightWrites} is greater than zero.
+     */
+    public Builder inFlightWriteTimeout(int inFlightWriteTimeout) {
+      this.inFlightWriteTimeout = inFlightWriteTimeout;
+      return this;
+    }
+
+    /**
+     * When greater than zero, a SELECT that hasn't completed within this many milliseconds is sent
+     * to another replica, and the first response wins. Defaults to 0, which disables speculative
+     * reads.
+     *
+     * <p>This protects trace lookups from a single slow coordinator, for example one in a garbage
+     * collection pause, at the cost of extra reads. A good starting point is the p99 latency of
+     * reads, as reported by the statement metrics. Writes are never speculatively executed.
+     */
+    public Builder speculativeReadDelay(int speculativeReadDelay) {
+      this.speculativeReadDelay = speculativeReadDelay;
+      return this;
+    }
+
+    /**
+     * Maximum count of additional replicas a slow SELECT is sent to. Defaults to 1. This is only
+     * read when {@link #speculativeReadDelay} is greater than zero.
+     */
+    public Builder maxSpeculativeReads(int maxSpeculativeReads) {
+      this.maxSpeculativeReads = maxSpeculativeReads;
+      return this;
+    }
+
+    /**
+     * Spans reported more than once, such as when a reporter retries, produce the same row in the
+     * trace_by_service_span table. To avoid writing it twice, this remembers the rows already
+     * written, keyed by service, span name, trace ID, millisecond timestamp and duration. This is
+     * the count of rows to remember. Defaults to 100000. When zero, a row is written for every
+     * span.
+     *
+     * <p>Corresponds to the count of rows written between {@link #indexCacheTtl} and now. This is
+     * bounded so that collectors that get large trace volume don't run out of memory before {@link
+     * #indexCacheTtl} passes. A good guess might be 2 x spans per indexCacheTtl, memory permitting.
+     */
+    public Builder indexCacheMax(int indexCacheMax) {
+      this.indexCacheMax = indexCacheMax;
+      return this;
+    }
+
+    /**
+     * Indicates how long in seconds to remember what was written to the trace_by_service_span
+     * table. Defaults to 1 minute. This is only read when {@link #indexCacheMax} is greater than
+     * zero.
+     *
+     * <p>You should pick a value that is longer than the gap between the root span's timestamp and
+     * its latest descendant span's timestamp. More simply, if 95% of your trace durations are under
+     * 1 minute, use 1 minute.
+     */
+    public Builder indexCacheTtl(int indexCacheTtl) {
+      this.indexCacheTtl = indexCacheTtl;
+      return this;
+    }
+
     @Override public Cassandra3Storage build() {
       return new Cassandra3Storage(this);
     }
@@ -177,6 +261,11 @@ public final class Cassandra3Storage
   final boolean useSsl;
   final String keyspace;
   final int indexFetchMultiplier;
+  final int maxInFlightWrites;
+  final int inFlightWriteTimeout;
+  final int speculativeReadDelay;
+  final int maxSpeculativeReads;
+  final CacheBuilderSpec indexCacheSpec;
   final boolean strictTraceId;
   final LazyCloseable<Session> session;
 
@@ -191,6 +280,14 @@ public final class Cassandra3Storage
     this.keyspace = builder.keyspace;
     this.maxTraceCols = builder.maxTraceCols;
     this.indexFetchMultiplier = builder.indexFetchMultiplier;
+    this.maxInFlightWrites = builder.maxInFlightWrites;
+    this.inFlightWriteTimeout = builder.inFlightWriteTimeout;
+    this.speculativeReadDelay = builder.speculativeReadDelay;
+    this.maxSpeculativeReads = builder.maxSpeculativeReads;
+    this.indexCacheSpec = builder.indexCacheMax == 0
+        ? null
+        : CacheBuilderSpec.parse("maximumSize=" + builder.indexCacheMax
+            + ",expireAfterWrite=" + builder.indexCacheTtl + "s");
     this.strictTraceId = builder.strictTraceId;
     final SessionFactory sessionFactory = builder.sessionFactory;
     this.session = new LazyCloseable<Session>() {
@@ -211,7 +308,10 @@ public final class Cassandra3Storage
   }
 
   @Override protected CassandraSpanConsumer computeGuavaSpanConsumer() {
-    return new CassandraSpanConsumer(session.get(), strictTraceId);
+    Session writeSession = maxInFlightWrites > 0
+        ? ThrottledSession.create(session.get(), maxInFlightWrites, inFlightWriteTimeout)
+        : session.get();
+    return new CassandraSpanConsumer(writeSession, strictTraceId, indexCacheSpec);
   }
 
   @Override public CheckResult check() {
@@ -229,6 +329,7 @@ public final class Cassandra3Storage
 
   /** Truncates all the column families, or throws on any failure. */
   @VisibleForTesting void clear() {
+    guavaSpanConsumer().clear();
     for (String cf : ImmutableList.of(
       Schema.TABLE_TRACES,
       Schema.TABLE_TRACE_BY_SERVICE_SPAN,
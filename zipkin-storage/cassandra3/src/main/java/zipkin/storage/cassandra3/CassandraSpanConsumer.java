@@ -19,9 +19,11 @@ import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.querybuilder.QueryBuilder;
 import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
+import com.google.common.cache.CacheBuilderSpec;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -34,18 +36,27 @@ import org.slf4j.LoggerFactory;
 import zipkin.Annotation;
 import zipkin.BinaryAnnotation;
 import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.internal.Pair;
 import zipkin.storage.cassandra3.Schema.AnnotationUDT;
 import zipkin.storage.cassandra3.Schema.BinaryAnnotationUDT;
 import zipkin.storage.cassandra3.Schema.TraceIdUDT;
+import zipkin.storage.cassandra3.TraceServiceSpanIndex.Entry;
 import zipkin.storage.guava.GuavaSpanConsumer;
 
 import static com.google.common.util.concurrent.Futures.transform;
 import static zipkin.internal.ApplyTimestampAndDuration.guessTimestamp;
 import static zipkin.storage.cassandra3.CassandraUtil.bindWithName;
 import static zipkin.storage.cassandra3.CassandraUtil.durationIndexBucket;
+import static zipkin.storage.cassandra3.CassandraUtil.metricRegistry;
 
 final class CassandraSpanConsumer implements GuavaSpanConsumer {
   private static final Logger LOG = LoggerFactory.getLogger(CassandraSpanConsumer.class);
+  private static final long WRITTEN_NAMES_TTL
+      = Long.getLong("zipkin.store.cassandra3.internal.writtenNamesTtl", 60 * 60 * 1000);
+  private static final long WRITTEN_NAMES_MAX
+      = Long.getLong("zipkin.store.cassandra3.internal.writtenNamesMax", 100000);
+
   private static final Function<Object, Void> TO_VOID = Functions.<Void>constant(null);
 
   private final Session session;
@@ -54,8 +65,19 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
   private final PreparedStatement insertTraceServiceSpanName;
   private final PreparedStatement insertServiceSpanName;
   private final Schema.Metadata metadata;
+  private final DeduplicatingExecutor deduplicatingExecutor;
+  private final TraceServiceSpanIndex traceServiceSpanIndex;
 
   CassandraSpanConsumer(Session session, boolean strictTraceId) {
+    this(session, strictTraceId, null);
+  }
+
+  /**
+   * @param indexCacheSpec controls which redundant rows of the trace_by_service_span table are
+   * skipped. Null writes a row for every span.
+   */
+  CassandraSpanConsumer(Session session, boolean strictTraceId,
+      @Nullable CacheBuilderSpec indexCacheSpec) {
     this.session = session;
     this.strictTraceId = strictTraceId;
     this.metadata = Schema.readMetadata(session);
@@ -89,15 +111,22 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
             .insertInto(Schema.TABLE_SERVICE_SPANS)
             .value("service_name", QueryBuilder.bindMarker("service_name"))
             .value("span_name", QueryBuilder.bindMarker("span_name")));
+
+    deduplicatingExecutor = new DeduplicatingExecutor(session, WRITTEN_NAMES_TTL,
+        WRITTEN_NAMES_MAX, metricRegistry(session));
+    traceServiceSpanIndex = new TraceServiceSpanIndex(indexCacheSpec);
   }
 
   /**
    * This fans out into many requests, last count was 2 * spans.size. If any of these fail, the
    * returned future will fail. Most callers drop or log the result.
+   *
+   * <p>Index rows and service/span name pairs written recently are skipped.
    */
   @Override
   public ListenableFuture<Void> accept(List<Span> rawSpans) {
     ImmutableSet.Builder<ListenableFuture<?>> futures = ImmutableSet.builder();
+    List<Entry> indexEntries = new ArrayList<>();
 
     for (Span span : rawSpans) {
       // indexing occurs by timestamp, so derive one if not present.
@@ -110,13 +139,18 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
 
         // Contract for Repository.storeTraceServiceSpanName is to store the span twice, once with
         // the span name and another with empty string.
-        futures.add(storeTraceServiceSpanName(serviceName, span.name, timestamp, span.duration, traceId));
+        indexEntries.add(new Entry(serviceName, span.name, traceId, timestamp, span.duration));
         if (!span.name.isEmpty()) { // If span.name == "", this would be redundant
-          futures.add(storeTraceServiceSpanName(serviceName, "", timestamp, span.duration, traceId));
+          indexEntries.add(new Entry(serviceName, "", traceId, timestamp, span.duration));
         }
         futures.add(storeServiceSpanName(serviceName, span.name));
       }
     }
+
+    for (Entry entry : traceServiceSpanIndex.entriesToWrite(indexEntries)) {
+      futures.add(storeTraceServiceSpanName(entry.serviceName, entry.spanName,
+          entry.timestamp, entry.duration, entry.traceId));
+    }
     return transform(Futures.allAsList(futures.build()), TO_VOID);
   }
 
@@ -219,10 +253,15 @@ final class CassandraSpanConsumer implements GuavaSpanConsumer {
           .setString("service_name", serviceName)
           .setString("span_name", spanName);
 
-      return session.executeAsync(bound);
+      return deduplicatingExecutor.maybeExecuteAsync(bound, Pair.create(serviceName, spanName));
     } catch (RuntimeException ex) {
       return Futures.immediateFailedFuture(ex);
     }
   }
 
+  /** Clears any caches */
+  @VisibleForTesting void clear() {
+    traceServiceSpanIndex.clear();
+    deduplicatingExecutor.clear();
+  }
 }
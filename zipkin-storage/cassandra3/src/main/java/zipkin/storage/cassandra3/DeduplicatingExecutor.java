@@ -0,0 +1,172 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra3;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static zipkin.internal.Util.checkNotNull;
+
+/**
+ * This reduces load on cassandra by preventing semantically equivalent requests from being invoked,
+ * subject to a local TTL and maximum size.
+ *
+ * <p>Ex. If you want to test that you don't repeatedly send bad data, you could send a 400 back.
+ *
+ * <pre>{@code
+ * ttl = 60 * 1000; // 1 minute
+ * deduper = new DeduplicatingExecutor(session, ttl, maxSize, metrics);
+ *
+ * // the result of the first execution against "foo" is returned to other callers
+ * // until it expires a minute later.
+ * deduper.maybeExecute(bound, "foo");
+ * deduper.maybeExecute(bound, "foo");
+ * }</pre>
+ *
+ * <p>Entries only hold the key and a future disconnected from cassandra state. Notably, the bound
+ * statement is not retained after it is executed.
+ *
+ * <p>Counters named "zipkin.dedupe.hits", "zipkin.dedupe.misses" and "zipkin.dedupe.evictions"
+ * are added to the supplied registry.
+ */
+class DeduplicatingExecutor { // not final for testing
+
+  private final Session session;
+  private final Cache<Object, ListenableFuture<Void>> cache;
+  final Counter hits, misses, evictions;
+
+  /**
+   * @param session which conditionally executes bound statements
+   * @param ttl how long the results of statements are remembered, in milliseconds.
+   * @param maxSize how many keys to remember before the least recently used are evicted.
+   * @param metrics where to add counters of hits, misses and evictions
+   */
+  DeduplicatingExecutor(Session session, long ttl, long maxSize, MetricRegistry metrics) {
+    this.session = session;
+    this.hits = metrics.counter("zipkin.dedupe.hits");
+    this.misses = metrics.counter("zipkin.dedupe.misses");
+    this.evictions = metrics.counter("zipkin.dedupe.evictions");
+    this.cache = CacheBuilder.newBuilder()
+        .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+        .maximumSize(maxSize)
+        .ticker(new Ticker() {
+          @Override public long read() {
+            return nanoTime();
+          }
+        })
+        .removalListener(new RemovalListener<Object, ListenableFuture<Void>>() {
+          @Override
+          public void onRemoval(RemovalNotification<Object, ListenableFuture<Void>> notification) {
+            if (notification.wasEvicted()) evictions.inc();
+          }
+        })
+        .build();
+  }
+
+  /**
+   * Upon success, the statement's result will be remembered and returned for all subsequent
+   * executions with the same key, subject to a local TTL.
+   *
+   * <p>The results of failed statements are forgotten based on the supplied key.
+   *
+   * @param statement what to conditionally execute
+   * @param key determines equivalence of the bound statement
+   * @return future of work initiated by this or a previous request
+   */
+  ListenableFuture<Void> maybeExecuteAsync(BoundStatement statement, Object key) {
+    checkNotNull(statement, "statement");
+    checkNotNull(key, "key");
+    Loader loader = new Loader(statement, key);
+    try {
+      ListenableFuture<Void> result = cache.get(key, loader);
+      if (loader.called) {
+        misses.inc();
+      } else {
+        hits.inc();
+      }
+      // A future could be constructed directly (i.e. immediate future), get the value to
+      // see if it was exceptional. If so, the catch block will invalidate that key.
+      if (result.isDone()) result.get();
+      return result;
+    } catch (UncheckedExecutionException | ExecutionException e) {
+      cache.invalidate(key);
+      return Futures.immediateFailedFuture(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AssertionError();
+    }
+  }
+
+  /** Executes the statement on a cache miss, without the cache retaining it. */
+  final class Loader implements Callable<ListenableFuture<Void>> {
+    final BoundStatement statement;
+    final Object key;
+    boolean called;
+
+    Loader(BoundStatement statement, Object key) {
+      this.statement = statement;
+      this.key = key;
+    }
+
+    @Override public ListenableFuture<Void> call() {
+      called = true;
+      ListenableFuture<?> cassandraFuture = executeAsync(statement);
+
+      // Drop the cassandra future so that we don't hold references to cassandra state for
+      // long periods of time.
+      final SettableFuture<Void> disconnectedFuture = SettableFuture.create();
+      Futures.addCallback(cassandraFuture, new FutureCallback<Object>() {
+
+        @Override public void onSuccess(Object result) {
+          disconnectedFuture.set(null);
+        }
+
+        @Override public void onFailure(Throwable t) {
+          cache.invalidate(key);
+          disconnectedFuture.setException(t);
+        }
+      });
+      return disconnectedFuture;
+    }
+  }
+
+  // visible for testing, since nanoTime is weird and can return negative
+  long nanoTime() {
+    return System.nanoTime();
+  }
+
+  @VisibleForTesting ListenableFuture<?> executeAsync(BoundStatement statement) {
+    return session.executeAsync(statement);
+  }
+
+  @VisibleForTesting void clear() {
+    cache.invalidateAll();
+  }
+}
@@ -20,6 +20,7 @@ import com.datastax.driver.core.PoolingOptions;
 import com.datastax.driver.core.QueryLogger;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.TypeCodec;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
 import com.datastax.driver.core.policies.DCAwareRoundRobinPolicy;
 import com.datastax.driver.core.policies.LatencyAwarePolicy;
 import com.datastax.driver.core.policies.RoundRobinPolicy;
@@ -66,6 +67,8 @@ final class DefaultSessionFactory implements Cassandra3Storage.SessionFactory {
       }
 
       initializeUDTs(session);
+      // metrics are initialized on connect, so the tracker is registered afterwards
+      cluster.register(new StatementMetrics(CassandraUtil.metricRegistry(session)));
 
       return session;
     } catch (RuntimeException e) {
@@ -123,6 +126,11 @@ final class DefaultSessionFactory implements Cassandra3Storage.SessionFactory {
     builder.withPoolingOptions(new PoolingOptions().setMaxConnectionsPerHost(
         HostDistance.LOCAL, cassandra.maxConnections
     ));
+    if (cassandra.speculativeReadDelay > 0) {
+      builder.withSpeculativeExecutionPolicy(new SpeculativeReadPolicy(
+          new ConstantSpeculativeExecutionPolicy(
+              cassandra.speculativeReadDelay, cassandra.maxSpeculativeReads)));
+    }
     if (cassandra.useSsl) {
       builder = builder.withSSL();
     }
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra3;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import zipkin.internal.Nullable;
+import zipkin.storage.cassandra3.Schema.TraceIdUDT;
+
+/**
+ * Skips rows of {@link Schema#TABLE_TRACE_BY_SERVICE_SPAN} that were already written. This only
+ * catches rows that repeat exactly: a span reported again, such as when a reporter retries, or the
+ * empty span name row of spans in the same service and trace that share a timestamp and duration.
+ * The client and server sides of a call differ in timestamp and duration, so aren't skipped.
+ *
+ * <p>Like the legacy Cassandra indexer, timestamps are compared at millisecond precision, which is
+ * the precision of the "ts" column. Each distinct duration is still written, as queries filter on
+ * it.
+ */
+final class TraceServiceSpanIndex {
+
+  /** Shared across all threads, as spans of a trace can arrive on any. Null disables the filter. */
+  @Nullable
+  final ConcurrentMap<Entry, Boolean> sharedState;
+
+  TraceServiceSpanIndex(@Nullable CacheBuilderSpec spec) {
+    this.sharedState = spec == null ? null : CacheBuilder.from(spec).<Entry, Boolean>build().asMap();
+  }
+
+  /** Returns the entries not yet written, in the same order they were added. */
+  List<Entry> entriesToWrite(List<Entry> entries) {
+    if (sharedState == null) return entries;
+
+    List<Entry> result = new ArrayList<>(entries.size());
+    for (Entry entry : entries) {
+      if (sharedState.putIfAbsent(entry, Boolean.TRUE) == null) result.add(entry);
+    }
+    return result;
+  }
+
+  void clear() {
+    if (sharedState != null) sharedState.clear();
+  }
+
+  /** Corresponds to a row to write into {@link Schema#TABLE_TRACE_BY_SERVICE_SPAN}. */
+  static final class Entry {
+    final String serviceName;
+    final String spanName;
+    final TraceIdUDT traceId;
+    final long timestamp;
+    @Nullable final Long duration;
+
+    Entry(String serviceName, String spanName, TraceIdUDT traceId, long timestamp,
+        @Nullable Long duration) {
+      this.serviceName = serviceName;
+      this.spanName = spanName;
+      this.traceId = traceId;
+      this.timestamp = timestamp;
+      this.duration = duration;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Entry)) return false;
+      Entry that = (Entry) o;
+      return serviceName.equals(that.serviceName)
+          && spanName.equals(that.spanName)
+          && traceId.equals(that.traceId)
+          && timestamp / 1000 == that.timestamp / 1000 // index precision is millis
+          && (duration == null ? that.duration == null : duration.equals(that.duration));
+    }
+
+    @Override public int hashCode() {
+      long timestampMillis = timestamp / 1000;
+      int h = 1;
+      h *= 1000003;
+      h ^= serviceName.hashCode();
+      h *= 1000003;
+      h ^= spanName.hashCode();
+      h *= 1000003;
+      h ^= traceId.hashCode();
+      h *= 1000003;
+      h ^= (int) ((timestampMillis >>> 32) ^ timestampMillis);
+      h *= 1000003;
+      h ^= (duration == null) ? 0 : duration.hashCode();
+      return h;
+    }
+  }
+}
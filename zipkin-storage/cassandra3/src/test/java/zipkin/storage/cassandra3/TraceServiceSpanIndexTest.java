@@ -0,0 +1,115 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.cassandra3;
+
+import com.google.common.cache.CacheBuilderSpec;
+import java.util.List;
+import org.junit.Test;
+import zipkin.storage.cassandra3.Schema.TraceIdUDT;
+import zipkin.storage.cassandra3.TraceServiceSpanIndex.Entry;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceServiceSpanIndexTest {
+  static final long TIMESTAMP = 1000000L;
+
+  TraceServiceSpanIndex index = new TraceServiceSpanIndex(CacheBuilderSpec.parse("maximumSize=10"));
+  TraceIdUDT traceId = new TraceIdUDT(0L, 1L);
+
+  @Test
+  public void writesEverythingWhenDisabled() {
+    index = new TraceServiceSpanIndex(null);
+    List<Entry> entries = asList(entry("web", 10L), entry("web", 10L));
+
+    assertThat(index.entriesToWrite(entries)).isSameAs(entries);
+  }
+
+  @Test
+  public void skipsExactDuplicates() {
+    Entry first = entry("web", 10L);
+
+    assertThat(index.entriesToWrite(asList(first, entry("web", 10L))))
+        .containsExactly(first);
+    assertThat(index.entriesToWrite(asList(entry("web", 10L))))
+        .isEmpty();
+  }
+
+  /** Spans of the same service and trace write the same empty span name row */
+  @Test
+  public void skipsRepeatedEmptySpanNameRow() {
+    Entry get = entry("web", 10L);
+    Entry post = new Entry("web", "post", traceId, TIMESTAMP, 10L);
+    Entry emptyName = new Entry("web", "", traceId, TIMESTAMP, 10L);
+
+    assertThat(index.entriesToWrite(asList(get, emptyName, post, emptyName)))
+        .containsExactly(get, emptyName, post);
+  }
+
+  /** Queries filter on duration, so rows between the shortest and longest still matter. */
+  @Test
+  public void writesEachDistinctDuration() {
+    List<Entry> entries = asList(entry("web", 10L), entry("web", 55L), entry("web", 100L));
+
+    assertThat(index.entriesToWrite(entries))
+        .containsExactlyElementsOf(entries);
+  }
+
+  @Test
+  public void nullDurationIsDistinct() {
+    List<Entry> entries = asList(entry("web", null), entry("web", 10L));
+
+    assertThat(index.entriesToWrite(entries))
+        .containsExactlyElementsOf(entries);
+    assertThat(index.entriesToWrite(asList(entry("web", null))))
+        .isEmpty();
+  }
+
+  @Test
+  public void distinctOnServiceSpanNameAndTraceId() {
+    List<Entry> entries = asList(
+        entry("web", 10L),
+        entry("app", 10L),
+        new Entry("web", "", traceId, TIMESTAMP, 10L),
+        new Entry("web", "get", new TraceIdUDT(0L, 2L), TIMESTAMP, 10L)
+    );
+
+    assertThat(index.entriesToWrite(entries))
+        .containsExactlyElementsOf(entries);
+  }
+
+  /** The "ts" column is millisecond precision */
+  @Test
+  public void comparesTimestampsAtMillisecondPrecision() {
+    Entry first = new Entry("web", "get", traceId, TIMESTAMP, 10L);
+    Entry sameMilli = new Entry("web", "get", traceId, TIMESTAMP + 999, 10L);
+    Entry nextMilli = new Entry("web", "get", traceId, TIMESTAMP + 1000, 10L);
+
+    assertThat(index.entriesToWrite(asList(first, sameMilli, nextMilli)))
+        .containsExactly(first, nextMilli);
+  }
+
+  @Test
+  public void clear() {
+    index.entriesToWrite(asList(entry("web", 10L)));
+    index.clear();
+
+    assertThat(index.entriesToWrite(asList(entry("web", 10L))))
+        .hasSize(1);
+  }
+
+  Entry entry(String serviceName, Long duration) {
+    return new Entry(serviceName, "get", traceId, TIMESTAMP, duration);
+  }
+}
@@ -32,9 +32,9 @@ final class BodyConverters {
     Set<String> result = collectValuesNamed(JsonReader.of(b), "key");
     return Util.sortedList(result);
   };
-  static final BodyConverter<List<Span>> SPANS =
+  static final SearchResultConverter<Span> SPANS =
       SearchResultConverter.create(JsonAdapters.SPAN_ADAPTER);
-  static final BodyConverter<List<Span>> NULLABLE_SPANS =
+  static final SearchResultConverter<Span> NULLABLE_SPANS =
       SearchResultConverter.create(JsonAdapters.SPAN_ADAPTER).defaultToNull();
   static final BodyConverter<List<DependencyLink>> DEPENDENCY_LINKS =
       new SearchResultConverter<DependencyLink>(JsonAdapters.DEPENDENCY_LINK_ADAPTER) {
@@ -25,6 +25,7 @@ import okio.Buffer;
 import zipkin.Codec;
 import zipkin.Span;
 import zipkin.internal.Pair;
+import zipkin.internal.Util;
 import zipkin.storage.AsyncSpanConsumer;
 import zipkin.storage.Callback;
 
@@ -37,10 +38,12 @@ class ElasticsearchHttpSpanConsumer implements AsyncSpanConsumer { // not final
 
   final ElasticsearchHttpStorage es;
   final IndexNameFormatter indexNameFormatter;
+  final boolean traceIdRouting;
 
   ElasticsearchHttpSpanConsumer(ElasticsearchHttpStorage es) {
     this.es = es;
     this.indexNameFormatter = es.indexNameFormatter();
+    this.traceIdRouting = es.traceIdRouting();
   }
 
   @Override public void accept(List<Span> spans, Callback<Void> callback) {
@@ -86,7 +89,9 @@ class ElasticsearchHttpSpanConsumer implements AsyncSpanConsumer { // not final
       if (!span.name.isEmpty()) putServiceSpans(indexToServiceSpans, index, span);
       byte[] document = Codec.JSON.writeSpan(span);
       if (timestampMillis != null) document = prefixWithTimestampMillis(document, timestampMillis);
-      indexer.add(index, ElasticsearchHttpSpanStore.SPAN, document, null /* Allow ES to choose an ID */);
+      String routing = traceIdRouting ? Util.toLowerHex(span.traceId) : null;
+      indexer.add(index, ElasticsearchHttpSpanStore.SPAN, document,
+          null /* Allow ES to choose an ID */, routing);
     }
     return indexToServiceSpans;
   }
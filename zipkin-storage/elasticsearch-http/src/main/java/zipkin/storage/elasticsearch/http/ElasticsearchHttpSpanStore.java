@@ -47,6 +47,10 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
   final IndexNameFormatter indexNameFormatter;
   final boolean strictTraceId;
   final int namesLookback;
+  @Nullable final NamesCache serviceNamesCache;
+  @Nullable final NamesCache spanNamesCache;
+  final int traceLookback;
+  final boolean traceIdRouting;
 
   ElasticsearchHttpSpanStore(ElasticsearchHttpStorage es) {
     this.search = new SearchCallFactory(es.http());
@@ -54,6 +58,11 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
     this.indexNameFormatter = es.indexNameFormatter();
     this.strictTraceId = es.strictTraceId();
     this.namesLookback = es.namesLookback();
+    boolean cacheNames = es.namesRefreshInterval() > 0;
+    this.serviceNamesCache = cacheNames ? es.serviceNamesCache() : null;
+    this.spanNamesCache = cacheNames ? es.spanNamesCache() : null;
+    this.traceLookback = es.traceLookback();
+    this.traceIdRouting = es.traceIdRouting();
   }
 
   @Override public void getTraces(QueryRequest request, Callback<List<List<Span>>> callback) {
@@ -148,7 +157,8 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
         }
         SearchRequest request = SearchRequest.forIndicesAndType(indices, SPAN)
             .terms("traceId", traceIds);
-        search.newCall(request, BodyConverters.SPANS).submit(successCallback);
+        if (traceIdRouting) request.routing(joinRoutingKeys(traceIds));
+        search.newPagingCall(request, BodyConverters.SPANS).submit(successCallback);
       }
 
       @Override public void onError(Throwable t) {
@@ -181,14 +191,58 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
   @Override
   public void getRawTrace(long traceIdHigh, long traceIdLow, Callback<List<Span>> callback) {
     String traceIdHex = Util.toLowerHex(strictTraceId ? traceIdHigh : 0L, traceIdLow);
+    String routing = traceIdRouting ? Util.toLowerHex(traceIdLow) : null;
 
-    SearchRequest request = SearchRequest.forIndicesAndType(asList(allIndices), SPAN)
-        .term("traceId", traceIdHex);
+    SearchRequest allRequest = SearchRequest.forIndicesAndType(asList(allIndices), SPAN)
+        .term("traceId", traceIdHex).routing(routing);
+    if (traceLookback <= 0) {
+      search.newPagingCall(allRequest, BodyConverters.NULLABLE_SPANS).submit(callback);
+      return;
+    }
+
+    // Most lookups are for recent traces, so try the recent indices before fanning out to all
+    long endMillis = System.currentTimeMillis();
+    long beginMillis = endMillis - traceLookback;
+    List<String> indices = indexNameFormatter.indexNamePatternsForRange(beginMillis, endMillis);
+    SearchRequest recentRequest = SearchRequest.forIndicesAndType(indices, SPAN)
+        .term("traceId", traceIdHex).routing(routing);
+
+    Callback<List<Span>> searchAllOnMiss = new Callback<List<Span>>() {
+      @Override public void onSuccess(@Nullable List<Span> value) {
+        if (value != null) {
+          callback.onSuccess(value);
+        } else {
+          search.newPagingCall(allRequest, BodyConverters.NULLABLE_SPANS).submit(callback);
+        }
+      }
+
+      @Override public void onError(Throwable t) {
+        callback.onError(t);
+      }
+    };
+    search.newPagingCall(recentRequest, BodyConverters.NULLABLE_SPANS).submit(searchAllOnMiss);
+  }
 
-    search.newCall(request, BodyConverters.NULLABLE_SPANS).submit(callback);
+  /** Spans are routed on the lower 64-bits of the trace ID, so that it works with mixed lengths */
+  static String joinRoutingKeys(List<String> traceIds) {
+    StringBuilder result = new StringBuilder();
+    for (int i = 0, length = traceIds.size(); i < length; i++) {
+      String traceId = traceIds.get(i);
+      if (i > 0) result.append(',');
+      result.append(traceId.length() > 16 ? traceId.substring(traceId.length() - 16) : traceId);
+    }
+    return result.toString();
   }
 
   @Override public void getServiceNames(Callback<List<String>> callback) {
+    if (serviceNamesCache == null) {
+      loadServiceNames(callback);
+    } else {
+      serviceNamesCache.get("", this::loadServiceNames, callback);
+    }
+  }
+
+  void loadServiceNames(Callback<List<String>> callback) {
     long endMillis =  System.currentTimeMillis();
     long beginMillis =  endMillis - namesLookback;
 
@@ -198,7 +252,10 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
 
     search.newCall(request, BodyConverters.SORTED_KEYS).submit(new Callback<List<String>>() {
       @Override public void onSuccess(List<String> value) {
-        if (!value.isEmpty()) callback.onSuccess(value);
+        if (!value.isEmpty()) {
+          callback.onSuccess(value);
+          return;
+        }
 
         // Special cased code until sites update their collectors. What this does is do a more
         // expensive nested query to get service names when the servicespan type returns nothing.
@@ -222,7 +279,15 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
       callback.onSuccess(Collections.emptyList());
       return;
     }
+    if (spanNamesCache == null) {
+      loadSpanNames(serviceName, callback);
+    } else {
+      String key = serviceName.toLowerCase(Locale.ROOT);
+      spanNamesCache.get(key, c -> loadSpanNames(key, c), callback);
+    }
+  }
 
+  void loadSpanNames(String serviceName, Callback<List<String>> callback) {
     long endMillis =  System.currentTimeMillis();
     long beginMillis =  endMillis - namesLookback;
 
@@ -234,7 +299,10 @@ final class ElasticsearchHttpSpanStore implements AsyncSpanStore {
 
     search.newCall(request, BodyConverters.SORTED_KEYS).submit(new Callback<List<String>>() {
       @Override public void onSuccess(List<String> value) {
-        if (!value.isEmpty()) callback.onSuccess(value);
+        if (!value.isEmpty()) {
+          callback.onSuccess(value);
+          return;
+        }
 
         // Special cased code until sites update their collectors. What this does is do a more
         // expensive nested query to get span names when the servicespan type returns nothing.
@@ -19,6 +19,8 @@ import com.squareup.moshi.JsonReader;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.ConnectionPool;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
@@ -31,6 +33,8 @@ import zipkin.storage.AsyncSpanStore;
 import zipkin.storage.SpanStore;
 import zipkin.storage.StorageAdapters;
 import zipkin.storage.StorageComponent;
+import zipkin.storage.elasticsearch.http.internal.client.GzipRequestInterceptor;
+import zipkin.storage.elasticsearch.http.internal.client.HostBalancer;
 import zipkin.storage.elasticsearch.http.internal.client.HttpCall;
 
 import static zipkin.internal.Util.checkNotNull;
@@ -54,12 +58,19 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
         .client(client)
         .hosts(Collections.singletonList("http://localhost:9200"))
         .maxRequests(64)
+        .maxRequestsPerHost(0)
+        .loadBalanceHosts(false)
+        .maxIdleConnectionsPerHost(0)
+        .compressRequests(false)
         .strictTraceId(true)
         .index("zipkin")
         .dateSeparator('-')
         .indexShards(5)
         .indexReplicas(1)
         .namesLookback(86400000)
+        .namesRefreshInterval(0)
+        .traceLookback(0)
+        .traceIdRouting(false)
         .shutdownClientOnClose(false)
         .flushOnWrites(false);
   }
@@ -104,6 +115,42 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
     /** Sets maximum in-flight requests from this process to any Elasticsearch host. Defaults to 64 */
     public abstract Builder maxRequests(int maxRequests);
 
+    /**
+     * Sets maximum in-flight requests from this process to a single Elasticsearch host. Further
+     * requests to that host queue. Defaults to 0, which means the same as {@link #maxRequests}.
+     *
+     * <p>This is only useful when {@link #loadBalanceHosts(boolean) load balancing}, as otherwise
+     * requests are addressed to the first host.
+     */
+    public abstract Builder maxRequestsPerHost(int maxRequestsPerHost);
+
+    /**
+     * When true and there are multiple {@link #hosts(List) hosts}, each request is sent to the
+     * host with the least outstanding requests. Hosts that fail with an I/O error or 5xx response,
+     * or which are much slower than the others, are temporarily skipped. Defaults to false.
+     *
+     * <p>Unlike the default behavior, hosts can use different ports or https.
+     */
+    public abstract Builder loadBalanceHosts(boolean loadBalanceHosts);
+
+    /**
+     * Sets the maximum idle connections kept open to each Elasticsearch host. Defaults to 0, which
+     * leaves the connection pool of the {@link OkHttpClient} as-is.
+     *
+     * <p>Raise this to avoid reconnecting when there are many concurrent requests, such as bulk
+     * writes under high load.
+     */
+    public abstract Builder maxIdleConnectionsPerHost(int maxIdleConnectionsPerHost);
+
+    /**
+     * When true, request bodies such as bulk writes and searches are gzip compressed. Defaults to
+     * false.
+     *
+     * <p>Span json typically compresses 8-10x, so this relieves network bandwidth at the cost of
+     * CPU. Elasticsearch only accepts compressed requests when {@code http.compression} is true.
+     */
+    public abstract Builder compressRequests(boolean compressRequests);
+
     /**
      * Only valid when the destination is Elasticsearch 5.x. Indicates the ingest pipeline used
      * before spans are indexed. No default.
@@ -118,6 +165,37 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
      */
     public abstract Builder namesLookback(int namesLookback);
 
+    /**
+     * When positive, service and span names are cached in memory, and reloaded in the background
+     * when older than this interval in milliseconds. Defaults to 0, which disables caching.
+     *
+     * <p>While reloading, the stale names are served, so the UI never waits on Elasticsearch.
+     * Names older than {@link #namesLookback(int) the lookback} are not served stale.
+     */
+    public abstract Builder namesRefreshInterval(int namesRefreshInterval);
+
+    /**
+     * When positive, trace lookups by ID first search indices covering (now - lookback) in
+     * milliseconds, only searching all indices when no spans were found. Defaults to 0, which
+     * always searches all indices.
+     *
+     * <p>This lowers the cost of the common case of looking up a recent trace, as a lookup
+     * otherwise queries every shard of every retained daily index. The tradeoff is that a trace
+     * which straddles the lookback boundary will only return the spans within it.
+     */
+    public abstract Builder traceLookback(int traceLookback);
+
+    /**
+     * When true, span documents are routed by the lower 64-bits of their trace ID, and trace
+     * lookups by ID only query the one shard per index that owns them. Defaults to false.
+     *
+     * <p>Routing is decided at write time, so only enable this on a new {@link #index(String)
+     * index prefix}: lookups against indices written without routing will miss spans.
+     *
+     * <p>See https://www.elastic.co/guide/en/elasticsearch/reference/current/mapping-routing-field.html
+     */
+    public abstract Builder traceIdRouting(boolean traceIdRouting);
+
     /** Visible for testing */
     abstract Builder flushOnWrites(boolean flushOnWrites);
 
@@ -183,6 +261,14 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
 
   abstract int maxRequests();
 
+  abstract int maxRequestsPerHost();
+
+  abstract boolean loadBalanceHosts();
+
+  abstract int maxIdleConnectionsPerHost();
+
+  abstract boolean compressRequests();
+
   abstract boolean strictTraceId();
 
   abstract int indexShards();
@@ -193,6 +279,12 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
 
   abstract int namesLookback();
 
+  abstract int namesRefreshInterval();
+
+  abstract int traceLookback();
+
+  abstract boolean traceIdRouting();
+
   @Override public SpanStore spanStore() {
     return StorageAdapters.asyncToBlocking(asyncSpanStore());
   }
@@ -261,6 +353,16 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
     }
   }
 
+  /** Shared across span store instances, as they are created per call to asyncSpanStore() */
+  @Memoized NamesCache serviceNamesCache() {
+    return new NamesCache(namesRefreshInterval(), namesLookback(), 1);
+  }
+
+  /** Keys are service names. Bounded in case of queries for many different services. */
+  @Memoized NamesCache spanNamesCache() {
+    return new NamesCache(namesRefreshInterval(), namesLookback(), 1000);
+  }
+
   @Memoized // since there's a network call required to get the version
   String indexTemplate() {
     return new VersionSpecificTemplate(this).get(http());
@@ -276,14 +378,26 @@ public abstract class ElasticsearchHttpStorage implements StorageComponent {
   HttpCall.Factory http() {
     List<String> hosts = hostsSupplier().get();
     if (hosts.isEmpty()) throw new IllegalArgumentException("no hosts configured");
-    OkHttpClient ok = hosts.size() == 1
-        ? client()
-        : client().newBuilder()
-            .dns(PseudoAddressRecordSet.create(hosts, client().dns()))
-            .build();
+    boolean balanced = loadBalanceHosts() && hosts.size() > 1;
+    OkHttpClient ok = client();
+    if (hosts.size() > 1 && !balanced || maxIdleConnectionsPerHost() > 0 || compressRequests()) {
+      OkHttpClient.Builder builder = ok.newBuilder();
+      if (hosts.size() > 1 && !balanced) {
+        builder.dns(PseudoAddressRecordSet.create(hosts, ok.dns()));
+      }
+      if (maxIdleConnectionsPerHost() > 0) {
+        // OkHttp's pool isn't partitioned by host, so size it for all hosts
+        builder.connectionPool(new ConnectionPool(
+            maxIdleConnectionsPerHost() * hosts.size(), 5, TimeUnit.MINUTES));
+      }
+      if (compressRequests()) builder.addInterceptor(new GzipRequestInterceptor());
+      ok = builder.build();
+    }
     ok.dispatcher().setMaxRequests(maxRequests());
-    ok.dispatcher().setMaxRequestsPerHost(maxRequests());
-    return new HttpCall.Factory(ok, HttpUrl.parse(hosts.get(0)));
+    ok.dispatcher().setMaxRequestsPerHost(
+        maxRequestsPerHost() > 0 ? maxRequestsPerHost() : maxRequests());
+    HostBalancer balancer = balanced ? HostBalancer.create(hosts) : null;
+    return new HttpCall.Factory(ok, HttpUrl.parse(hosts.get(0)), balancer);
   }
 
   @Override public void close() {
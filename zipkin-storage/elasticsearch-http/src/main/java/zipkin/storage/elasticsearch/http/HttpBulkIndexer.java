@@ -48,17 +48,26 @@ final class HttpBulkIndexer {
   }
 
   void add(String index, String typeName, byte[] document, @Nullable String id) {
-    writeIndexMetadata(index, typeName, id);
+    add(index, typeName, document, id, null);
+  }
+
+  void add(String index, String typeName, byte[] document, @Nullable String id,
+      @Nullable String routing) {
+    writeIndexMetadata(index, typeName, id, routing);
     writeDocument(document);
   }
 
-  void writeIndexMetadata(String index, String typeName, @Nullable String id) {
+  void writeIndexMetadata(String index, String typeName, @Nullable String id,
+      @Nullable String routing) {
     if (flushOnWrites) indices.add(index);
     body.writeUtf8("{\"index\":{\"_index\":\"").writeUtf8(index).writeByte('"');
     body.writeUtf8(",\"_type\":\"").writeUtf8(typeName).writeByte('"');
     if (id != null) {
       body.writeUtf8(",\"_id\":\"").writeUtf8(JsonCodec.escape(id)).writeByte('"');
     }
+    if (routing != null) {
+      body.writeUtf8(",\"_routing\":\"").writeUtf8(JsonCodec.escape(routing)).writeByte('"');
+    }
     body.writeUtf8("}}\n");
   }
 
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import zipkin.internal.Nullable;
+import zipkin.storage.Callback;
+
+/**
+ * Refresh-ahead cache of service or span names, so that UI drop-downs don't wait on the
+ * relatively expensive aggregation queries that load them.
+ *
+ * <p>Once loaded, names are served from memory. When older than the refresh interval, the next
+ * request triggers a reload in the background, but is still served the stale value. Only when
+ * names are absent, or older than the max staleness, do requests wait on the loader.
+ */
+final class NamesCache {
+  interface Loader {
+    void load(Callback<List<String>> callback);
+  }
+
+  final long refreshIntervalMillis;
+  final long maxStaleMillis;
+  final Map<String, Entry> entries; // guarded by this
+
+  NamesCache(long refreshIntervalMillis, long maxStaleMillis, final int maxEntries) {
+    this.refreshIntervalMillis = refreshIntervalMillis;
+    this.maxStaleMillis = maxStaleMillis;
+    // access order, so that names no longer requested are evicted first
+    this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  void get(String key, Loader loader, Callback<List<String>> callback) {
+    long now = System.currentTimeMillis();
+    Entry entry;
+    List<String> value = null;
+    boolean load;
+    synchronized (this) {
+      entry = entries.get(key);
+      if (entry == null) entries.put(key, entry = new Entry());
+      if (entry.value != null && now - entry.loadedAt < maxStaleMillis) {
+        value = entry.value;
+        load = !entry.loading && now - entry.loadedAt >= refreshIntervalMillis;
+      } else {
+        entry.waiters.add(callback);
+        load = !entry.loading;
+      }
+      if (load) entry.loading = true;
+    }
+    if (load) {
+      LoadCallback loadCallback = new LoadCallback(entry);
+      try {
+        loader.load(loadCallback);
+      } catch (RuntimeException | Error e) { // otherwise, waiters would never be called back
+        loadCallback.onError(e);
+      }
+    }
+    if (value != null) callback.onSuccess(value);
+  }
+
+  final class LoadCallback implements Callback<List<String>> {
+    final Entry entry;
+
+    LoadCallback(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override public void onSuccess(@Nullable List<String> value) {
+      List<Callback<List<String>>> waiters;
+      synchronized (NamesCache.this) {
+        if (value != null) {
+          entry.value = value;
+          entry.loadedAt = System.currentTimeMillis();
+        }
+        entry.loading = false;
+        waiters = entry.drainWaiters();
+      }
+      for (Callback<List<String>> waiter : waiters) waiter.onSuccess(value);
+    }
+
+    @Override public void onError(Throwable t) {
+      List<Callback<List<String>>> waiters;
+      synchronized (NamesCache.this) {
+        entry.loading = false; // stale values continue to be served until the max staleness
+        waiters = entry.drainWaiters();
+      }
+      for (Callback<List<String>> waiter : waiters) waiter.onError(t);
+    }
+  }
+
+  static final class Entry {
+    // fields are guarded by the cache
+    List<String> value;
+    long loadedAt;
+    boolean loading;
+    List<Callback<List<String>>> waiters = new ArrayList<>();
+
+    List<Callback<List<String>>> drainWaiters() {
+      List<Callback<List<String>>> result = waiters;
+      waiters = new ArrayList<>();
+      return result;
+    }
+  }
+}
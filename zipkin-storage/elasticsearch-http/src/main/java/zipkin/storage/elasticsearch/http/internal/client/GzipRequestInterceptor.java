@@ -0,0 +1,56 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http.internal.client;
+
+import java.io.IOException;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.Okio;
+
+/**
+ * Compresses request bodies, which is effective as span json is very repetitive. Elasticsearch
+ * only accepts compressed requests when the node setting {@code http.compression} is true.
+ *
+ * <p>This must be an application interceptor, so that network interceptors, such as request
+ * signing, see the compressed body.
+ */
+public final class GzipRequestInterceptor implements Interceptor {
+
+  @Override public Response intercept(Chain chain) throws IOException {
+    Request request = chain.request();
+    RequestBody body = request.body();
+    if (body == null || body.contentLength() == 0 || request.header("Content-Encoding") != null) {
+      return chain.proceed(request);
+    }
+    return chain.proceed(request.newBuilder()
+        .header("Content-Encoding", "gzip")
+        .method(request.method(), gzip(body)).build());
+  }
+
+  /** Compresses eagerly, so that the content length is known, avoiding chunked encoding. */
+  static RequestBody gzip(RequestBody body) throws IOException {
+    Buffer gzipped = new Buffer();
+    try (BufferedSink sink = Okio.buffer(new GzipSink(gzipped))) {
+      body.writeTo(sink);
+    }
+    MediaType contentType = body.contentType();
+    return RequestBody.create(contentType, gzipped.readByteString());
+  }
+}
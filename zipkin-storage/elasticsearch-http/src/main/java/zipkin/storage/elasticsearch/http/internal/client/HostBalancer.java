@@ -0,0 +1,142 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http.internal.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+import static zipkin.internal.Util.checkArgument;
+
+/**
+ * Chooses which Elasticsearch host a request is sent to, as opposed to leaving it to the order of
+ * OkHttp routes. This keeps a slow or failing node from receiving its share of requests.
+ *
+ * <p>Requests go to the host with the least outstanding requests, which naturally steers traffic
+ * away from hosts that respond slowly, for example when they are in a GC pause. Hosts are ejected
+ * for {@link #EJECTION_MILLIS} when a request fails with an I/O error or a 5xx response, or when
+ * their average latency is much higher than the other hosts. When all hosts are ejected, they are
+ * all considered.
+ */
+public final class HostBalancer {
+  /** How long a host is skipped after a failure or being detected as slow */
+  static final long EJECTION_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  /** A host is ejected when its average latency is this many times the average of other hosts. */
+  static final int SLOW_HOST_FACTOR = 3;
+  /** Hosts faster than this are never ejected for latency, as small differences are noise. */
+  static final long SLOW_HOST_MIN_MILLIS = 100;
+  /** Weight of the most recent latency in the moving average. */
+  static final double LATENCY_ALPHA = 0.3;
+
+  public static HostBalancer create(List<String> urls) {
+    checkArgument(urls.size() > 1, "balancing requires multiple hosts %s", urls);
+    List<Host> hosts = new ArrayList<>(urls.size());
+    for (String url : urls) hosts.add(new Host(HttpUrl.parse(url)));
+    return new HostBalancer(hosts);
+  }
+
+  final List<Host> hosts;
+  int next; // guarded by this, rotates the starting point so that ties are spread out
+
+  HostBalancer(List<Host> hosts) {
+    this.hosts = hosts;
+  }
+
+  /** Returns the host with the least outstanding requests, preferring ones not ejected. */
+  synchronized Host select() {
+    long now = System.currentTimeMillis();
+    Host best = null;
+    Host bestEjected = null;
+    for (int i = 0, length = hosts.size(); i < length; i++) {
+      Host host = hosts.get((next + i) % length);
+      if (host.ejectedUntil > now) {
+        if (bestEjected == null || host.outstanding < bestEjected.outstanding) bestEjected = host;
+      } else if (best == null || host.outstanding < best.outstanding) {
+        best = host;
+      }
+    }
+    next = (next + 1) % hosts.size();
+    if (best == null) best = bestEjected;
+    best.outstanding++;
+    return best;
+  }
+
+  synchronized void onFailure(Host host) {
+    host.outstanding--;
+    eject(host);
+  }
+
+  synchronized void onResponse(Host host, int code, long latencyMillis) {
+    host.outstanding--;
+    if (code >= 500) {
+      eject(host);
+      return;
+    }
+    host.latencyMillis = host.latencyMillis < 0
+        ? latencyMillis
+        : LATENCY_ALPHA * latencyMillis + (1 - LATENCY_ALPHA) * host.latencyMillis;
+    if (host.latencyMillis < SLOW_HOST_MIN_MILLIS) return;
+
+    double othersTotal = 0;
+    int othersCount = 0;
+    for (Host other : hosts) {
+      if (other == host || other.latencyMillis < 0) continue;
+      othersTotal += other.latencyMillis;
+      othersCount++;
+    }
+    if (othersCount > 0 && host.latencyMillis > SLOW_HOST_FACTOR * othersTotal / othersCount) {
+      eject(host);
+    }
+  }
+
+  void eject(Host host) {
+    host.ejectedUntil = System.currentTimeMillis() + EJECTION_MILLIS;
+    host.latencyMillis = -1; // relearn latency when the host comes back
+  }
+
+  @Override public synchronized String toString() {
+    return "HostBalancer" + hosts;
+  }
+
+  static final class Host {
+    final HttpUrl url;
+    // fields below are guarded by the balancer
+    int outstanding;
+    double latencyMillis = -1; // moving average, or -1 if unknown
+    long ejectedUntil;
+
+    Host(HttpUrl url) {
+      this.url = url;
+    }
+
+    /** Sends the request to this host, if it was addressed to the base url */
+    Request rewrite(Request request, HttpUrl baseUrl) {
+      HttpUrl requestUrl = request.url();
+      if (!requestUrl.host().equals(baseUrl.host()) || requestUrl.port() != baseUrl.port()) {
+        return request;
+      }
+      return request.newBuilder().url(requestUrl.newBuilder()
+          .scheme(url.scheme())
+          .host(url.host())
+          .port(url.port()).build()).build();
+    }
+
+    @Override public String toString() {
+      return "Host{url=" + url + ", outstanding=" + outstanding + ", latencyMillis="
+          + latencyMillis + ", ejectedUntil=" + ejectedUntil + "}";
+    }
+  }
+}
@@ -26,6 +26,7 @@ import okio.BufferedSource;
 import okio.GzipSource;
 import okio.Okio;
 import zipkin.internal.CallbackCaptor;
+import zipkin.internal.Nullable;
 import zipkin.storage.Callback;
 
 import static zipkin.internal.Util.propagateIfFatal;
@@ -39,10 +40,17 @@ public final class HttpCall<V> {
   public static class Factory implements Closeable {
     final OkHttpClient ok;
     public final HttpUrl baseUrl;
+    @Nullable final HostBalancer balancer;
 
     public Factory(OkHttpClient ok, HttpUrl baseUrl) {
+      this(ok, baseUrl, null);
+    }
+
+    /** When a balancer is present, requests addressed to the base url are balanced across hosts */
+    public Factory(OkHttpClient ok, HttpUrl baseUrl, @Nullable HostBalancer balancer) {
       this.ok = ok;
       this.baseUrl = baseUrl;
+      this.balancer = balancer;
     }
 
     public <V> HttpCall<V> newCall(Request request, BodyConverter<V> bodyConverter) {
@@ -61,34 +69,54 @@ public final class HttpCall<V> {
   }
 
   final Call.Factory ok;
+  final HttpUrl baseUrl;
+  @Nullable final HostBalancer balancer;
   final Request request;
   final BodyConverter<V> bodyConverter;
 
   HttpCall(Factory factory, Request request, BodyConverter<V> bodyConverter) {
     this.ok = factory.ok;
+    this.baseUrl = factory.baseUrl;
+    this.balancer = factory.balancer;
     this.request = request;
     this.bodyConverter = bodyConverter;
   }
 
   public void submit(Callback<V> delegate) {
-    ok.newCall(request).enqueue(new CallbackAdapter<>(bodyConverter, delegate));
+    if (balancer == null) {
+      ok.newCall(request).enqueue(new CallbackAdapter<>(bodyConverter, delegate, null, null));
+      return;
+    }
+    HostBalancer.Host host = balancer.select();
+    ok.newCall(host.rewrite(request, baseUrl))
+        .enqueue(new CallbackAdapter<>(bodyConverter, delegate, balancer, host));
   }
 
   static class CallbackAdapter<V> implements okhttp3.Callback {
     final BodyConverter<V> bodyConverter;
     final Callback<V> delegate;
+    @Nullable final HostBalancer balancer;
+    @Nullable final HostBalancer.Host host;
 
-    CallbackAdapter(BodyConverter<V> bodyConverter, Callback<V> delegate) {
+    CallbackAdapter(BodyConverter<V> bodyConverter, Callback<V> delegate,
+        @Nullable HostBalancer balancer, @Nullable HostBalancer.Host host) {
       this.bodyConverter = bodyConverter;
       this.delegate = delegate;
+      this.balancer = balancer;
+      this.host = host;
     }
 
     @Override public void onFailure(Call call, IOException e) {
+      if (balancer != null) balancer.onFailure(host);
       delegate.onError(e);
     }
 
     /** Note: this runs on the {@link okhttp3.OkHttpClient#dispatcher() dispatcher} thread! */
     @Override public void onResponse(Call call, Response response) {
+      if (balancer != null) {
+        long latencyMillis = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+        balancer.onResponse(host, response.code(), latencyMillis);
+      }
       if (!HttpHeaders.hasBody(response)) {
         if (response.isSuccessful()) {
           delegate.onSuccess(null);
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http.internal.client;
+
+import java.util.Collections;
+import java.util.List;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import zipkin.internal.JsonCodec;
+import zipkin.internal.Nullable;
+import zipkin.storage.Callback;
+import zipkin.storage.elasticsearch.http.internal.client.SearchResultConverter.Page;
+
+import static zipkin.storage.elasticsearch.http.internal.client.SearchCallFactory.APPLICATION_JSON;
+
+/**
+ * Reads all hits of a search, even when they exceed {@link SearchRequest#MAX_RESULT_WINDOW}.
+ *
+ * <p>The search is first executed normally, as most results fit in one response. Only when
+ * "hits.total" says the response was truncated is the search re-executed as a scroll, reading
+ * pages until all hits are read. Scroll is used instead of search_after as it works in both 2.x
+ * and 5.x.
+ *
+ * <p>See https://www.elastic.co/guide/en/elasticsearch/reference/current/search-request-scroll.html
+ */
+public final class PagingSearchCall<T> {
+  /** How long Elasticsearch should keep the search context alive between pages */
+  static final String SCROLL_KEEP_ALIVE = "1m";
+
+  final SearchCallFactory factory;
+  final SearchRequest request;
+  final SearchResultConverter<T> converter;
+
+  PagingSearchCall(SearchCallFactory factory, SearchRequest request,
+      SearchResultConverter<T> converter) {
+    this.factory = factory;
+    this.request = request;
+    this.converter = converter;
+  }
+
+  public void submit(Callback<List<T>> callback) {
+    Page<T> page = new Page<>();
+    factory.http.newCall(factory.httpRequest(request, null), readInto(page))
+        .submit(new Callback<Integer>() {
+          @Override public void onSuccess(@Nullable Integer hitCount) {
+            if (!page.truncated()) {
+              callback.onSuccess(converter.result(page));
+              return;
+            }
+            // Scrolling in document order is the cheapest way to read all results
+            request.sort = Collections.singletonList("_doc");
+            Page<T> scroll = new Page<>();
+            factory.http.newCall(factory.httpRequest(request, SCROLL_KEEP_ALIVE), readInto(scroll))
+                .submit(new ScrollCallback(scroll, callback));
+          }
+
+          @Override public void onError(Throwable t) {
+            callback.onError(t);
+          }
+        });
+  }
+
+  /** Reads each page until all hits are read, then clears the scroll. */
+  final class ScrollCallback implements Callback<Integer> {
+    final Page<T> page;
+    final Callback<List<T>> delegate;
+
+    ScrollCallback(Page<T> page, Callback<List<T>> delegate) {
+      this.page = page;
+      this.delegate = delegate;
+    }
+
+    @Override public void onSuccess(@Nullable Integer hitCount) {
+      if (hitCount == null || hitCount == 0 || page.scrollId == null || !page.truncated()) {
+        clearScroll(page.scrollId);
+        delegate.onSuccess(converter.result(page));
+        return;
+      }
+      Request nextPage = new Request.Builder()
+          .url(factory.http.baseUrl.newBuilder().addPathSegment("_search").addPathSegment("scroll")
+              .build())
+          .post(RequestBody.create(APPLICATION_JSON, "{\"scroll\":\"" + SCROLL_KEEP_ALIVE
+              + "\",\"scroll_id\":\"" + JsonCodec.escape(page.scrollId) + "\"}"))
+          .header("Accept-Encoding", "gzip")
+          .tag("scroll").build();
+      factory.http.newCall(nextPage, readInto(page)).submit(this);
+    }
+
+    @Override public void onError(Throwable t) {
+      clearScroll(page.scrollId);
+      delegate.onError(t);
+    }
+  }
+
+  /** Returns the count of hits read from the response */
+  HttpCall.BodyConverter<Integer> readInto(Page<T> page) {
+    return content -> {
+      int before = page.hits.size();
+      converter.readPage(content, page);
+      return page.hits.size() - before;
+    };
+  }
+
+  /** Frees the search context early, as opposed to waiting for the keep-alive to expire. */
+  void clearScroll(@Nullable String scrollId) {
+    if (scrollId == null) return;
+    Request clear = new Request.Builder()
+        .url(factory.http.baseUrl.newBuilder().addPathSegment("_search").addPathSegment("scroll")
+            .build())
+        .delete(RequestBody.create(APPLICATION_JSON,
+            "{\"scroll_id\":[\"" + JsonCodec.escape(scrollId) + "\"]}"))
+        .tag("clear-scroll").build();
+    factory.http.newCall(clear, b -> null).submit(new Callback<Object>() {
+      @Override public void onSuccess(@Nullable Object value) {
+      }
+
+      @Override public void onError(Throwable t) {
+        // best efforts: the search context expires after the keep-alive regardless
+      }
+    });
+  }
+}
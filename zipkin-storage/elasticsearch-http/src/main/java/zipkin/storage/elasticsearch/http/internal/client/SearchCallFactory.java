@@ -20,6 +20,7 @@ import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import zipkin.internal.Nullable;
 
 public class SearchCallFactory {
   static final MediaType APPLICATION_JSON = MediaType.parse("application/json");
@@ -33,11 +34,31 @@ public class SearchCallFactory {
   }
 
   public <V> HttpCall<V> newCall(SearchRequest request, HttpCall.BodyConverter<V> bodyConverter) {
-    Request httpRequest = new Request.Builder().url(lenientSearch(request.indices, request.type))
+    return http.newCall(httpRequest(request, null), bodyConverter);
+  }
+
+  /**
+   * Like {@link #newCall}, except all hits are read, even when they exceed the result window. Use
+   * this for queries where a truncated result would be incorrect, such as reading spans in a trace.
+   */
+  public <T> PagingSearchCall<T> newPagingCall(SearchRequest request,
+      SearchResultConverter<T> converter) {
+    return new PagingSearchCall<>(this, request, converter);
+  }
+
+  Request httpRequest(SearchRequest request, @Nullable String scroll) {
+    HttpUrl url = lenientSearch(request.indices, request.type);
+    if (request.routing != null || scroll != null) {
+      HttpUrl.Builder builder = url.newBuilder();
+      // keep these in alphabetical order as it simplifies amazon signatures!
+      if (request.routing != null) builder.addQueryParameter("routing", request.routing);
+      if (scroll != null) builder.addQueryParameter("scroll", scroll);
+      url = builder.build();
+    }
+    return new Request.Builder().url(url)
         .post(RequestBody.create(APPLICATION_JSON, searchRequest.toJson(request)))
         .header("Accept-Encoding", "gzip")
         .tag(request.tag()).build();
-    return http.newCall(httpRequest, bodyConverter);
   }
 
   /** Matches the behavior of {@code IndicesOptions#lenientExpandOpen()} */
@@ -33,11 +33,13 @@ public final class SearchRequest {
 
   transient final List<String> indices;
   transient final String type;
+  transient String routing;
 
   Integer size = MAX_RESULT_WINDOW;
   Boolean _source;
   Object query;
   Map<String, Aggregation> aggs;
+  List<String> sort;
 
   SearchRequest(List<String> indices, String type) {
     this.indices = indices;
@@ -108,6 +110,15 @@ public final class SearchRequest {
     return query(new Terms(field, values));
   }
 
+  /**
+   * Limits the search to the shards owning the given routing values. Multiple values are comma
+   * separated.
+   */
+  public SearchRequest routing(String routing) {
+    this.routing = routing;
+    return this;
+  }
+
   public SearchRequest addAggregation(Aggregation agg) {
     size = null; // we return aggs, not source data
     _source = false;
@@ -15,14 +15,13 @@ package zipkin.storage.elasticsearch.http.internal.client;
 
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import okio.BufferedSource;
 
-import static zipkin.moshi.JsonReaders.enterPath;
-
 public class SearchResultConverter<T> implements HttpCall.BodyConverter<List<T>> {
   final JsonAdapter<T> adapter;
   final List<T> defaultValue;
@@ -46,19 +45,83 @@ public class SearchResultConverter<T> implements HttpCall.BodyConverter<List<T>>
   }
 
   @Override public List<T> convert(BufferedSource content) throws IOException {
-    JsonReader hits = enterPath(JsonReader.of(content), "hits", "hits");
-    if (hits == null || hits.peek() != JsonReader.Token.BEGIN_ARRAY) return defaultValue;
+    Page<T> page = new Page<>();
+    readPage(content, page);
+    return result(page);
+  }
+
+  /** Returns the hits, or the default value if there were none. */
+  List<T> result(Page<T> page) {
+    return page.hits.isEmpty() ? defaultValue : page.hits;
+  }
+
+  /**
+   * Decodes the "_source" of each hit directly from the response into the page. This also reads
+   * "hits.total" and "_scroll_id", used to tell if more hits need to be read.
+   */
+  void readPage(BufferedSource content, Page<T> page) throws IOException {
+    JsonReader reader = JsonReader.of(content);
+    try {
+      if (reader.peek() != JsonReader.Token.BEGIN_OBJECT) return;
+    } catch (EOFException e) {
+      return;
+    }
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("_scroll_id") && reader.peek() == JsonReader.Token.STRING) {
+        page.scrollId = reader.nextString();
+      } else if (name.equals("hits") && reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+        readHits(reader, page);
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
 
-    List<T> result = new ArrayList<>();
-    hits.beginArray();
-    while (hits.hasNext()) {
-      JsonReader source = enterPath(hits, "_source");
-      if (source != null) {
-        result.add(adapter.fromJson(source));
+  void readHits(JsonReader reader, Page<T> page) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String name = reader.nextName();
+      if (name.equals("total") && reader.peek() == JsonReader.Token.NUMBER) {
+        page.total = reader.nextLong();
+      } else if (name.equals("hits") && reader.peek() == JsonReader.Token.BEGIN_ARRAY) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          readHit(reader, page.hits);
+        }
+        reader.endArray();
+      } else {
+        reader.skipValue();
       }
-      hits.endObject();
     }
-    hits.endArray();
-    return result.isEmpty() ? defaultValue : result;
+    reader.endObject();
+  }
+
+  void readHit(JsonReader reader, List<T> hits) throws IOException {
+    reader.beginObject();
+    while (reader.hasNext()) {
+      // skip metadata like _index and sort, which can appear before or after the source
+      if (reader.nextName().equals("_source") && reader.peek() != JsonReader.Token.NULL) {
+        hits.add(adapter.fromJson(reader));
+      } else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  /** Hits read so far, which may be more than one response when scrolling. */
+  static final class Page<T> {
+    final List<T> hits = new ArrayList<>();
+    /** The count of hits that match the query, or -1 if unknown */
+    long total = -1;
+    String scrollId;
+
+    /** Returns true if the search matched more hits than read so far */
+    boolean truncated() {
+      return total > hits.size();
+    }
   }
 }
@@ -18,6 +18,8 @@ import java.util.concurrent.TimeUnit;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import okio.GzipSource;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -266,6 +268,49 @@ public class ElasticsearchHttpSpanConsumerTest {
         .isEqualTo("/_bulk?pipeline=zipkin");
   }
 
+  @Test
+  public void addsTraceIdRouting() throws Exception {
+    close();
+
+    storage = ElasticsearchHttpStorage.builder()
+        .hosts(asList(es.url("").toString()))
+        .traceIdRouting(true)
+        .build();
+    ensureIndexTemplate();
+
+    es.enqueue(new MockResponse());
+
+    Span span = Span.builder().traceIdHigh(1L).traceId(2L).id(2L).name("s").build();
+    accept(span);
+
+    // routing ignores the high bits, so that 64-bit lookups find 128-bit spans
+    assertThat(es.takeRequest().getBody().readByteString().utf8())
+        .contains("\"_type\":\"span\",\"_routing\":\"0000000000000002\"}}\n");
+  }
+
+  @Test
+  public void compressRequests() throws Exception {
+    close();
+
+    storage = ElasticsearchHttpStorage.builder()
+        .hosts(asList(es.url("").toString()))
+        .compressRequests(true)
+        .build();
+    ensureIndexTemplate();
+
+    es.enqueue(new MockResponse());
+
+    accept(TestObjects.TRACE.get(0));
+
+    RecordedRequest request = es.takeRequest();
+    assertThat(request.getHeader("Content-Encoding"))
+        .isEqualTo("gzip");
+    Buffer body = new Buffer();
+    body.writeAll(new GzipSource(request.getBody()));
+    assertThat(body.readUtf8())
+        .contains("\"_type\":\"servicespan\",\"_id\":\"web|get\"}}\n");
+  }
+
   void accept(Span ... spans) throws Exception {
     CallbackCaptor<Void> callback = new CallbackCaptor<>();
     storage.asyncSpanConsumer().accept(asList(spans), callback);
@@ -28,6 +28,7 @@ import zipkin.internal.Util;
 import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static zipkin.storage.elasticsearch.http.ElasticsearchHttpSpanStore.SERVICE_SPAN;
+import static zipkin.storage.elasticsearch.http.ElasticsearchHttpSpanStore.SPAN;
 import static zipkin.storage.elasticsearch.http.TestResponses.SERVICE_NAMES;
 import static zipkin.storage.elasticsearch.http.TestResponses.SPAN_NAMES;
 
@@ -72,7 +73,61 @@ public class ElasticsearchHttpSpanStoreTest {
     requestLimitedTo2DaysOfIndices();
   }
 
+  @Test
+  public void getRawTrace_searchesAllIndicesByDefault() throws Exception {
+    es.enqueue(new MockResponse());
+    storage.spanStore().getRawTrace(0L, 1L);
+
+    assertThat(es.takeRequest().getPath())
+        .startsWith("/zipkin-*/span/_search");
+  }
+
+  @Test
+  public void getRawTrace_traceLookback_searchesAllIndicesOnMiss() throws Exception {
+    close();
+    storage = ElasticsearchHttpStorage.builder()
+        .hosts(asList(es.url("").toString()))
+        .traceLookback(86400000)
+        .build();
+    getIndexTemplate();
+
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"hits\":[]}}"));
+    es.enqueue(new MockResponse());
+    storage.spanStore().getRawTrace(0L, 1L);
+
+    requestLimitedTo2DaysOfIndices(SPAN);
+    assertThat(es.takeRequest().getPath())
+        .startsWith("/zipkin-*/span/_search");
+  }
+
+  @Test
+  public void getRawTrace_traceIdRouting() throws Exception {
+    close();
+    storage = ElasticsearchHttpStorage.builder()
+        .hosts(asList(es.url("").toString()))
+        .traceIdRouting(true)
+        .build();
+    getIndexTemplate();
+
+    es.enqueue(new MockResponse());
+    storage.spanStore().getRawTrace(1L, 2L);
+
+    assertThat(es.takeRequest().getPath())
+        .endsWith("&routing=0000000000000002");
+  }
+
+  @Test
+  public void joinRoutingKeys_usesLower64Bits() {
+    assertThat(ElasticsearchHttpSpanStore.joinRoutingKeys(
+        asList("48485a3953bb61246b221d5bc9e6496c", "0000000000000002")))
+        .isEqualTo("6b221d5bc9e6496c,0000000000000002");
+  }
+
   private void requestLimitedTo2DaysOfIndices() throws InterruptedException {
+    requestLimitedTo2DaysOfIndices(SERVICE_SPAN);
+  }
+
+  private void requestLimitedTo2DaysOfIndices(String type) throws InterruptedException {
     long today = Util.midnightUTC(System.currentTimeMillis());
     long yesterday = today - TimeUnit.DAYS.toMillis(1);
 
@@ -84,6 +139,6 @@ public class ElasticsearchHttpSpanStoreTest {
 
     RecordedRequest request = es.takeRequest();
     assertThat(request.getPath())
-        .startsWith("/" + indexesToSearch + "/" + SERVICE_SPAN + "/_search");
+        .startsWith("/" + indexesToSearch + "/" + type + "/_search");
   }
 }
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import zipkin.internal.CallbackCaptor;
+import zipkin.storage.Callback;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class NamesCacheTest {
+  List<Callback<List<String>>> loads = new ArrayList<>();
+  NamesCache.Loader loader = loads::add;
+
+  @Test
+  public void waitsOnFirstLoad() {
+    NamesCache cache = new NamesCache(1000L, 10000L, 10);
+
+    CallbackCaptor<List<String>> callback = new CallbackCaptor<>();
+    cache.get("", loader, callback);
+    loads.get(0).onSuccess(asList("foo"));
+
+    assertThat(callback.get())
+        .containsExactly("foo");
+  }
+
+  @Test
+  public void sharesLoadBetweenWaiters() {
+    NamesCache cache = new NamesCache(1000L, 10000L, 10);
+
+    CallbackCaptor<List<String>> callback1 = new CallbackCaptor<>();
+    CallbackCaptor<List<String>> callback2 = new CallbackCaptor<>();
+    cache.get("", loader, callback1);
+    cache.get("", loader, callback2);
+    assertThat(loads).hasSize(1);
+    loads.get(0).onSuccess(asList("foo"));
+
+    assertThat(callback1.get())
+        .isSameAs(callback2.get());
+  }
+
+  @Test
+  public void servesCachedValue() {
+    NamesCache cache = new NamesCache(1000L, 10000L, 10);
+    cache.get("", loader, new CallbackCaptor<>());
+    loads.get(0).onSuccess(asList("foo"));
+
+    CallbackCaptor<List<String>> callback = new CallbackCaptor<>();
+    cache.get("", loader, callback);
+
+    assertThat(callback.get())
+        .containsExactly("foo");
+    assertThat(loads).hasSize(1);
+  }
+
+  @Test
+  public void servesStaleValueWhileRefreshing() {
+    NamesCache cache = new NamesCache(0L, 10000L, 10);
+    cache.get("", loader, new CallbackCaptor<>());
+    loads.get(0).onSuccess(asList("foo"));
+
+    CallbackCaptor<List<String>> callback = new CallbackCaptor<>();
+    cache.get("", loader, callback);
+
+    assertThat(callback.get())
+        .containsExactly("foo");
+    assertThat(loads).hasSize(2); // refresh started
+
+    cache.get("", loader, new CallbackCaptor<>());
+    assertThat(loads).hasSize(2); // doesn't start overlapping refreshes
+
+    loads.get(1).onSuccess(asList("bar"));
+    callback = new CallbackCaptor<>();
+    cache.get("", loader, callback);
+    assertThat(callback.get())
+        .containsExactly("bar");
+  }
+
+  @Test
+  public void waitsWhenTooStale() {
+    NamesCache cache = new NamesCache(0L, 0L, 10);
+    cache.get("", loader, new CallbackCaptor<>());
+    loads.get(0).onSuccess(asList("foo"));
+
+    CallbackCaptor<List<String>> callback = new CallbackCaptor<>();
+    cache.get("", loader, callback);
+    loads.get(1).onSuccess(asList("bar"));
+
+    assertThat(callback.get())
+        .containsExactly("bar");
+  }
+
+  @Test
+  public void propagatesErrorToWaiters() {
+    NamesCache cache = new NamesCache(1000L, 10000L, 10);
+
+    CallbackCaptor<List<String>> callback = new CallbackCaptor<>();
+    cache.get("", loader, callback);
+    loads.get(0).onError(new IllegalStateException("eeek"));
+
+    try {
+      callback.get();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException expected) {
+    }
+
+    // the next request retries the load
+    cache.get("", loader, new CallbackCaptor<>());
+    assertThat(loads).hasSize(2);
+  }
+
+  @Test
+  public void propagatesLoaderExceptionToWaiters() {
+    NamesCache cache = new NamesCache(1000L, 10000L, 10);
+    NamesCache.Loader throwing = callback -> {
+      throw new IllegalStateException("eeek");
+    };
+
+    CallbackCaptor<List<String>> callback = new CallbackCaptor<>();
+    cache.get("", throwing, callback);
+
+    try {
+      callback.get();
+      failBecauseExceptionWasNotThrown(IllegalStateException.class);
+    } catch (IllegalStateException expected) {
+    }
+
+    // the entry isn't left loading, so the next request retries the load
+    cache.get("", loader, new CallbackCaptor<>());
+    assertThat(loads).hasSize(1);
+  }
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    NamesCache cache = new NamesCache(1000L, 10000L, 1);
+    cache.get("a", loader, new CallbackCaptor<>());
+    cache.get("b", loader, new CallbackCaptor<>());
+
+    assertThat(cache.entries)
+        .containsOnlyKeys("b");
+  }
+}
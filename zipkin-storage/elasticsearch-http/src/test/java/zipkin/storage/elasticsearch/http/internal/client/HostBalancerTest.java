@@ -0,0 +1,109 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http.internal.client;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HostBalancerTest {
+  HostBalancer balancer =
+      HostBalancer.create(asList("http://host1:9200", "http://host2:9200", "http://host3:9200"));
+  HostBalancer.Host host1 = balancer.hosts.get(0);
+  HostBalancer.Host host2 = balancer.hosts.get(1);
+  HostBalancer.Host host3 = balancer.hosts.get(2);
+
+  @Test
+  public void selectsLeastOutstanding() {
+    assertThat(asList(balancer.select(), balancer.select(), balancer.select()))
+        .containsOnly(host1, host2, host3);
+
+    balancer.onResponse(host2, 200, 1L);
+
+    assertThat(balancer.select())
+        .isSameAs(host2);
+  }
+
+  @Test
+  public void skipsHostAfterFailure() {
+    balancer.select();
+    balancer.onFailure(host1);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(balancer.select()).isNotSameAs(host1);
+    }
+  }
+
+  @Test
+  public void skipsHostAfterServerError() {
+    balancer.select();
+    balancer.onResponse(host1, 503, 1L);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(balancer.select()).isNotSameAs(host1);
+    }
+  }
+
+  @Test
+  public void skipsSlowHost() {
+    balancer.onResponse(host1, 200, 10L);
+    balancer.onResponse(host2, 200, 10L);
+    balancer.onResponse(host3, 200, 1000L);
+
+    for (int i = 0; i < 10; i++) {
+      assertThat(balancer.select()).isNotSameAs(host3);
+    }
+  }
+
+  @Test
+  public void doesntSkipSlowHost_underMinimum() {
+    balancer.onResponse(host1, 200, 1L);
+    balancer.onResponse(host2, 200, 1L);
+    balancer.onResponse(host3, 200, HostBalancer.SLOW_HOST_MIN_MILLIS - 1);
+
+    assertThat(host3.ejectedUntil)
+        .isZero();
+  }
+
+  @Test
+  public void considersEjectedHostsWhenAllAreEjected() {
+    balancer.eject(host1);
+    balancer.eject(host2);
+    balancer.eject(host3);
+
+    assertThat(balancer.select())
+        .isNotNull();
+  }
+
+  @Test
+  public void rewritesRequestsToBaseUrl() {
+    HttpUrl baseUrl = HttpUrl.parse("http://host1:9200");
+    Request request = new Request.Builder().url(baseUrl.resolve("/_bulk?pipeline=zipkin")).build();
+
+    assertThat(host2.rewrite(request, baseUrl).url())
+        .hasToString("http://host2:9200/_bulk?pipeline=zipkin");
+  }
+
+  @Test
+  public void doesntRewriteRequestsToOtherUrls() {
+    HttpUrl baseUrl = HttpUrl.parse("http://host1:9200");
+    Request request = new Request.Builder().url("http://other:9200/_bulk").build();
+
+    assertThat(host2.rewrite(request, baseUrl))
+        .isSameAs(request);
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.elasticsearch.http.internal.client;
+
+import com.squareup.moshi.JsonAdapter;
+import com.squareup.moshi.Moshi;
+import java.io.IOException;
+import java.util.List;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin.internal.CallbackCaptor;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PagingSearchCallTest {
+  @Rule
+  public MockWebServer es = new MockWebServer();
+
+  static class Doc {
+    String id;
+  }
+
+  static final JsonAdapter<Doc> DOC_ADAPTER = new Moshi.Builder().build().adapter(Doc.class);
+
+  SearchCallFactory client =
+      new SearchCallFactory(new HttpCall.Factory(new OkHttpClient(), es.url("")));
+  SearchRequest request = SearchRequest.forIndicesAndType(asList("zipkin-2016-10-01"), "span")
+      .term("traceId", "000000000000000a");
+
+  @After
+  public void close() throws IOException {
+    client.http.ok.dispatcher().executorService().shutdownNow();
+  }
+
+  @Test
+  public void singleRequestWhenNotTruncated() throws Exception {
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"total\":2,"
+        + "\"hits\":[{\"_source\":{\"id\":\"a\"}},{\"_source\":{\"id\":\"b\"}}]}}"));
+
+    assertThat(ids(submit()))
+        .containsExactly("a", "b");
+    assertThat(es.getRequestCount())
+        .isEqualTo(1);
+  }
+
+  @Test
+  public void scrollsWhenTruncated() throws Exception {
+    es.enqueue(new MockResponse().setBody(
+        "{\"hits\":{\"total\":3,\"hits\":[{\"_source\":{\"id\":\"a\"}}]}}"));
+    es.enqueue(new MockResponse().setBody("{\"_scroll_id\":\"s1\",\"hits\":{\"total\":3,"
+        + "\"hits\":[{\"_source\":{\"id\":\"a\"}},{\"_source\":{\"id\":\"b\"}}]}}"));
+    es.enqueue(new MockResponse().setBody("{\"_scroll_id\":\"s1\",\"hits\":{\"total\":3,"
+        + "\"hits\":[{\"_source\":{\"id\":\"c\"}}]}}"));
+    es.enqueue(new MockResponse()); // clear scroll
+
+    assertThat(ids(submit()))
+        .containsExactly("a", "b", "c");
+
+    es.takeRequest(); // initial search
+    RecordedRequest scroll = es.takeRequest();
+    assertThat(scroll.getPath())
+        .endsWith("&scroll=1m");
+    assertThat(scroll.getBody().readUtf8())
+        .contains("\"sort\":[\"_doc\"]");
+    RecordedRequest nextPage = es.takeRequest();
+    assertThat(nextPage.getPath())
+        .isEqualTo("/_search/scroll");
+    assertThat(nextPage.getBody().readUtf8())
+        .isEqualTo("{\"scroll\":\"1m\",\"scroll_id\":\"s1\"}");
+    RecordedRequest clear = es.takeRequest();
+    assertThat(clear.getMethod())
+        .isEqualTo("DELETE");
+    assertThat(clear.getBody().readUtf8())
+        .isEqualTo("{\"scroll_id\":[\"s1\"]}");
+  }
+
+  @Test
+  public void ignoresHitFieldsAfterSource() throws Exception {
+    es.enqueue(new MockResponse().setBody("{\"hits\":{\"total\":1,\"hits\":["
+        + "{\"_index\":\"zipkin-2016-10-01\",\"_source\":{\"id\":\"a\"},\"sort\":[1]}]}}"));
+
+    assertThat(ids(submit()))
+        .containsExactly("a");
+  }
+
+  List<Doc> submit() {
+    CallbackCaptor<List<Doc>> callback = new CallbackCaptor<>();
+    client.newPagingCall(request, SearchResultConverter.create(DOC_ADAPTER)).submit(callback);
+    return callback.get();
+  }
+
+  static String[] ids(List<Doc> docs) {
+    String[] result = new String[docs.size()];
+    for (int i = 0; i < result.length; i++) result[i] = docs.get(i).id;
+    return result;
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+
+import static java.util.Arrays.asList;
+import static zipkin.internal.Util.midnightUTC;
+
+/**
+ * Adds and drops daily partitions of zipkin_spans and zipkin_annotations, as set up by
+ * mysql-partitioned.sql. Dropping a partition is much cheaper than deleting its rows, and leaves no
+ * fragmentation behind.
+ *
+ * <p>Each table starts with a catch-all partition named "p_max". Partitions for today and the next
+ * {@link #DAYS_AHEAD} days are split off it, named like "p20170125" and holding timestamps before
+ * the next midnight UTC. Partitions whose timestamps all precede the retention period are dropped.
+ */
+final class DailyPartitions implements Closeable {
+  static final Logger LOG = Logger.getLogger(DailyPartitions.class.getName());
+  static final List<String> TABLES = asList("zipkin_spans", "zipkin_annotations");
+  static final String MAX_PARTITION = "p_max";
+  static final int DAYS_AHEAD = 2;
+  static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+  static final long INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  final DataSource datasource;
+  final DSLContexts context;
+  final int retentionDays;
+  final Thread thread;
+  volatile boolean closed;
+
+  /** Starts a thread that maintains partitions now, and hourly after that. */
+  DailyPartitions(DataSource datasource, DSLContexts context, int retentionDays) {
+    this.datasource = datasource;
+    this.context = context;
+    this.retentionDays = retentionDays;
+    thread = new Thread(this::run, "ZipkinMySQLPartitions");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void run() {
+    while (!closed) {
+      try (Connection conn = datasource.getConnection()) {
+        maintain(context.get(conn), System.currentTimeMillis());
+      } catch (SQLException | RuntimeException e) {
+        LOG.log(Level.WARNING, "problem maintaining partitions", e);
+      }
+      try {
+        Thread.sleep(INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  void maintain(DSLContext create, long now) {
+    for (String table : TABLES) {
+      Map<String, Long> partitions = partitions(create, table);
+      for (Map.Entry<String, Long> add : toAdd(partitions, now).entrySet()) {
+        create.execute("ALTER TABLE " + table + " REORGANIZE PARTITION " + MAX_PARTITION + " INTO ("
+            + "PARTITION " + add.getKey() + " VALUES LESS THAN (" + add.getValue() + "), "
+            + "PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE)");
+      }
+      List<String> drop = toDrop(partitions, now, retentionDays);
+      if (!drop.isEmpty()) {
+        LOG.info("dropping partitions " + drop + " of " + table);
+        create.execute("ALTER TABLE " + table + " DROP PARTITION " + String.join(", ", drop));
+      }
+    }
+  }
+
+  /** Returns the upper bounds in epoch microseconds of the table's daily partitions, by name */
+  static Map<String, Long> partitions(DSLContext create, String table) {
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (Record r : create.fetch("SELECT partition_name, partition_description"
+        + " FROM information_schema.partitions"
+        + " WHERE table_schema = database() AND table_name = ? AND partition_name IS NOT NULL"
+        + " ORDER BY partition_ordinal_position", table)) {
+      String name = r.get(0, String.class);
+      if (name.equals(MAX_PARTITION)) continue;
+      result.put(name, Long.parseLong(r.get(1, String.class)));
+    }
+    return result;
+  }
+
+  /** Returns partitions to add after the existing ones, so that the next days have one. */
+  static Map<String, Long> toAdd(Map<String, Long> partitions, long now) {
+    long last = Long.MIN_VALUE;
+    for (long lessThan : partitions.values()) last = Math.max(last, lessThan);
+
+    Map<String, Long> result = new LinkedHashMap<>();
+    long today = midnightUTC(now);
+    for (int i = 0; i <= DAYS_AHEAD; i++) {
+      long day = today + i * DAY_MILLIS;
+      long lessThan = (day + DAY_MILLIS) * 1000; // like start_ts, in microseconds
+      if (lessThan > last) result.put(partitionName(day), lessThan);
+    }
+    return result;
+  }
+
+  /** Returns partitions whose timestamps all precede the last retentionDays, including today. */
+  static List<String> toDrop(Map<String, Long> partitions, long now, int retentionDays) {
+    long oldest = (midnightUTC(now) - (retentionDays - 1) * DAY_MILLIS) * 1000;
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<String, Long> partition : partitions.entrySet()) {
+      if (partition.getValue() <= oldest) result.add(partition.getKey());
+    }
+    return result;
+  }
+
+  static String partitionName(long midnightUTC) {
+    SimpleDateFormat format = new SimpleDateFormat("'p'yyyyMMdd");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(new Date(midnightUTC));
+  }
+
+  /** Stops maintaining partitions. */
+  @Override public void close() {
+    closed = true;
+    thread.interrupt();
+  }
+}
@@ -0,0 +1,245 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep4;
+import org.jooq.Query;
+import org.jooq.Record;
+import zipkin.DependencyLink;
+import zipkin.Span;
+import zipkin.internal.Lazy;
+import zipkin.internal.Pair;
+
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
+import static zipkin.internal.ApplyTimestampAndDuration.authoritativeTimestamp;
+import static zipkin.internal.ApplyTimestampAndDuration.guessTimestamp;
+import static zipkin.internal.Util.midnightUTC;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
+
+/**
+ * Adds links of traces to the zipkin_dependencies table as they are written, so that dependency
+ * queries needn't join spans with annotations.
+ *
+ * <p>Like the zipkin-dependencies job, spans of a trace are linked per day. Each trace and day is
+ * linked once, after no spans were written for it in {@link
+ * MySQLStorage.Builder#dependencyLinkDelay(int)}. Spans written after that are ignored, as
+ * otherwise the same links would be counted twice.
+ *
+ * <p>A thread started on the first write links traces whose delay has passed, so that traces are
+ * linked even when no more spans arrive. A trace is only considered linked once its links commit.
+ * When that fails, it is retried after the delay. Traces pending when this is closed aren't linked.
+ *
+ * <p>State is held in this process, so only one process may write spans to the same database.
+ * Otherwise, each would link the traces it saw, counting the same links more than once.
+ */
+final class DependencyLinkAggregator implements Closeable {
+  static final Logger LOG = Logger.getLogger(DependencyLinkAggregator.class.getName());
+  static final int MAX_TRACES =
+      Integer.getInteger("zipkin.store.mysql.internal.dependencyLinkTracesMax", 100000);
+  static final int MAX_TRACES_PER_QUERY = 1000;
+  static final long DAY_MICROS = TimeUnit.DAYS.toMicros(1);
+  static final long INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  final DataSource datasource;
+  final DSLContexts context;
+  final Lazy<Schema> schema;
+  final long delayNanos;
+
+  /** Trace ID and day pairs waiting to be linked, least recently written first. Guarded by this. */
+  final LinkedHashMap<Pair<Long>, Long> pending = new LinkedHashMap<>(); // value is last write
+  /** Trace ID and day pairs whose links haven't yet committed. Guarded by this. */
+  final Set<Pair<Long>> linking = new HashSet<>();
+  /** Recently linked trace ID and day pairs, whose spans are ignored. Guarded by this. */
+  final Map<Pair<Long>, Boolean> linked = new LinkedHashMap<Pair<Long>, Boolean>() {
+    @Override protected boolean removeEldestEntry(Map.Entry<Pair<Long>, Boolean> eldest) {
+      return size() > MAX_TRACES;
+    }
+  };
+  /** Held while linking, so that a caller of linkReady waits for links in progress to commit. */
+  final Object linkLock = new Object();
+  /** Lazily started on the first write. Guarded by this. */
+  Thread thread;
+  volatile boolean closed;
+
+  /** @param delay seconds after the last span of a trace is written that it is linked */
+  DependencyLinkAggregator(DataSource datasource, DSLContexts context, Lazy<Schema> schema,
+      int delay) {
+    this.datasource = datasource;
+    this.context = context;
+    this.schema = schema;
+    this.delayNanos = TimeUnit.SECONDS.toNanos(delay);
+  }
+
+  /** Call after spans are committed, so that their traces are linked once the delay passes. */
+  void accept(List<Span> spans) {
+    record(spans, System.nanoTime());
+    maybeStart();
+  }
+
+  synchronized void maybeStart() {
+    if (closed || thread != null) return;
+    thread = new Thread(this::run, "ZipkinMySQLDependencyLinker");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  void run() {
+    while (!closed) {
+      try {
+        Thread.sleep(INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        return;
+      }
+      linkReady(System.nanoTime());
+    }
+  }
+
+  /**
+   * Links traces whose delay has passed, retrying them later on failure. If another thread is
+   * linking, this waits for it, so that traces it took are linked when this returns.
+   */
+  void linkReady(long nanoTime) {
+    synchronized (linkLock) {
+      Set<Pair<Long>> ready = takeReady(nanoTime);
+      if (ready.isEmpty()) return;
+      try (Connection conn = datasource.getConnection()) {
+        conn.setAutoCommit(false);
+        try {
+          link(context.get(conn), schema.get(), ready);
+          conn.commit();
+        } catch (SQLException | RuntimeException e) {
+          conn.rollback();
+          throw e;
+        } finally {
+          conn.setAutoCommit(true);
+        }
+      } catch (SQLException | RuntimeException e) {
+        LOG.log(Level.WARNING, "Failed to link " + ready.size() + " traces; will retry", e);
+        failed(ready, System.nanoTime());
+        return;
+      }
+      linked(ready);
+    }
+  }
+
+  /** Adds links of the traces to the zipkin_dependencies table. */
+  static void link(DSLContext create, Schema schema, Collection<Pair<Long>> traces) {
+    Map<Long, List<Long>> traceIdsByDay = new LinkedHashMap<>();
+    for (Pair<Long> trace : traces) {
+      List<Long> traceIds = traceIdsByDay.get(trace._2);
+      if (traceIds == null) traceIdsByDay.put(trace._2, traceIds = new ArrayList<>());
+      traceIds.add(trace._1);
+    }
+
+    List<Query> inserts = new ArrayList<>();
+    for (Map.Entry<Long, List<Long>> entry : traceIdsByDay.entrySet()) {
+      long startTs = entry.getKey() * 1000; // like zipkin_spans.start_ts, in microseconds
+      Date day = new Date(entry.getKey());
+      InsertValuesStep4<Record, Date, String, String, Long> insert = null;
+      List<Long> traceIds = entry.getValue();
+      for (int i = 0; i < traceIds.size(); i += MAX_TRACES_PER_QUERY) {
+        List<Long> chunk = traceIds.subList(i, Math.min(i + MAX_TRACES_PER_QUERY, traceIds.size()));
+        for (DependencyLink link : MySQLSpanStore.linkDependencies(create, schema,
+            ZIPKIN_SPANS.TRACE_ID.in(chunk)
+                .and(ZIPKIN_SPANS.START_TS.between(startTs, startTs + DAY_MICROS - 1)),
+            schema.annotationsTimestampCondition(ZIPKIN_ANNOTATIONS, startTs,
+                startTs + DAY_MICROS - 1))) {
+          if (insert == null) {
+            insert = create.insertInto(ZIPKIN_DEPENDENCIES, ZIPKIN_DEPENDENCIES.DAY,
+                ZIPKIN_DEPENDENCIES.PARENT, ZIPKIN_DEPENDENCIES.CHILD,
+                ZIPKIN_DEPENDENCIES.CALL_COUNT);
+          }
+          insert = insert.values(day, link.parent, link.child, link.callCount);
+        }
+      }
+      if (insert == null) continue;
+      inserts.add(insert.onDuplicateKeyUpdate().set(ZIPKIN_DEPENDENCIES.CALL_COUNT,
+          ZIPKIN_DEPENDENCIES.CALL_COUNT.plus(field("values({0})", Long.class,
+              name(ZIPKIN_DEPENDENCIES.CALL_COUNT.getName())))));
+    }
+    if (!inserts.isEmpty()) create.batch(inserts).execute();
+  }
+
+  /** Records the spans, keyed by trace ID and midnight UTC, as pending until the delay passes. */
+  synchronized void record(List<Span> spans, long nanoTime) {
+    for (Span span : spans) {
+      // same as zipkin_spans.start_ts
+      Long timestamp = authoritativeTimestamp(span);
+      if (timestamp == null) timestamp = guessTimestamp(span);
+      if (timestamp == null) continue; // there's no day to count links in
+
+      Pair<Long> key = Pair.create(span.traceId, midnightUTC(timestamp / 1000));
+      if (linked.containsKey(key) || linking.contains(key)) continue;
+      pending.remove(key); // reinsert so that the map is ordered by last write
+      pending.put(key, nanoTime);
+    }
+  }
+
+  /** Moves traces whose delay has passed from pending to linking, returning them. */
+  synchronized Set<Pair<Long>> takeReady(long nanoTime) {
+    Set<Pair<Long>> result = new HashSet<>();
+    for (Iterator<Map.Entry<Pair<Long>, Long>> i = pending.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<Pair<Long>, Long> entry = i.next();
+      // link early instead of dropping traces when there are too many pending
+      if (nanoTime - entry.getValue() < delayNanos && pending.size() <= MAX_TRACES) break;
+      i.remove();
+      result.add(entry.getKey());
+    }
+    linking.addAll(result);
+    return result;
+  }
+
+  /** Call after links of the traces committed, so that later spans are ignored. */
+  synchronized void linked(Set<Pair<Long>> traces) {
+    linking.removeAll(traces);
+    for (Pair<Long> trace : traces) linked.put(trace, Boolean.TRUE);
+  }
+
+  /** Call after links of the traces rolled back, so that they are retried after the delay. */
+  synchronized void failed(Set<Pair<Long>> traces, long nanoTime) {
+    linking.removeAll(traces);
+    for (Pair<Long> trace : traces) pending.put(trace, nanoTime);
+  }
+
+  synchronized void clear() {
+    pending.clear();
+    linking.clear();
+    linked.clear();
+  }
+
+  /** Stops linking within a second. Traces pending at that time aren't linked. */
+  @Override public void close() {
+    closed = true;
+  }
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.storage.AsyncSpanConsumer;
+import zipkin.storage.Callback;
+
+/**
+ * Accumulates spans from many calls to {@link #accept} and writes them in shared transactions, on
+ * a fixed count of threads. This bounds the connections used for writes, and amortizes the cost of
+ * a commit across requests.
+ *
+ * <p>Spans wait in a queue bounded by {@link MySQLStorage.Builder#maxQueuedSpans(int)}. When full,
+ * requests fail immediately, as opposed to waiting on the pool or an unbounded executor queue.
+ *
+ * <p>Spans are written in key order, so that writer threads updating the same rows lock them in
+ * the same order. Transactions rolled back as a deadlock victim are retried. When a transaction
+ * fails otherwise, each request in it is retried in its own transaction, so that one bad span
+ * doesn't fail unrelated requests.
+ */
+final class GroupCommitWriter implements AsyncSpanConsumer, Closeable {
+  static final Logger LOG = Logger.getLogger(GroupCommitWriter.class.getName());
+  static final int MAX_DEADLOCK_RETRIES = 3;
+  /** Orders spans by the unique key of zipkin_spans */
+  static final Comparator<Span> SPAN_KEY_ORDER = (left, right) -> {
+    int result = Long.compare(left.traceIdHigh, right.traceIdHigh);
+    if (result != 0) return result;
+    result = Long.compare(left.traceId, right.traceId);
+    if (result != 0) return result;
+    return Long.compare(left.id, right.id);
+  };
+
+  final DataSource datasource;
+  final DSLContexts context;
+  final MySQLSpanConsumer delegate;
+  final int maxTransactionSpans;
+  final int maxQueuedSpans;
+  final BlockingQueue<PendingSpans> queue = new LinkedBlockingQueue<>();
+  final AtomicInteger queuedSpans = new AtomicInteger();
+  final AtomicLong spans = new AtomicLong(), spansRejected = new AtomicLong();
+  final AtomicLong transactions = new AtomicLong(), transactionsFailed = new AtomicLong();
+  final AtomicLong transactionsRetried = new AtomicLong();
+  final List<Thread> threads = new ArrayList<>();
+  volatile boolean closed;
+
+  GroupCommitWriter(DataSource datasource, DSLContexts context, MySQLSpanConsumer delegate,
+      int writerThreads, int maxTransactionSpans, int maxQueuedSpans) {
+    this.datasource = datasource;
+    this.context = context;
+    this.delegate = delegate;
+    this.maxTransactionSpans = maxTransactionSpans;
+    this.maxQueuedSpans = maxQueuedSpans;
+    for (int i = 0; i < writerThreads; i++) {
+      Thread thread = new Thread(this::run, "ZipkinMySQLWriter-" + i);
+      thread.setDaemon(true);
+      threads.add(thread);
+      thread.start();
+    }
+  }
+
+  @Override public void accept(List<Span> spans, Callback<Void> callback) {
+    if (spans.isEmpty()) {
+      callback.onSuccess(null);
+      return;
+    }
+    if (closed) {
+      callback.onError(new IllegalStateException("closed"));
+      return;
+    }
+    int size = spans.size();
+    for (; ; ) {
+      int current = queuedSpans.get();
+      if (current + size > maxQueuedSpans) {
+        spansRejected.addAndGet(size);
+        callback.onError(new RejectedExecutionException(
+            "Rejected " + size + " spans as " + current + " are waiting to be written"));
+        return;
+      }
+      if (queuedSpans.compareAndSet(current, current + size)) break;
+    }
+    PendingSpans pending = new PendingSpans(spans, callback);
+    queue.add(pending);
+    // If close() ran since the check above, writer threads may have exited without seeing this
+    // request. Fail it unless a writer thread already took it.
+    if (closed && queue.remove(pending)) {
+      queuedSpans.addAndGet(-size);
+      callback.onError(new IllegalStateException("closed"));
+    }
+  }
+
+  void run() {
+    List<PendingSpans> pending = new ArrayList<>();
+    List<Span> spans = new ArrayList<>();
+    while (!closed || !queue.isEmpty()) {
+      PendingSpans next;
+      try {
+        next = queue.poll(100, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      // add requests to the transaction until it is large enough or there's no more work
+      while (next != null) {
+        pending.add(next);
+        spans.addAll(next.spans);
+        if (spans.size() >= maxTransactionSpans) break;
+        next = queue.poll();
+      }
+      if (pending.isEmpty()) continue;
+
+      queuedSpans.addAndGet(-spans.size());
+      Throwable error = writeWithRetries(spans);
+      if (error == null || pending.size() == 1) {
+        for (PendingSpans p : pending) complete(p, error);
+      } else { // isolate the request that failed from the others grouped with it
+        for (PendingSpans p : pending) complete(p, writeWithRetries(new ArrayList<>(p.spans)));
+      }
+      pending.clear();
+      spans.clear();
+    }
+  }
+
+  static void complete(PendingSpans pending, @Nullable Throwable error) {
+    if (error == null) {
+      pending.callback.onSuccess(null);
+    } else {
+      pending.callback.onError(error);
+    }
+  }
+
+  /** Writes the spans in key order, retrying deadlocks. Returns the error if the write failed. */
+  @Nullable Throwable writeWithRetries(List<Span> spans) {
+    Collections.sort(spans, SPAN_KEY_ORDER);
+    for (int retries = 0; ; retries++) {
+      try {
+        write(spans);
+        transactions.incrementAndGet();
+        this.spans.addAndGet(spans.size());
+        return null;
+      } catch (SQLException | RuntimeException e) {
+        transactionsFailed.incrementAndGet();
+        if (retries < MAX_DEADLOCK_RETRIES && isDeadlock(e)) {
+          transactionsRetried.incrementAndGet();
+          continue;
+        }
+        LOG.log(Level.FINE, "Failed to write " + spans.size() + " spans", e);
+        return e;
+      }
+    }
+  }
+
+  /** True if the transaction was rolled back to resolve a deadlock or serialization failure. */
+  static boolean isDeadlock(Throwable e) {
+    for (Throwable t = e; t != null; t = t.getCause()) {
+      for (SQLException s = t instanceof SQLException ? (SQLException) t : null; s != null;
+          s = s.getNextException()) {
+        if ("40001".equals(s.getSQLState())) return true;
+      }
+      if (t.getCause() == t) break;
+    }
+    return false;
+  }
+
+  void write(List<Span> spans) throws SQLException {
+    try (Connection conn = datasource.getConnection()) {
+      conn.setAutoCommit(false);
+      try {
+        DSLContext create = context.get(conn);
+        delegate.write(create, spans);
+        conn.commit();
+      } catch (SQLException | RuntimeException e) {
+        conn.rollback();
+        delegate.rolledBack();
+        throw e;
+      } finally {
+        conn.setAutoCommit(true);
+      }
+    }
+    delegate.committed(spans);
+  }
+
+  /** Returns counters of spans and transactions written and the count of spans waiting. */
+  Map<String, Number> metrics() {
+    Map<String, Number> result = new LinkedHashMap<>();
+    result.put("queued_spans", queuedSpans.get());
+    result.put("spans", spans.get());
+    result.put("spans_rejected", spansRejected.get());
+    result.put("transactions", transactions.get());
+    result.put("transactions_failed", transactionsFailed.get());
+    result.put("transactions_retried", transactionsRetried.get());
+    return result;
+  }
+
+  /** Stops accepting spans. Writer threads exit once those already queued are written. */
+  @Override public void close() {
+    closed = true;
+  }
+
+  static final class PendingSpans {
+    final List<Span> spans;
+    final Callback<Void> callback;
+
+    PendingSpans(List<Span> spans, Callback<Void> callback) {
+      this.spans = spans;
+      this.callback = callback;
+    }
+  }
+}
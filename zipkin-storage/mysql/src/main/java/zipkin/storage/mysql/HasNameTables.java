@@ -0,0 +1,65 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import org.jooq.DSLContext;
+import org.jooq.exception.DataAccessException;
+
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames.ZIPKIN_SERVICE_NAMES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames.ZIPKIN_SPAN_NAMES;
+
+/**
+ * Returns true when the zipkin_service_names and zipkin_span_names tables exist, so service and
+ * span name queries needn't scan zipkin_annotations.
+ */
+final class HasNameTables {
+  static final Logger LOG = Logger.getLogger(HasNameTables.class.getName());
+  static final String MESSAGE =
+      "zipkin_service_names or zipkin_span_names doesn't exist, so name queries scan "
+          + "zipkin_annotations. Execute mysql.sql located in this jar to add the tables, then "
+          + "copy names already written:\n"
+          + "INSERT IGNORE INTO zipkin_service_names SELECT DISTINCT endpoint_service_name "
+          + "FROM zipkin_annotations WHERE endpoint_service_name != '';\n"
+          + "INSERT IGNORE INTO zipkin_span_names SELECT DISTINCT a.endpoint_service_name, s.name "
+          + "FROM zipkin_spans s JOIN zipkin_annotations a "
+          + "ON s.trace_id = a.trace_id AND s.id = a.span_id "
+          + "WHERE a.endpoint_service_name != '';";
+
+  static boolean test(DataSource datasource, DSLContexts context) {
+    try (Connection conn = datasource.getConnection()) {
+      DSLContext dsl = context.get(conn);
+      dsl.select(ZIPKIN_SERVICE_NAMES.SERVICE_NAME).from(ZIPKIN_SERVICE_NAMES).limit(1).fetchAny();
+      dsl.select(ZIPKIN_SPAN_NAMES.SPAN_NAME).from(ZIPKIN_SPAN_NAMES).limit(1).fetchAny();
+      return true;
+    } catch (DataAccessException e) {
+      if (e.sqlState().equals("42S02")) {
+        LOG.warning(MESSAGE);
+        return false;
+      }
+      problemReading(e);
+    } catch (SQLException | RuntimeException e) {
+      problemReading(e);
+    }
+    return false;
+  }
+
+  static void problemReading(Exception e) {
+    LOG.log(Level.WARNING, "problem reading zipkin_service_names or zipkin_span_names", e);
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Result;
+import org.jooq.Row2;
+import org.jooq.Row3;
+import zipkin.internal.Nullable;
+import zipkin.internal.Pair;
+import zipkin.storage.QueryRequest;
+
+import static org.jooq.impl.DSL.exists;
+import static org.jooq.impl.DSL.row;
+import static org.jooq.impl.DSL.selectOne;
+import static zipkin.BinaryAnnotation.Type.STRING;
+import static zipkin.internal.Util.UTF_8;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
+
+/**
+ * Finds trace IDs matching a query in two phases, as opposed to joining spans with annotations
+ * once per criterion and sorting the whole lookback.
+ *
+ * <ol>
+ *   <li>Reads a page of spans in descending timestamp order, filtered by span name, duration and
+ * service name. As this doesn't group or sort by anything besides the indexed start_ts, MySQL stops
+ * reading once the page is full.</li>
+ *   <li>Drops spans that don't have the requested annotations, looking them up by span ID.</li>
+ * </ol>
+ *
+ * <p>This repeats with the next page, starting at the timestamp where the last ended, until enough
+ * traces are found or the lookback is exhausted.
+ */
+final class KeysetTraceSearch {
+  static final int MIN_PAGE_SIZE = 100;
+
+  final DSLContext context;
+  final Schema schema;
+  final QueryRequest request;
+  final long endTs, beginTs;
+
+  KeysetTraceSearch(DSLContext context, Schema schema, QueryRequest request) {
+    this.context = context;
+    this.schema = schema;
+    this.request = request;
+    this.endTs = (request.endTs > 0 && request.endTs != Long.MAX_VALUE) ? request.endTs * 1000
+        : System.currentTimeMillis() * 1000;
+    this.beginTs = endTs - request.lookback * 1000;
+  }
+
+  /** Returns up to {@link QueryRequest#limit} trace IDs, most recent first. */
+  Set<Pair<Long>> traceIds() {
+    int pageSize = Math.max(request.limit * 4, MIN_PAGE_SIZE);
+
+    List<Field<?>> fields = new ArrayList<>(schema.spanIdFields);
+    fields.add(ZIPKIN_SPANS.ID);
+    fields.add(ZIPKIN_SPANS.START_TS);
+    Condition spanCondition = spanCondition();
+
+    Set<Pair<Long>> result = new LinkedHashSet<>();
+    long cursor = endTs;
+    Set<SpanKey> seenAtCursor = new HashSet<>(); // spans already read at the cursor's timestamp
+    while (true) {
+      Result<Record> page = context.select(fields)
+          .from(ZIPKIN_SPANS)
+          .where(spanCondition.and(ZIPKIN_SPANS.START_TS.between(beginTs, cursor)))
+          .orderBy(ZIPKIN_SPANS.START_TS.desc())
+          .limit(pageSize)
+          .fetch();
+
+      List<SpanKey> candidates = new ArrayList<>(page.size());
+      for (Record record : page) {
+        SpanKey span = new SpanKey(record);
+        if (span.timestamp == cursor && !seenAtCursor.add(span)) continue;
+        candidates.add(span);
+      }
+
+      for (SpanKey span : withAnnotations(candidates)) {
+        result.add(Pair.create(span.traceIdHigh, span.traceId));
+        if (result.size() == request.limit) return result;
+      }
+      if (page.size() < pageSize) return result; // there are no more spans in the lookback
+
+      long lastTimestamp = page.get(page.size() - 1).get(ZIPKIN_SPANS.START_TS);
+      if (lastTimestamp == cursor) {
+        pageSize *= 2; // the whole page had the same timestamp: read more to get past it
+        continue;
+      }
+      cursor = lastTimestamp;
+      seenAtCursor.clear();
+      for (SpanKey span : candidates) {
+        if (span.timestamp == cursor) seenAtCursor.add(span);
+      }
+    }
+  }
+
+  Condition spanCondition() {
+    // Like a join with annotations, this excludes spans that have none.
+    Condition annotationCondition = schema.joinCondition(ZIPKIN_ANNOTATIONS)
+        .and(schema.annotationsTimestampCondition(ZIPKIN_ANNOTATIONS, beginTs, endTs));
+    if (request.serviceName != null) {
+      annotationCondition = annotationCondition
+          .and(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME.eq(request.serviceName));
+    }
+    Condition result = exists(selectOne().from(ZIPKIN_ANNOTATIONS).where(annotationCondition));
+    if (request.spanName != null) {
+      result = result.and(ZIPKIN_SPANS.NAME.eq(request.spanName));
+    }
+    if (request.minDuration != null && request.maxDuration != null) {
+      result = result.and(ZIPKIN_SPANS.DURATION.between(request.minDuration, request.maxDuration));
+    } else if (request.minDuration != null) {
+      result = result.and(ZIPKIN_SPANS.DURATION.greaterOrEqual(request.minDuration));
+    }
+    return result;
+  }
+
+  /** Returns the spans that have all annotations in the request, in the same order. */
+  List<SpanKey> withAnnotations(List<SpanKey> spans) {
+    if (spans.isEmpty()) return spans;
+    for (String key : request.annotations) {
+      spans = retainMatches(spans, ZIPKIN_ANNOTATIONS.A_KEY.eq(key));
+    }
+    for (Map.Entry<String, String> kv : request.binaryAnnotations.entrySet()) {
+      spans = retainMatches(spans, ZIPKIN_ANNOTATIONS.A_TYPE.eq(STRING.value)
+          .and(ZIPKIN_ANNOTATIONS.A_KEY.eq(kv.getKey()))
+          .and(ZIPKIN_ANNOTATIONS.A_VALUE.eq(kv.getValue().getBytes(UTF_8))));
+    }
+    return spans;
+  }
+
+  List<SpanKey> retainMatches(List<SpanKey> spans, Condition annotationCondition) {
+    if (spans.isEmpty()) return spans;
+    annotationCondition = annotationCondition
+        .and(schema.annotationsTimestampCondition(ZIPKIN_ANNOTATIONS, beginTs, endTs));
+    if (request.serviceName != null) {
+      annotationCondition = annotationCondition
+          .and(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME.eq(request.serviceName));
+    }
+
+    Set<SpanKey> matches = new HashSet<>();
+    if (schema.hasTraceIdHigh) {
+      List<Row3<Long, Long, Long>> ids = new ArrayList<>(spans.size());
+      for (SpanKey span : spans) ids.add(row(span.traceIdHigh, span.traceId, span.id));
+      context.select(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZIPKIN_ANNOTATIONS.TRACE_ID,
+          ZIPKIN_ANNOTATIONS.SPAN_ID)
+          .from(ZIPKIN_ANNOTATIONS)
+          .where(row(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZIPKIN_ANNOTATIONS.TRACE_ID,
+              ZIPKIN_ANNOTATIONS.SPAN_ID).in(ids))
+          .and(annotationCondition)
+          .fetch()
+          .forEach(r -> matches.add(new SpanKey(r.value1(), r.value2(), r.value3(), 0L)));
+    } else {
+      List<Row2<Long, Long>> ids = new ArrayList<>(spans.size());
+      for (SpanKey span : spans) ids.add(row(span.traceId, span.id));
+      context.select(ZIPKIN_ANNOTATIONS.TRACE_ID, ZIPKIN_ANNOTATIONS.SPAN_ID)
+          .from(ZIPKIN_ANNOTATIONS)
+          .where(row(ZIPKIN_ANNOTATIONS.TRACE_ID, ZIPKIN_ANNOTATIONS.SPAN_ID).in(ids))
+          .and(annotationCondition)
+          .fetch()
+          .forEach(r -> matches.add(new SpanKey(0L, r.value1(), r.value2(), 0L)));
+    }
+
+    List<SpanKey> result = new ArrayList<>(matches.size());
+    for (SpanKey span : spans) {
+      if (matches.contains(span)) result.add(span);
+    }
+    return result;
+  }
+
+  /** Identifies a span. The timestamp is not considered in equals, as it isn't in the key. */
+  static final class SpanKey {
+    final long traceIdHigh, traceId, id, timestamp;
+
+    SpanKey(Record record) {
+      this(MySQLSpanStore.maybeGet(record, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L),
+          record.get(ZIPKIN_SPANS.TRACE_ID), record.get(ZIPKIN_SPANS.ID),
+          record.get(ZIPKIN_SPANS.START_TS));
+    }
+
+    SpanKey(long traceIdHigh, long traceId, long id, long timestamp) {
+      this.traceIdHigh = traceIdHigh;
+      this.traceId = traceId;
+      this.id = id;
+      this.timestamp = timestamp;
+    }
+
+    @Override public boolean equals(@Nullable Object o) {
+      if (o == this) return true;
+      if (!(o instanceof SpanKey)) return false;
+      SpanKey that = (SpanKey) o;
+      return traceIdHigh == that.traceIdHigh && traceId == that.traceId && id == that.id;
+    }
+
+    @Override public int hashCode() {
+      int h = 1;
+      h *= 1000003;
+      h ^= (int) ((traceIdHigh >>> 32) ^ traceIdHigh);
+      h *= 1000003;
+      h ^= (int) ((traceId >>> 32) ^ traceId);
+      h *= 1000003;
+      h ^= (int) ((id >>> 32) ^ id);
+      return h;
+    }
+  }
+}
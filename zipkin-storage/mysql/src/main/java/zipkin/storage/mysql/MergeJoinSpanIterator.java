@@ -0,0 +1,113 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.util.Iterator;
+import org.jooq.Record;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.internal.PeekingIterator;
+
+import static zipkin.storage.mysql.MySQLSpanStore.maybeGet;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
+
+/**
+ * Assembles spans from a cursor of span rows and a cursor of annotation rows, both sorted by trace
+ * id high, trace id and span id. Like a merge join, each span is built once its annotations are
+ * read, so neither result is grouped in memory.
+ *
+ * <p>Annotations sort after their span's key by timestamp and key, for consistent output.
+ * Annotations without a corresponding span are skipped.
+ */
+final class MergeJoinSpanIterator implements Iterator<Span> {
+  final Iterator<Record> spans;
+  final PeekingIterator<Record> annotations;
+
+  MergeJoinSpanIterator(Iterator<Record> spans, Iterator<Record> annotations) {
+    this.spans = spans;
+    this.annotations = new PeekingIterator<>(annotations);
+  }
+
+  @Override public boolean hasNext() {
+    return spans.hasNext();
+  }
+
+  @Override public Span next() {
+    Record s = spans.next();
+    long traceIdHigh = maybeGet(s, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L);
+    long traceId = s.getValue(ZIPKIN_SPANS.TRACE_ID);
+    long id = s.getValue(ZIPKIN_SPANS.ID);
+    Long timestamp = s.getValue(ZIPKIN_SPANS.START_TS);
+    Span.Builder span = Span.builder()
+        .traceIdHigh(traceIdHigh)
+        .traceId(traceId)
+        .name(s.getValue(ZIPKIN_SPANS.NAME))
+        .id(id)
+        .parentId(s.getValue(ZIPKIN_SPANS.PARENT_ID))
+        .timestamp(timestamp != null && timestamp == 0L ? null : timestamp) // 0 when partitioned
+        .duration(s.getValue(ZIPKIN_SPANS.DURATION))
+        .debug(s.getValue(ZIPKIN_SPANS.DEBUG));
+
+    while (annotations.hasNext()) {
+      Record a = annotations.peek();
+      int cmp = compare(a, traceIdHigh, traceId, id);
+      if (cmp > 0) break; // belongs to a later span
+      annotations.next();
+      if (cmp < 0) continue; // no span was read for this annotation
+
+      Endpoint endpoint = endpoint(a);
+      int type = a.getValue(ZIPKIN_ANNOTATIONS.A_TYPE);
+      if (type == -1) {
+        span.addAnnotation(Annotation.create(
+            a.getValue(ZIPKIN_ANNOTATIONS.A_TIMESTAMP),
+            a.getValue(ZIPKIN_ANNOTATIONS.A_KEY),
+            endpoint));
+      } else {
+        span.addBinaryAnnotation(BinaryAnnotation.create(
+            a.getValue(ZIPKIN_ANNOTATIONS.A_KEY),
+            a.getValue(ZIPKIN_ANNOTATIONS.A_VALUE),
+            BinaryAnnotation.Type.fromValue(type),
+            endpoint));
+      }
+    }
+    return span.build();
+  }
+
+  /** Compares the span key of the annotation with the one given, in the same order as MySQL. */
+  static int compare(Record a, long traceIdHigh, long traceId, long spanId) {
+    int cmp = Long.compare(maybeGet(a, ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, 0L), traceIdHigh);
+    if (cmp != 0) return cmp;
+    cmp = Long.compare(a.getValue(ZIPKIN_ANNOTATIONS.TRACE_ID), traceId);
+    if (cmp != 0) return cmp;
+    return Long.compare(a.getValue(ZIPKIN_ANNOTATIONS.SPAN_ID), spanId);
+  }
+
+  @Nullable static Endpoint endpoint(Record a) {
+    String serviceName = a.getValue(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME);
+    if (serviceName == null) return null;
+    return Endpoint.builder()
+        .serviceName(serviceName)
+        .port(a.getValue(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT))
+        .ipv4(a.getValue(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4))
+        .ipv6(maybeGet(a, ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, null)).build();
+  }
+
+  @Override public void remove() {
+    throw new UnsupportedOperationException();
+  }
+}
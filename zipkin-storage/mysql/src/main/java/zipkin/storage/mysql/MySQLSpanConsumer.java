@@ -16,124 +16,321 @@ package zipkin.storage.mysql;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.sql.DataSource;
 import org.jooq.DSLContext;
+import org.jooq.Field;
 import org.jooq.InsertSetMoreStep;
+import org.jooq.InsertValuesStepN;
 import org.jooq.Query;
 import org.jooq.Record;
+import org.jooq.Table;
 import org.jooq.TableField;
 import zipkin.Annotation;
 import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
 import zipkin.Span;
+import zipkin.internal.Nullable;
 import zipkin.storage.AsyncSpanConsumer;
 import zipkin.storage.StorageAdapters;
 
 import static zipkin.internal.ApplyTimestampAndDuration.authoritativeTimestamp;
+import static org.jooq.impl.DSL.field;
+import static org.jooq.impl.DSL.name;
 import static zipkin.internal.ApplyTimestampAndDuration.guessTimestamp;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 final class MySQLSpanConsumer implements StorageAdapters.SpanConsumer {
+  /** Rough size of the INSERT and ON DUPLICATE KEY clauses around the rows of a statement */
+  static final int STATEMENT_BYTES = 512;
+
   private final DataSource datasource;
   private final DSLContexts context;
   private final Schema schema;
+  private final int maxInsertBytes;
+  @Nullable private final DependencyLinkAggregator dependencies;
+  private final NameTablesWriter names;
 
-  MySQLSpanConsumer(DataSource datasource, DSLContexts context, Schema schema) {
+  /**
+   * @param maxInsertBytes when greater than zero, spans and annotations are written with multi-row
+   * INSERT statements no larger than this. Otherwise, a statement is written per row.
+   * @param dependencies when present, updates zipkin_dependencies after spans are committed.
+   * @param names updates the name tables after spans are written, if they exist.
+   */
+  MySQLSpanConsumer(DataSource datasource, DSLContexts context, Schema schema,
+      int maxInsertBytes, @Nullable DependencyLinkAggregator dependencies,
+      NameTablesWriter names) {
     this.datasource = datasource;
     this.context = context;
     this.schema = schema;
+    this.maxInsertBytes = maxInsertBytes;
+    this.dependencies = dependencies;
+    this.names = names;
   }
 
   /** Blocking version of {@link AsyncSpanConsumer#accept} */
   @Override public void accept(List<Span> spans) {
     if (spans.isEmpty()) return;
     try (Connection conn = datasource.getConnection()) {
-      DSLContext create = context.get(conn);
+      write(context.get(conn), spans);
+    } catch (SQLException e) {
+      throw new RuntimeException(e); // TODO
+    }
+    committed(spans);
+  }
 
-      List<Query> inserts = new ArrayList<>();
+  void write(DSLContext create, List<Span> spans) {
+    create.batch(inserts(create, spans)).execute();
+    if (schema.hasNameTables) names.accept(create, spans);
+  }
 
-      for (Span span : spans) {
-        Long overridingTimestamp = authoritativeTimestamp(span);
-        Long timestamp = overridingTimestamp != null ? overridingTimestamp : guessTimestamp(span);
+  /** Call when a transaction that included {@link #write} committed. */
+  void committed(List<Span> spans) {
+    if (dependencies != null) dependencies.accept(spans);
+  }
 
-        Map<TableField<Record, ?>, Object> updateFields = new LinkedHashMap<>();
-        if (!span.name.equals("") && !span.name.equals("unknown")) {
-          updateFields.put(ZIPKIN_SPANS.NAME, span.name);
-        }
-        // replace any tentative timestamp with the authoritative one.
-        if (overridingTimestamp != null) {
-          updateFields.put(ZIPKIN_SPANS.START_TS, overridingTimestamp);
-        }
-        if (span.duration != null) {
-          updateFields.put(ZIPKIN_SPANS.DURATION, span.duration);
-        }
+  /** Call when a transaction that included {@link #write} rolled back. */
+  void rolledBack() {
+    names.clear(); // so that names in the transaction are written again
+  }
+
+  /** Returns the statements needed to write the spans, which may be executed in one batch. */
+  List<Query> inserts(DSLContext create, List<Span> spans) {
+    return maxInsertBytes > 0
+        ? multiRowInserts(create, spans)
+        : singleRowInserts(create, spans);
+  }
+
+  List<Query> singleRowInserts(DSLContext create, List<Span> spans) {
+    List<Query> inserts = new ArrayList<>();
+
+    for (Span span : spans) {
+      Long overridingTimestamp = authoritativeTimestamp(span);
+      Long timestamp = overridingTimestamp != null ? overridingTimestamp : guessTimestamp(span);
 
-        InsertSetMoreStep<Record> insertSpan = create.insertInto(ZIPKIN_SPANS)
-            .set(ZIPKIN_SPANS.TRACE_ID, span.traceId)
-            .set(ZIPKIN_SPANS.ID, span.id)
-            .set(ZIPKIN_SPANS.PARENT_ID, span.parentId)
-            .set(ZIPKIN_SPANS.NAME, span.name)
-            .set(ZIPKIN_SPANS.DEBUG, span.debug)
-            .set(ZIPKIN_SPANS.START_TS, timestamp)
-            .set(ZIPKIN_SPANS.DURATION, span.duration);
+      Map<TableField<Record, ?>, Object> updateFields = new LinkedHashMap<>();
+      if (!span.name.equals("") && !span.name.equals("unknown")) {
+        updateFields.put(ZIPKIN_SPANS.NAME, span.name);
+      }
+      // replace any tentative timestamp with the authoritative one.
+      if (overridingTimestamp != null) {
+        updateFields.put(ZIPKIN_SPANS.START_TS, overridingTimestamp);
+      }
+      if (span.duration != null) {
+        updateFields.put(ZIPKIN_SPANS.DURATION, span.duration);
+      }
+
+      InsertSetMoreStep<Record> insertSpan = create.insertInto(ZIPKIN_SPANS)
+          .set(ZIPKIN_SPANS.TRACE_ID, span.traceId)
+          .set(ZIPKIN_SPANS.ID, span.id)
+          .set(ZIPKIN_SPANS.PARENT_ID, span.parentId)
+          .set(ZIPKIN_SPANS.NAME, span.name)
+          .set(ZIPKIN_SPANS.DEBUG, span.debug)
+          .set(ZIPKIN_SPANS.START_TS, startTs(timestamp))
+          .set(ZIPKIN_SPANS.DURATION, span.duration);
 
+      if (span.traceIdHigh != 0 && schema.hasTraceIdHigh) {
+        insertSpan.set(ZIPKIN_SPANS.TRACE_ID_HIGH, span.traceIdHigh);
+      }
+
+      inserts.add(updateFields.isEmpty() ?
+          insertSpan.onDuplicateKeyIgnore() :
+          insertSpan.onDuplicateKeyUpdate().set(updateFields));
+
+      for (Annotation annotation : span.annotations) {
+        InsertSetMoreStep<Record> insert = create.insertInto(ZIPKIN_ANNOTATIONS)
+            .set(ZIPKIN_ANNOTATIONS.TRACE_ID, span.traceId)
+            .set(ZIPKIN_ANNOTATIONS.SPAN_ID, span.id)
+            .set(ZIPKIN_ANNOTATIONS.A_KEY, annotation.value)
+            .set(ZIPKIN_ANNOTATIONS.A_TYPE, -1)
+            .set(ZIPKIN_ANNOTATIONS.A_TIMESTAMP, annotation.timestamp);
         if (span.traceIdHigh != 0 && schema.hasTraceIdHigh) {
-          insertSpan.set(ZIPKIN_SPANS.TRACE_ID_HIGH, span.traceIdHigh);
+          insert.set(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, span.traceIdHigh);
         }
-
-        inserts.add(updateFields.isEmpty() ?
-            insertSpan.onDuplicateKeyIgnore() :
-            insertSpan.onDuplicateKeyUpdate().set(updateFields));
-
-        for (Annotation annotation : span.annotations) {
-          InsertSetMoreStep<Record> insert = create.insertInto(ZIPKIN_ANNOTATIONS)
-              .set(ZIPKIN_ANNOTATIONS.TRACE_ID, span.traceId)
-              .set(ZIPKIN_ANNOTATIONS.SPAN_ID, span.id)
-              .set(ZIPKIN_ANNOTATIONS.A_KEY, annotation.value)
-              .set(ZIPKIN_ANNOTATIONS.A_TYPE, -1)
-              .set(ZIPKIN_ANNOTATIONS.A_TIMESTAMP, annotation.timestamp);
-          if (span.traceIdHigh != 0 && schema.hasTraceIdHigh) {
-            insert.set(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, span.traceIdHigh);
+        if (annotation.endpoint != null) {
+          insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME, annotation.endpoint.serviceName);
+          insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4, annotation.endpoint.ipv4);
+          if (annotation.endpoint.ipv6 != null && schema.hasIpv6) {
+            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, annotation.endpoint.ipv6);
           }
-          if (annotation.endpoint != null) {
-            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME, annotation.endpoint.serviceName);
-            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4, annotation.endpoint.ipv4);
-            if (annotation.endpoint.ipv6 != null && schema.hasIpv6) {
-              insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, annotation.endpoint.ipv6);
-            }
-            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT, annotation.endpoint.port);
-          }
-          inserts.add(insert.onDuplicateKeyIgnore());
+          insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT, annotation.endpoint.port);
         }
+        inserts.add(insert.onDuplicateKeyIgnore());
+      }
 
-        for (BinaryAnnotation annotation : span.binaryAnnotations) {
-          InsertSetMoreStep<Record> insert = create.insertInto(ZIPKIN_ANNOTATIONS)
-              .set(ZIPKIN_ANNOTATIONS.TRACE_ID, span.traceId)
-              .set(ZIPKIN_ANNOTATIONS.SPAN_ID, span.id)
-              .set(ZIPKIN_ANNOTATIONS.A_KEY, annotation.key)
-              .set(ZIPKIN_ANNOTATIONS.A_VALUE, annotation.value)
-              .set(ZIPKIN_ANNOTATIONS.A_TYPE, annotation.type.value)
-              .set(ZIPKIN_ANNOTATIONS.A_TIMESTAMP, timestamp);
-          if (span.traceIdHigh != 0 && schema.hasTraceIdHigh) {
-            insert.set(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, span.traceIdHigh);
-          }
-          if (annotation.endpoint != null) {
-            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME, annotation.endpoint.serviceName);
-            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4, annotation.endpoint.ipv4);
-            if (annotation.endpoint.ipv6 != null && schema.hasIpv6) {
-              insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, annotation.endpoint.ipv6);
-            }
-            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT, annotation.endpoint.port);
+      for (BinaryAnnotation annotation : span.binaryAnnotations) {
+        InsertSetMoreStep<Record> insert = create.insertInto(ZIPKIN_ANNOTATIONS)
+            .set(ZIPKIN_ANNOTATIONS.TRACE_ID, span.traceId)
+            .set(ZIPKIN_ANNOTATIONS.SPAN_ID, span.id)
+            .set(ZIPKIN_ANNOTATIONS.A_KEY, annotation.key)
+            .set(ZIPKIN_ANNOTATIONS.A_VALUE, annotation.value)
+            .set(ZIPKIN_ANNOTATIONS.A_TYPE, annotation.type.value)
+            .set(ZIPKIN_ANNOTATIONS.A_TIMESTAMP, timestamp);
+        if (span.traceIdHigh != 0 && schema.hasTraceIdHigh) {
+          insert.set(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, span.traceIdHigh);
+        }
+        if (annotation.endpoint != null) {
+          insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME, annotation.endpoint.serviceName);
+          insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4, annotation.endpoint.ipv4);
+          if (annotation.endpoint.ipv6 != null && schema.hasIpv6) {
+            insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, annotation.endpoint.ipv6);
           }
-          inserts.add(insert.onDuplicateKeyIgnore());
+          insert.set(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT, annotation.endpoint.port);
         }
+        inserts.add(insert.onDuplicateKeyIgnore());
+      }
+    }
+    return inserts;
+  }
+
+  /**
+   * Writes the same data as {@link #singleRowInserts}, but with a statement per table instead of
+   * per row. As a multi-row statement has a single ON DUPLICATE KEY clause, the conditional updates
+   * are done in SQL, and spans with an authoritative timestamp are written separately from those
+   * with a tentative one.
+   */
+  List<Query> multiRowInserts(DSLContext create, List<Span> spans) {
+    List<Field<?>> spanFields = new ArrayList<>();
+    if (schema.hasTraceIdHigh) spanFields.add(ZIPKIN_SPANS.TRACE_ID_HIGH);
+    spanFields.addAll(Arrays.<Field<?>>asList(ZIPKIN_SPANS.TRACE_ID, ZIPKIN_SPANS.ID,
+        ZIPKIN_SPANS.PARENT_ID, ZIPKIN_SPANS.NAME, ZIPKIN_SPANS.DEBUG, ZIPKIN_SPANS.START_TS,
+        ZIPKIN_SPANS.DURATION));
+
+    Map<Field<?>, Field<?>> tentativeUpdates = new LinkedHashMap<>();
+    // keep the existing name when this one is a placeholder
+    tentativeUpdates.put(ZIPKIN_SPANS.NAME,
+        field("if(values({0}) in ('', 'unknown'), {0}, values({0}))",
+            String.class, name(ZIPKIN_SPANS.NAME.getName())));
+    tentativeUpdates.put(ZIPKIN_SPANS.DURATION, field("ifnull(values({0}), {0})",
+        Long.class, name(ZIPKIN_SPANS.DURATION.getName())));
+    // replace any tentative timestamp with the authoritative one.
+    Map<Field<?>, Field<?>> authoritativeUpdates = new LinkedHashMap<>(tentativeUpdates);
+    authoritativeUpdates.put(ZIPKIN_SPANS.START_TS, field("values({0})",
+        Long.class, name(ZIPKIN_SPANS.START_TS.getName())));
+
+    List<Field<?>> annotationFields = new ArrayList<>();
+    if (schema.hasTraceIdHigh) annotationFields.add(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH);
+    annotationFields.addAll(Arrays.<Field<?>>asList(ZIPKIN_ANNOTATIONS.TRACE_ID,
+        ZIPKIN_ANNOTATIONS.SPAN_ID, ZIPKIN_ANNOTATIONS.A_KEY, ZIPKIN_ANNOTATIONS.A_VALUE,
+        ZIPKIN_ANNOTATIONS.A_TYPE, ZIPKIN_ANNOTATIONS.A_TIMESTAMP,
+        ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4));
+    if (schema.hasIpv6) annotationFields.add(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6);
+    annotationFields.addAll(Arrays.<Field<?>>asList(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT,
+        ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME));
+
+    List<Query> inserts = new ArrayList<>();
+    MultiRowInsert tentativeSpans =
+        new MultiRowInsert(create, ZIPKIN_SPANS, spanFields, tentativeUpdates, inserts);
+    MultiRowInsert authoritativeSpans =
+        new MultiRowInsert(create, ZIPKIN_SPANS, spanFields, authoritativeUpdates, inserts);
+    MultiRowInsert annotations =
+        new MultiRowInsert(create, ZIPKIN_ANNOTATIONS, annotationFields, null, inserts);
+
+    for (Span span : spans) {
+      Long overridingTimestamp = authoritativeTimestamp(span);
+      Long timestamp = overridingTimestamp != null ? overridingTimestamp : guessTimestamp(span);
+
+      List<Object> spanRow = new ArrayList<>(spanFields.size());
+      if (schema.hasTraceIdHigh) spanRow.add(span.traceIdHigh);
+      spanRow.addAll(Arrays.<Object>asList(span.traceId, span.id, span.parentId, span.name,
+          span.debug, startTs(timestamp), span.duration));
+      (overridingTimestamp != null ? authoritativeSpans : tentativeSpans).add(spanRow);
+
+      for (Annotation annotation : span.annotations) {
+        annotations.add(annotationRow(span, annotation.value, null, -1, annotation.timestamp,
+            annotation.endpoint));
+      }
+
+      for (BinaryAnnotation annotation : span.binaryAnnotations) {
+        annotations.add(annotationRow(span, annotation.key, annotation.value,
+            annotation.type.value, timestamp, annotation.endpoint));
+      }
+    }
+    tentativeSpans.flush();
+    authoritativeSpans.flush();
+    annotations.flush();
+    return inserts;
+  }
+
+  /**
+   * Partitioned tables have start_ts in the unique key, where NULL never matches. So, unknown
+   * timestamps are written as 0 instead.
+   */
+  @Nullable Long startTs(@Nullable Long timestamp) {
+    return timestamp == null && schema.hasDailyPartitions ? Long.valueOf(0L) : timestamp;
+  }
+
+  List<Object> annotationRow(Span span, String key, @Nullable byte[] value, int type,
+      @Nullable Long timestamp, @Nullable Endpoint endpoint) {
+    List<Object> row = new ArrayList<>(11);
+    if (schema.hasTraceIdHigh) row.add(span.traceIdHigh);
+    row.addAll(Arrays.<Object>asList(span.traceId, span.id, key, value, type, timestamp,
+        endpoint != null ? endpoint.ipv4 : null));
+    if (schema.hasIpv6) row.add(endpoint != null ? endpoint.ipv6 : null);
+    row.add(endpoint != null ? endpoint.port : null);
+    row.add(endpoint != null ? endpoint.serviceName : null);
+    return row;
+  }
+
+  /** Accumulates rows into INSERT statements no larger than {@link #maxInsertBytes}. */
+  final class MultiRowInsert {
+    final DSLContext create;
+    final Table<Record> table;
+    final List<Field<?>> fields;
+    @Nullable final Map<Field<?>, Field<?>> onDuplicateKeyUpdate; // null ignores duplicates
+    final List<Query> result;
+
+    InsertValuesStepN<Record> insert;
+    int bytes;
+
+    MultiRowInsert(DSLContext create, Table<Record> table, List<Field<?>> fields,
+        @Nullable Map<Field<?>, Field<?>> onDuplicateKeyUpdate, List<Query> result) {
+      this.create = create;
+      this.table = table;
+      this.fields = fields;
+      this.onDuplicateKeyUpdate = onDuplicateKeyUpdate;
+      this.result = result;
+    }
+
+    void add(List<Object> row) {
+      int rowBytes = sizeInBytes(row);
+      if (insert != null && bytes + rowBytes > maxInsertBytes) flush();
+      if (insert == null) {
+        insert = create.insertInto(table, fields);
+        bytes = STATEMENT_BYTES;
+      }
+      insert = insert.values(row);
+      bytes += rowBytes;
+    }
+
+    void flush() {
+      if (insert == null) return;
+      result.add(onDuplicateKeyUpdate == null
+          ? insert.onDuplicateKeyIgnore()
+          : insert.onDuplicateKeyUpdate().set(onDuplicateKeyUpdate));
+      insert = null;
+    }
+  }
+
+  /**
+   * Overestimates the size of a row once values are inlined into SQL: Strings could be all escaped
+   * or multi-byte characters, and blobs are written as hex.
+   */
+  static int sizeInBytes(List<Object> row) {
+    int result = 3; // parentheses and comma
+    for (Object value : row) {
+      if (value instanceof String) {
+        result += ((String) value).length() * 3 + 3;
+      } else if (value instanceof byte[]) {
+        result += ((byte[]) value).length * 2 + 4;
+      } else {
+        result += 21; // max length of a long, plus comma
       }
-      create.batch(inserts).execute();
-    } catch (SQLException e) {
-      throw new RuntimeException(e); // TODO
     }
+    return result;
   }
 }
@@ -19,26 +19,20 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Set;
 import javax.sql.DataSource;
 import org.jooq.Condition;
 import org.jooq.Cursor;
 import org.jooq.DSLContext;
 import org.jooq.Record;
-import org.jooq.Row3;
 import org.jooq.SelectConditionStep;
 import org.jooq.SelectField;
 import org.jooq.SelectOffsetStep;
 import org.jooq.TableField;
 import org.jooq.TableOnConditionStep;
-import zipkin.Annotation;
-import zipkin.BinaryAnnotation;
-import zipkin.BinaryAnnotation.Type;
 import zipkin.DependencyLink;
-import zipkin.Endpoint;
 import zipkin.Span;
 import zipkin.internal.DependencyLinkSpan;
 import zipkin.internal.DependencyLinker;
@@ -50,8 +44,6 @@ import zipkin.storage.SpanStore;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations;
 
 import static java.util.Collections.emptyList;
-import static java.util.stream.Collectors.groupingBy;
-import static org.jooq.impl.DSL.row;
 import static zipkin.BinaryAnnotation.Type.STRING;
 import static zipkin.Constants.CLIENT_ADDR;
 import static zipkin.Constants.CLIENT_SEND;
@@ -61,6 +53,8 @@ import static zipkin.internal.Util.UTF_8;
 import static zipkin.internal.Util.getDays;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames.ZIPKIN_SERVICE_NAMES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames.ZIPKIN_SPAN_NAMES;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 final class MySQLSpanStore implements SpanStore {
@@ -69,43 +63,43 @@ final class MySQLSpanStore implements SpanStore {
   private final DSLContexts context;
   private final Schema schema;
   private final boolean strictTraceId;
+  private final boolean preAggregatedDependencies;
+  private final boolean keysetSearch;
 
-  MySQLSpanStore(DataSource datasource, DSLContexts context, Schema schema, boolean strictTraceId) {
+  MySQLSpanStore(DataSource datasource, DSLContexts context, Schema schema, boolean strictTraceId,
+      boolean incrementalDependencies, boolean keysetSearch) {
     this.datasource = datasource;
     this.context = context;
     this.schema = schema;
     this.strictTraceId = strictTraceId;
-  }
-
-  private Endpoint endpoint(Record a) {
-    String serviceName = a.getValue(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME);
-    if (serviceName == null) return null;
-    return Endpoint.builder()
-        .serviceName(serviceName)
-        .port(a.getValue(ZIPKIN_ANNOTATIONS.ENDPOINT_PORT))
-        .ipv4(a.getValue(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV4))
-        .ipv6(maybeGet(a, ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6, null)).build();
+    this.keysetSearch = keysetSearch;
+    this.preAggregatedDependencies =
+        schema.hasPreAggregatedDependencies || incrementalDependencies;
   }
 
   SelectOffsetStep<? extends Record> toTraceIdQuery(DSLContext context, QueryRequest request) {
     long endTs = (request.endTs > 0 && request.endTs != Long.MAX_VALUE) ? request.endTs * 1000
         : System.currentTimeMillis() * 1000;
+    long beginTs = endTs - request.lookback * 1000;
 
     TableOnConditionStep<?> table = ZIPKIN_SPANS.join(ZIPKIN_ANNOTATIONS)
-        .on(schema.joinCondition(ZIPKIN_ANNOTATIONS));
+        .on(schema.joinCondition(ZIPKIN_ANNOTATIONS)
+            .and(schema.annotationsTimestampCondition(ZIPKIN_ANNOTATIONS, beginTs, endTs)));
 
     int i = 0;
     for (String key : request.annotations) {
       ZipkinAnnotations aTable = ZIPKIN_ANNOTATIONS.as("a" + i++);
       table = maybeOnService(table.join(aTable)
-          .on(schema.joinCondition(aTable))
+          .on(schema.joinCondition(aTable)
+              .and(schema.annotationsTimestampCondition(aTable, beginTs, endTs)))
           .and(aTable.A_KEY.eq(key)), aTable, request.serviceName);
     }
 
     for (Map.Entry<String, String> kv : request.binaryAnnotations.entrySet()) {
       ZipkinAnnotations aTable = ZIPKIN_ANNOTATIONS.as("a" + i++);
       table = maybeOnService(table.join(aTable)
-          .on(schema.joinCondition(aTable))
+          .on(schema.joinCondition(aTable)
+              .and(schema.annotationsTimestampCondition(aTable, beginTs, endTs)))
           .and(aTable.A_TYPE.eq(STRING.value))
           .and(aTable.A_KEY.eq(kv.getKey()))
           .and(aTable.A_VALUE.eq(kv.getValue().getBytes(UTF_8))), aTable, request.serviceName);
@@ -115,7 +109,7 @@ final class MySQLSpanStore implements SpanStore {
     distinctFields.add(ZIPKIN_SPANS.START_TS.max());
     SelectConditionStep<Record> dsl = context.selectDistinct(distinctFields)
         .from(table)
-        .where(ZIPKIN_SPANS.START_TS.between(endTs - request.lookback * 1000, endTs));
+        .where(ZIPKIN_SPANS.START_TS.between(beginTs, endTs));
 
     if (request.serviceName != null) {
       dsl.and(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME.eq(request.serviceName));
@@ -144,74 +138,43 @@ final class MySQLSpanStore implements SpanStore {
   List<List<Span>> getTraces(@Nullable QueryRequest request, @Nullable Long traceIdHigh,
       @Nullable Long traceIdLow, boolean raw) {
     if (traceIdHigh != null && !strictTraceId) traceIdHigh = null;
-    final Map<Pair<Long>, List<Span>> spansWithoutAnnotations;
-    final Map<Row3<Long, Long, Long>, List<Record>> dbAnnotations;
+    final List<Span> allSpans = new ArrayList<>();
     try (Connection conn = datasource.getConnection()) {
-      Condition traceIdCondition = request != null
-          ? schema.spanTraceIdCondition(toTraceIdQuery(context.get(conn), request))
-          : schema.spanTraceIdCondition(traceIdHigh, traceIdLow);
+      Condition spanCondition, annotationCondition;
+      if (request == null) {
+        spanCondition = schema.spanTraceIdCondition(traceIdHigh, traceIdLow);
+        annotationCondition = schema.annotationsTraceIdCondition(traceIdHigh, traceIdLow);
+      } else {
+        Set<Pair<Long>> traceIds = keysetSearch
+            ? new KeysetTraceSearch(context.get(conn), schema, request).traceIds()
+            : schema.traceIds(toTraceIdQuery(context.get(conn), request));
+        if (traceIds.isEmpty()) return emptyList();
+        long endTs = (request.endTs > 0 && request.endTs != Long.MAX_VALUE) ? request.endTs * 1000
+            : System.currentTimeMillis() * 1000;
+        long beginTs = endTs - request.lookback * 1000;
+        spanCondition = schema.spanTraceIdCondition(traceIds)
+            .and(schema.spansTimestampCondition(beginTs, endTs));
+        annotationCondition = schema.annotationsTraceIdCondition(traceIds)
+            .and(schema.annotationsTimestampCondition(ZIPKIN_ANNOTATIONS, beginTs, endTs));
+      }
 
-      spansWithoutAnnotations = context.get(conn)
+      // Both cursors are sorted by span key, so spans are assembled as the rows are read.
+      try (Cursor<Record> spans = context.get(conn)
           .select(schema.spanFields)
-          .from(ZIPKIN_SPANS).where(traceIdCondition)
-          .stream()
-          .map(r -> Span.builder()
-              .traceIdHigh(maybeGet(r, ZIPKIN_SPANS.TRACE_ID_HIGH, 0L))
-              .traceId(r.getValue(ZIPKIN_SPANS.TRACE_ID))
-              .name(r.getValue(ZIPKIN_SPANS.NAME))
-              .id(r.getValue(ZIPKIN_SPANS.ID))
-              .parentId(r.getValue(ZIPKIN_SPANS.PARENT_ID))
-              .timestamp(r.getValue(ZIPKIN_SPANS.START_TS))
-              .duration(r.getValue(ZIPKIN_SPANS.DURATION))
-              .debug(r.getValue(ZIPKIN_SPANS.DEBUG))
-              .build())
-          .collect(
-              groupingBy((Span s) -> Pair.create(s.traceIdHigh, s.traceId),
-                  LinkedHashMap::new, Collectors.<Span>toList()));
-
-      dbAnnotations = context.get(conn)
-          .select(schema.annotationFields)
-          .from(ZIPKIN_ANNOTATIONS)
-          .where(schema.annotationsTraceIdCondition(spansWithoutAnnotations.keySet()))
-          .orderBy(ZIPKIN_ANNOTATIONS.A_TIMESTAMP.asc(), ZIPKIN_ANNOTATIONS.A_KEY.asc())
-          .stream()
-          .collect(groupingBy((Record a) -> row(
-              maybeGet(a, ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, 0L),
-              a.getValue(ZIPKIN_ANNOTATIONS.TRACE_ID),
-              a.getValue(ZIPKIN_ANNOTATIONS.SPAN_ID)
-              ), LinkedHashMap::new,
-              Collectors.<Record>toList())); // LinkedHashMap preserves order while grouping
+          .from(ZIPKIN_SPANS).where(spanCondition)
+          .orderBy(schema.spanSortFields)
+          .fetchLazy();
+           Cursor<Record> annotations = context.get(conn)
+               .select(schema.annotationFields)
+               .from(ZIPKIN_ANNOTATIONS).where(annotationCondition)
+               .orderBy(schema.annotationSortFields)
+               .fetchLazy()) {
+        Iterator<Span> merged = new MergeJoinSpanIterator(spans.iterator(), annotations.iterator());
+        while (merged.hasNext()) allSpans.add(merged.next());
+      }
     } catch (SQLException e) {
       throw new RuntimeException("Error querying for " + request + ": " + e.getMessage());
     }
-
-    List<Span> allSpans = new ArrayList<>(spansWithoutAnnotations.size());
-    for (List<Span> spans : spansWithoutAnnotations.values()) {
-      for (Span s : spans) {
-        Span.Builder span = s.toBuilder();
-        Row3<Long, Long, Long> key = row(s.traceIdHigh, s.traceId, s.id);
-
-        if (dbAnnotations.containsKey(key)) {
-          for (Record a : dbAnnotations.get(key)) {
-            Endpoint endpoint = endpoint(a);
-            int type = a.getValue(ZIPKIN_ANNOTATIONS.A_TYPE);
-            if (type == -1) {
-              span.addAnnotation(Annotation.create(
-                  a.getValue(ZIPKIN_ANNOTATIONS.A_TIMESTAMP),
-                  a.getValue(ZIPKIN_ANNOTATIONS.A_KEY),
-                  endpoint));
-            } else {
-              span.addBinaryAnnotation(BinaryAnnotation.create(
-                  a.getValue(ZIPKIN_ANNOTATIONS.A_KEY),
-                  a.getValue(ZIPKIN_ANNOTATIONS.A_VALUE),
-                  Type.fromValue(type),
-                  endpoint));
-            }
-          }
-        }
-        allSpans.add(span.build());
-      }
-    }
     return GroupByTraceId.apply(allSpans, strictTraceId, !raw);
   }
 
@@ -251,6 +214,13 @@ final class MySQLSpanStore implements SpanStore {
   @Override
   public List<String> getServiceNames() {
     try (Connection conn = datasource.getConnection()) {
+      if (schema.hasNameTables) {
+        return context.get(conn)
+            .select(ZIPKIN_SERVICE_NAMES.SERVICE_NAME)
+            .from(ZIPKIN_SERVICE_NAMES)
+            .orderBy(ZIPKIN_SERVICE_NAMES.SERVICE_NAME)
+            .fetch(ZIPKIN_SERVICE_NAMES.SERVICE_NAME);
+      }
       return context.get(conn)
           .selectDistinct(ZIPKIN_ANNOTATIONS.ENDPOINT_SERVICE_NAME)
           .from(ZIPKIN_ANNOTATIONS)
@@ -267,6 +237,14 @@ final class MySQLSpanStore implements SpanStore {
     if (serviceName == null) return emptyList();
     serviceName = serviceName.toLowerCase(); // service names are always lowercase!
     try (Connection conn = datasource.getConnection()) {
+      if (schema.hasNameTables) {
+        return context.get(conn)
+            .select(ZIPKIN_SPAN_NAMES.SPAN_NAME)
+            .from(ZIPKIN_SPAN_NAMES)
+            .where(ZIPKIN_SPAN_NAMES.SERVICE_NAME.eq(serviceName))
+            .orderBy(ZIPKIN_SPAN_NAMES.SPAN_NAME)
+            .fetch(ZIPKIN_SPAN_NAMES.SPAN_NAME);
+      }
       return context.get(conn)
           .selectDistinct(ZIPKIN_SPANS.NAME)
           .from(ZIPKIN_SPANS)
@@ -284,7 +262,7 @@ final class MySQLSpanStore implements SpanStore {
   @Override
   public List<DependencyLink> getDependencies(long endTs, @Nullable Long lookback) {
     try (Connection conn = datasource.getConnection()) {
-      if (schema.hasPreAggregatedDependencies) {
+      if (preAggregatedDependencies) {
         List<Date> days = getDays(endTs, lookback);
         List<DependencyLink> unmerged = context.get(conn)
             .selectFrom(ZIPKIN_DEPENDENCIES)
@@ -306,8 +284,22 @@ final class MySQLSpanStore implements SpanStore {
 
   List<DependencyLink> aggregateDependencies(long endTs, @Nullable Long lookback, Connection conn) {
     endTs = endTs * 1000;
+    long beginTs = lookback == null ? 0L : endTs - lookback * 1000;
+    return linkDependencies(context.get(conn), schema, lookback == null ?
+        ZIPKIN_SPANS.START_TS.lessOrEqual(endTs) :
+        ZIPKIN_SPANS.START_TS.between(beginTs, endTs),
+        schema.annotationsTimestampCondition(ZIPKIN_ANNOTATIONS, beginTs, endTs));
+  }
+
+  /**
+   * Links spans that match the condition, grouping them by the lower 64 bits of trace ID.
+   *
+   * @param annotationCondition further restricts annotations joined, such as by timestamp
+   */
+  static List<DependencyLink> linkDependencies(DSLContext context, Schema schema,
+      Condition spanCondition, Condition annotationCondition) {
     // Lazy fetching the cursor prevents us from buffering the whole dataset in memory.
-    Cursor<Record> cursor = context.get(conn)
+    Cursor<Record> cursor = context
         .selectDistinct(schema.dependencyLinkFields)
         // left joining allows us to keep a mapping of all span ids, not just ones that have
         // special annotations. We need all span ids to reconstruct the trace tree. We need
@@ -317,10 +309,9 @@ final class MySQLSpanStore implements SpanStore {
             // for applications to upgrade to 128-bit instrumentation.
             .on(ZIPKIN_SPANS.TRACE_ID.eq(ZIPKIN_ANNOTATIONS.TRACE_ID).and(
                 ZIPKIN_SPANS.ID.eq(ZIPKIN_ANNOTATIONS.SPAN_ID)))
-            .and(ZIPKIN_ANNOTATIONS.A_KEY.in(CLIENT_SEND, CLIENT_ADDR, SERVER_RECV, SERVER_ADDR)))
-        .where(lookback == null ?
-            ZIPKIN_SPANS.START_TS.lessOrEqual(endTs) :
-            ZIPKIN_SPANS.START_TS.between(endTs - lookback * 1000, endTs))
+            .and(ZIPKIN_ANNOTATIONS.A_KEY.in(CLIENT_SEND, CLIENT_ADDR, SERVER_RECV, SERVER_ADDR))
+            .and(annotationCondition))
+        .where(spanCondition)
         // Grouping so that later code knows when a span or trace is finished.
         .groupBy(schema.dependencyLinkGroupByFields).fetchLazy();
 
@@ -15,6 +15,8 @@ package zipkin.storage.mysql;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import javax.sql.DataSource;
 import org.jooq.ExecuteListenerProvider;
@@ -30,6 +32,8 @@ import static zipkin.internal.Util.checkNotNull;
 import static zipkin.storage.StorageAdapters.blockingToAsync;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames.ZIPKIN_SERVICE_NAMES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames.ZIPKIN_SPAN_NAMES;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 public final class MySQLStorage implements StorageComponent {
@@ -43,6 +47,15 @@ public final class MySQLStorage implements StorageComponent {
     private Settings settings = new Settings().withRenderSchema(false);
     private ExecuteListenerProvider listenerProvider;
     private Executor executor;
+    boolean multiRowInserts = false;
+    int maxInsertBytes = 1024 * 1024;
+    int writerThreads = 0;
+    int maxTransactionSpans = 1000;
+    int maxQueuedSpans = 10000;
+    boolean incrementalDependencies = false;
+    int dependencyLinkDelay = 60;
+    boolean keysetSearch = false;
+    int partitionRetentionDays = 0;
 
     /** {@inheritDoc} */
     @Override public Builder strictTraceId(boolean strictTraceId) {
@@ -70,6 +83,114 @@ public final class MySQLStorage implements StorageComponent {
       return this;
     }
 
+    /**
+     * When true, spans and annotations are each written with a multi-row INSERT per call to the
+     * span consumer, as opposed to a statement per row. This increases write throughput
+     * considerably. Defaults to false.
+     */
+    public Builder multiRowInserts(boolean multiRowInserts) {
+      this.multiRowInserts = multiRowInserts;
+      return this;
+    }
+
+    /**
+     * Upper bound of the estimated size in bytes of a multi-row INSERT, which must be smaller than
+     * the server's max_allowed_packet. Larger batches are split into multiple statements. Defaults
+     * to 1MiB. This is only read when {@link #multiRowInserts} is true.
+     */
+    public Builder maxInsertBytes(int maxInsertBytes) {
+      if (maxInsertBytes <= 0) throw new IllegalArgumentException("maxInsertBytes <= 0");
+      this.maxInsertBytes = maxInsertBytes;
+      return this;
+    }
+
+    /**
+     * When greater than zero, spans are written by this many dedicated threads, each combining
+     * spans from many requests into one transaction. Defaults to 0, which writes each request in
+     * its own transaction, on the {@link #executor(Executor) executor}.
+     *
+     * <p>Each thread uses at most one connection at a time, so this should be less than the
+     * maximum size of the {@link #datasource(DataSource) datasource}, leaving room for queries.
+     */
+    public Builder writerThreads(int writerThreads) {
+      if (writerThreads < 0) throw new IllegalArgumentException("writerThreads < 0");
+      this.writerThreads = writerThreads;
+      return this;
+    }
+
+    /**
+     * Spans from further requests are not added to a transaction once it has this many. Defaults to
+     * 1000. This is only read when {@link #writerThreads} is greater than zero.
+     */
+    public Builder maxTransactionSpans(int maxTransactionSpans) {
+      if (maxTransactionSpans <= 0) throw new IllegalArgumentException("maxTransactionSpans <= 0");
+      this.maxTransactionSpans = maxTransactionSpans;
+      return this;
+    }
+
+    /**
+     * Requests fail immediately when this many spans are waiting for a writer thread. Defaults to
+     * 10000. This is only read when {@link #writerThreads} is greater than zero.
+     */
+    public Builder maxQueuedSpans(int maxQueuedSpans) {
+      if (maxQueuedSpans <= 0) throw new IllegalArgumentException("maxQueuedSpans <= 0");
+      this.maxQueuedSpans = maxQueuedSpans;
+      return this;
+    }
+
+    /**
+     * When true, links of traces are added to the zipkin_dependencies table as spans are written,
+     * and dependency queries read that table, as opposed to linking spans at query time. Defaults
+     * to false.
+     *
+     * <p>Only use this when a single process writes spans to the database, as each process links
+     * the traces it wrote, so links of traces written by several would be counted more than once.
+     * For the same reason, don't also run the zipkin-dependencies job. Traces written before this
+     * was enabled are not linked.
+     */
+    public Builder incrementalDependencies(boolean incrementalDependencies) {
+      this.incrementalDependencies = incrementalDependencies;
+      return this;
+    }
+
+    /**
+     * Seconds after the last span of a trace is written that its links are counted. Defaults to 60.
+     * This is only read when {@link #incrementalDependencies} is true.
+     *
+     * <p>Spans of a trace written after its links are counted are ignored. You should pick a value
+     * that is longer than the gap between the root span's timestamp and its latest descendant
+     * span's timestamp.
+     */
+    public Builder dependencyLinkDelay(int dependencyLinkDelay) {
+      if (dependencyLinkDelay < 0) throw new IllegalArgumentException("dependencyLinkDelay < 0");
+      this.dependencyLinkDelay = dependencyLinkDelay;
+      return this;
+    }
+
+    /**
+     * When true, trace searches read spans in pages, most recent first, and look up annotation
+     * criteria by span ID. This avoids sorting all spans in the lookback, which is slow for
+     * searches by annotation. Defaults to false, which finds trace IDs with a single query.
+     */
+    public Builder keysetSearch(boolean keysetSearch) {
+      this.keysetSearch = keysetSearch;
+      return this;
+    }
+
+    /**
+     * When greater than zero and mysql-partitioned.sql has been run, partitions are added for
+     * upcoming days, and those older than this many days are dropped. This is checked hourly by a
+     * background thread, started when the storage is first checked, queried or written to.
+     * Defaults to zero, which leaves partitions alone.
+     */
+    public Builder partitionRetentionDays(int partitionRetentionDays) {
+      if (partitionRetentionDays < 0) {
+        throw new IllegalArgumentException("partitionRetentionDays < 0");
+      }
+      this.partitionRetentionDays = partitionRetentionDays;
+      return this;
+    }
+
     @Override public MySQLStorage build() {
       return new MySQLStorage(this);
     }
@@ -87,6 +208,19 @@ public final class MySQLStorage implements StorageComponent {
   private final DSLContexts context;
   final Lazy<Schema> schema;
   final boolean strictTraceId;
+  final int maxInsertBytes;
+  final int writerThreads;
+  final int maxTransactionSpans;
+  final int maxQueuedSpans;
+  @Nullable final DependencyLinkAggregator dependencies;
+  final NameTablesWriter names = new NameTablesWriter();
+  final boolean keysetSearch;
+  final int partitionRetentionDays;
+  /** Lazily started on the first write. Guarded by this. */
+  GroupCommitWriter writer;
+  /** Lazily started on the first write. Guarded by this. */
+  DailyPartitions partitions;
+  boolean closed;
 
   MySQLStorage(MySQLStorage.Builder builder) {
     this.datasource = checkNotNull(builder.datasource, "datasource");
@@ -98,6 +232,15 @@ public final class MySQLStorage implements StorageComponent {
       }
     };
     this.strictTraceId = builder.strictTraceId;
+    this.maxInsertBytes = builder.multiRowInserts ? builder.maxInsertBytes : 0;
+    this.writerThreads = builder.writerThreads;
+    this.maxTransactionSpans = builder.maxTransactionSpans;
+    this.maxQueuedSpans = builder.maxQueuedSpans;
+    this.keysetSearch = builder.keysetSearch;
+    this.partitionRetentionDays = builder.partitionRetentionDays;
+    this.dependencies = builder.incrementalDependencies
+        ? new DependencyLinkAggregator(datasource, context, schema, builder.dependencyLinkDelay)
+        : null;
   }
 
   /** Returns the session in use by this storage component. */
@@ -106,7 +249,9 @@ public final class MySQLStorage implements StorageComponent {
   }
 
   @Override public SpanStore spanStore() {
-    return new MySQLSpanStore(datasource, context, schema.get(), strictTraceId);
+    maybeMaintainPartitions();
+    return new MySQLSpanStore(datasource, context, schema.get(), strictTraceId,
+        dependencies != null, keysetSearch);
   }
 
   @Override public AsyncSpanStore asyncSpanStore() {
@@ -114,29 +259,70 @@ public final class MySQLStorage implements StorageComponent {
   }
 
   @Override public AsyncSpanConsumer asyncSpanConsumer() {
-    MySQLSpanConsumer spanConsumer = new MySQLSpanConsumer(datasource, context, schema.get());
+    maybeMaintainPartitions();
+    if (writerThreads > 0) return writer();
+    MySQLSpanConsumer spanConsumer = new MySQLSpanConsumer(datasource, context, schema.get(),
+        maxInsertBytes, dependencies, names);
     return blockingToAsync(spanConsumer, executor);
   }
 
+  synchronized GroupCommitWriter writer() {
+    if (closed) throw new IllegalStateException("closed");
+    if (writer == null) {
+      MySQLSpanConsumer spanConsumer = new MySQLSpanConsumer(datasource, context, schema.get(),
+          maxInsertBytes, dependencies, names);
+      writer = new GroupCommitWriter(datasource, context, spanConsumer, writerThreads,
+          maxTransactionSpans, maxQueuedSpans);
+    }
+    return writer;
+  }
+
+  synchronized void maybeMaintainPartitions() {
+    if (closed || partitions != null || partitionRetentionDays == 0) return;
+    if (!schema.get().hasDailyPartitions) return;
+    partitions = new DailyPartitions(datasource, context, partitionRetentionDays);
+  }
+
+  /**
+   * Returns metrics of the writer threads, or an empty map when {@link Builder#writerThreads} is
+   * zero or nothing has been written, yet. The gauge "queued_spans" is the count of spans waiting
+   * for a writer. The counters "spans", "spans_rejected", "transactions", "transactions_failed"
+   * and "transactions_retried" are cumulative.
+   */
+  public synchronized Map<String, Number> writerMetrics() {
+    return writer != null ? writer.metrics() : Collections.<String, Number>emptyMap();
+  }
+
   @Override public CheckResult check() {
     try (Connection conn = datasource.getConnection()) {
       context.get(conn).select(ZIPKIN_SPANS.TRACE_ID).from(ZIPKIN_SPANS).limit(1).execute();
+      maybeMaintainPartitions(); // so that a server that only queries still drops old partitions
     } catch (SQLException | RuntimeException e) {
       return CheckResult.failed(e);
     }
     return CheckResult.OK;
   }
 
-  @Override public void close() {
+  @Override public synchronized void close() {
     // didn't open the DataSource or executor
+    closed = true;
+    if (writer != null) writer.close();
+    if (partitions != null) partitions.close();
+    if (dependencies != null) dependencies.close();
   }
 
   /** Visible for testing */
   void clear() {
+    if (dependencies != null) dependencies.clear();
+    names.clear();
     try (Connection conn = datasource.getConnection()) {
       context.get(conn).truncate(ZIPKIN_SPANS).execute();
       context.get(conn).truncate(ZIPKIN_ANNOTATIONS).execute();
       context.get(conn).truncate(ZIPKIN_DEPENDENCIES).execute();
+      if (schema.get().hasNameTables) {
+        context.get(conn).truncate(ZIPKIN_SERVICE_NAMES).execute();
+        context.get(conn).truncate(ZIPKIN_SPAN_NAMES).execute();
+      }
     } catch (SQLException | RuntimeException e) {
       throw new AssertionError(e);
     }
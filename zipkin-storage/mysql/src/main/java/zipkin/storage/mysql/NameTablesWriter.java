@@ -0,0 +1,124 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.jooq.DSLContext;
+import org.jooq.InsertValuesStep1;
+import org.jooq.InsertValuesStep2;
+import org.jooq.Query;
+import org.jooq.Record;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.internal.Nullable;
+import zipkin.internal.Pair;
+
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames.ZIPKIN_SERVICE_NAMES;
+import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames.ZIPKIN_SPAN_NAMES;
+
+/**
+ * Adds service and span names to the zipkin_service_names and zipkin_span_names tables as spans
+ * are written.
+ *
+ * <p>As the set of names is small and changes rarely, names recently written by this process are
+ * remembered, and only new ones are inserted. This keeps the lookup tables from adding a write per
+ * span.
+ *
+ * <p>Span names "" and "unknown" are skipped, as they are placeholders for a name reported by
+ * another part of the span.
+ */
+final class NameTablesWriter {
+  static final int MAX_NAMES =
+      Integer.getInteger("zipkin.store.mysql.internal.nameTablesMax", 10000);
+
+  static final Comparator<Pair<String>> PAIR_ORDER = (left, right) -> {
+    int result = left._1.compareTo(right._1);
+    return result != 0 ? result : left._2.compareTo(right._2);
+  };
+
+  /** Service names recently written. Guarded by this. */
+  final Map<String, Boolean> serviceNames = lruMap();
+  /** Service and span name pairs recently written. Guarded by this. */
+  final Map<Pair<String>, Boolean> spanNames = lruMap();
+
+  /** Call after spans are written. This inserts any names not recently written. */
+  void accept(DSLContext create, List<Span> spans) {
+    // sorted, so that concurrent transactions lock the same names in the same order
+    Set<String> newServiceNames = new TreeSet<>();
+    Set<Pair<String>> newSpanNames = new TreeSet<>(PAIR_ORDER);
+    synchronized (this) {
+      for (Span span : spans) {
+        for (Annotation annotation : span.annotations) {
+          addUnwritten(annotation.endpoint, span.name, newServiceNames, newSpanNames);
+        }
+        for (BinaryAnnotation annotation : span.binaryAnnotations) {
+          addUnwritten(annotation.endpoint, span.name, newServiceNames, newSpanNames);
+        }
+      }
+    }
+    if (newServiceNames.isEmpty() && newSpanNames.isEmpty()) return;
+
+    List<Query> inserts = new ArrayList<>(2);
+    if (!newServiceNames.isEmpty()) {
+      InsertValuesStep1<Record, String> insert =
+          create.insertInto(ZIPKIN_SERVICE_NAMES, ZIPKIN_SERVICE_NAMES.SERVICE_NAME);
+      for (String serviceName : newServiceNames) insert = insert.values(serviceName);
+      inserts.add(insert.onDuplicateKeyIgnore());
+    }
+    if (!newSpanNames.isEmpty()) {
+      InsertValuesStep2<Record, String, String> insert = create.insertInto(ZIPKIN_SPAN_NAMES,
+          ZIPKIN_SPAN_NAMES.SERVICE_NAME, ZIPKIN_SPAN_NAMES.SPAN_NAME);
+      for (Pair<String> spanName : newSpanNames) insert = insert.values(spanName._1, spanName._2);
+      inserts.add(insert.onDuplicateKeyIgnore());
+    }
+    create.batch(inserts).execute();
+
+    synchronized (this) {
+      for (String serviceName : newServiceNames) serviceNames.put(serviceName, true);
+      for (Pair<String> spanName : newSpanNames) spanNames.put(spanName, true);
+    }
+  }
+
+  void addUnwritten(@Nullable Endpoint endpoint, String spanName, Set<String> newServiceNames,
+      Set<Pair<String>> newSpanNames) {
+    if (endpoint == null || endpoint.serviceName.isEmpty()) return;
+    if (serviceNames.get(endpoint.serviceName) == null) newServiceNames.add(endpoint.serviceName);
+    // Placeholders are overwritten in zipkin_spans when the real name arrives, but would remain here
+    if (spanName.isEmpty() || spanName.equals("unknown")) return;
+    Pair<String> pair = Pair.create(endpoint.serviceName, spanName);
+    if (spanNames.get(pair) == null) newSpanNames.add(pair);
+  }
+
+  /** Forgets names written, for example when a transaction that wrote them is rolled back. */
+  synchronized void clear() {
+    serviceNames.clear();
+    spanNames.clear();
+  }
+
+  static <K> Map<K, Boolean> lruMap() {
+    return new LinkedHashMap<K, Boolean>(16, 0.75f, true) {
+      @Override protected boolean removeEldestEntry(Map.Entry<K, Boolean> eldest) {
+        return size() > MAX_NAMES;
+      }
+    };
+  }
+}
@@ -15,36 +15,52 @@ package zipkin.storage.mysql;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.sql.DataSource;
 import org.jooq.Condition;
 import org.jooq.Field;
 import org.jooq.Record;
-import org.jooq.Result;
 import org.jooq.Row2;
 import org.jooq.SelectOffsetStep;
+import org.jooq.SortField;
 import zipkin.internal.Pair;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations;
 
 import static org.jooq.impl.DSL.row;
+import static org.jooq.impl.DSL.trueCondition;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations.ZIPKIN_ANNOTATIONS;
 import static zipkin.storage.mysql.internal.generated.tables.ZipkinSpans.ZIPKIN_SPANS;
 
 final class Schema {
+  /**
+   * Widens time ranges on partitioned tables, as spans and annotations of a trace needn't have
+   * timestamps in the range searched. This assumes traces and clock skew are shorter than a day.
+   */
+  static final long PARTITION_SLACK_MICROS = TimeUnit.DAYS.toMicros(1);
+
   final List<Field<?>> spanIdFields;
   final List<Field<?>> spanFields;
   final List<Field<?>> annotationFields;
+  /** Sorts spans by trace ID and span ID, the same order as {@link #annotationSortFields} */
+  final List<SortField<?>> spanSortFields = new ArrayList<>();
+  final List<SortField<?>> annotationSortFields = new ArrayList<>();
   final List<Field<?>> dependencyLinkFields;
   final List<Field<?>> dependencyLinkGroupByFields;
   final boolean hasTraceIdHigh;
   final boolean hasPreAggregatedDependencies;
   final boolean hasIpv6;
+  final boolean hasNameTables;
+  final boolean hasDailyPartitions;
 
   Schema(DataSource datasource, DSLContexts context) {
     hasTraceIdHigh = HasTraceIdHigh.test(datasource, context);
     hasPreAggregatedDependencies = HasPreAggregatedDependencies.test(datasource, context);
     hasIpv6 = HasIpv6.test(datasource, context);
+    hasNameTables = HasNameTables.test(datasource, context);
+    hasDailyPartitions = HasDailyPartitions.test(datasource, context);
 
     spanIdFields = list(ZIPKIN_SPANS.TRACE_ID_HIGH, ZIPKIN_SPANS.TRACE_ID);
     spanFields = list(ZIPKIN_SPANS.fields());
@@ -65,6 +81,16 @@ final class Schema {
     if (!hasIpv6) {
       annotationFields.remove(ZIPKIN_ANNOTATIONS.ENDPOINT_IPV6);
     }
+    if (hasTraceIdHigh) {
+      spanSortFields.add(ZIPKIN_SPANS.TRACE_ID_HIGH.asc());
+      annotationSortFields.add(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH.asc());
+    }
+    spanSortFields.add(ZIPKIN_SPANS.TRACE_ID.asc());
+    spanSortFields.add(ZIPKIN_SPANS.ID.asc());
+    annotationSortFields.add(ZIPKIN_ANNOTATIONS.TRACE_ID.asc());
+    annotationSortFields.add(ZIPKIN_ANNOTATIONS.SPAN_ID.asc());
+    annotationSortFields.add(ZIPKIN_ANNOTATIONS.A_TIMESTAMP.asc());
+    annotationSortFields.add(ZIPKIN_ANNOTATIONS.A_KEY.asc());
   }
 
   Condition joinCondition(ZipkinAnnotations annotationTable) {
@@ -83,17 +109,34 @@ final class Schema {
     return new ArrayList<>(Arrays.asList(elements));
   }
 
-  Condition spanTraceIdCondition(SelectOffsetStep<? extends Record> traceIdQuery) {
+  /** Returns the trace IDs found by the query, in order. */
+  Set<Pair<Long>> traceIds(SelectOffsetStep<? extends Record> traceIdQuery) {
+    Set<Pair<Long>> result = new LinkedHashSet<>();
+    if (hasTraceIdHigh) {
+      for (Record r : traceIdQuery.fetch()) {
+        result.add(Pair.create(r.get(ZIPKIN_SPANS.TRACE_ID_HIGH), r.get(ZIPKIN_SPANS.TRACE_ID)));
+      }
+    } else {
+      for (Long traceId : traceIdQuery.fetch(ZIPKIN_SPANS.TRACE_ID)) {
+        result.add(Pair.create(0L, traceId));
+      }
+    }
+    return result;
+  }
+
+  Condition spanTraceIdCondition(Set<Pair<Long>> traceIds) {
     if (hasTraceIdHigh) {
-      Result<? extends Record> result = traceIdQuery.fetch();
-      List<Row2<Long, Long>> traceIds = new ArrayList<>(result.size());
-      for (Record r : result) {
-        traceIds.add(row(r.get(ZIPKIN_SPANS.TRACE_ID_HIGH), r.get(ZIPKIN_SPANS.TRACE_ID)));
+      List<Row2<Long, Long>> result = new ArrayList<>(traceIds.size());
+      for (Pair<Long> traceId128 : traceIds) {
+        result.add(row(traceId128._1, traceId128._2));
       }
-      return row(ZIPKIN_SPANS.TRACE_ID_HIGH, ZIPKIN_SPANS.TRACE_ID).in(traceIds);
+      return row(ZIPKIN_SPANS.TRACE_ID_HIGH, ZIPKIN_SPANS.TRACE_ID).in(result);
     } else {
-      List<Long> traceIds = traceIdQuery.fetch(ZIPKIN_SPANS.TRACE_ID);
-      return ZIPKIN_SPANS.TRACE_ID.in(traceIds);
+      List<Long> result = new ArrayList<>(traceIds.size());
+      for (Pair<Long> traceId128 : traceIds) {
+        result.add(traceId128._2);
+      }
+      return ZIPKIN_SPANS.TRACE_ID.in(result);
     }
   }
 
@@ -103,6 +146,32 @@ final class Schema {
         : ZIPKIN_SPANS.TRACE_ID.eq(traceIdLow);
   }
 
+  /**
+   * Returns a condition on spans of traces in the time range, so that MySQL only reads partitions
+   * that may have them. This is always true when tables aren't partitioned.
+   */
+  Condition spansTimestampCondition(long beginTs, long endTs) {
+    if (!hasDailyPartitions) return trueCondition();
+    // unknown timestamps are 0, or NULL when written before mysql-partitioned.sql was applied
+    return ZIPKIN_SPANS.START_TS.isNull().or(ZIPKIN_SPANS.START_TS.eq(0L))
+        .or(ZIPKIN_SPANS.START_TS.between(
+            beginTs - PARTITION_SLACK_MICROS, endTs + PARTITION_SLACK_MICROS));
+  }
+
+  /** Like {@link #spansTimestampCondition}, except for annotations. */
+  Condition annotationsTimestampCondition(ZipkinAnnotations table, long beginTs, long endTs) {
+    if (!hasDailyPartitions) return trueCondition();
+    return table.A_TIMESTAMP.isNull().or(table.A_TIMESTAMP.between(
+        beginTs - PARTITION_SLACK_MICROS, endTs + PARTITION_SLACK_MICROS));
+  }
+
+  Condition annotationsTraceIdCondition(Long traceIdHigh, long traceIdLow) {
+    return traceIdHigh != null && hasTraceIdHigh
+        ? row(ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZIPKIN_ANNOTATIONS.TRACE_ID)
+        .eq(traceIdHigh, traceIdLow)
+        : ZIPKIN_ANNOTATIONS.TRACE_ID.eq(traceIdLow);
+  }
+
   Condition annotationsTraceIdCondition(Set<Pair<Long>> traceIds) {
     boolean hasTraceIdHigh = false;
     for (Pair<Long> traceId : traceIds) {
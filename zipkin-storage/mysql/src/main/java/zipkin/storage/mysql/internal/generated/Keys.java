@@ -25,6 +25,8 @@ import org.jooq.impl.AbstractKeys;
 
 import zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies;
+import zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames;
+import zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinSpans;
 
 
@@ -53,6 +55,8 @@ public class Keys {
 
     public static final UniqueKey<Record> KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH = UniqueKeys0.KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH;
     public static final UniqueKey<Record> KEY_ZIPKIN_DEPENDENCIES_DAY = UniqueKeys0.KEY_ZIPKIN_DEPENDENCIES_DAY;
+    public static final UniqueKey<Record> KEY_ZIPKIN_SERVICE_NAMES_SERVICE_NAME = UniqueKeys0.KEY_ZIPKIN_SERVICE_NAMES_SERVICE_NAME;
+    public static final UniqueKey<Record> KEY_ZIPKIN_SPAN_NAMES_SERVICE_NAME = UniqueKeys0.KEY_ZIPKIN_SPAN_NAMES_SERVICE_NAME;
     public static final UniqueKey<Record> KEY_ZIPKIN_SPANS_TRACE_ID_HIGH = UniqueKeys0.KEY_ZIPKIN_SPANS_TRACE_ID_HIGH;
 
     // -------------------------------------------------------------------------
@@ -67,6 +71,8 @@ public class Keys {
     private static class UniqueKeys0 extends AbstractKeys {
         public static final UniqueKey<Record> KEY_ZIPKIN_ANNOTATIONS_TRACE_ID_HIGH = createUniqueKey(ZipkinAnnotations.ZIPKIN_ANNOTATIONS, "KEY_zipkin_annotations_trace_id_high", ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID_HIGH, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.TRACE_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.SPAN_ID, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.A_KEY, ZipkinAnnotations.ZIPKIN_ANNOTATIONS.A_TIMESTAMP);
         public static final UniqueKey<Record> KEY_ZIPKIN_DEPENDENCIES_DAY = createUniqueKey(ZipkinDependencies.ZIPKIN_DEPENDENCIES, "KEY_zipkin_dependencies_day", ZipkinDependencies.ZIPKIN_DEPENDENCIES.DAY, ZipkinDependencies.ZIPKIN_DEPENDENCIES.PARENT, ZipkinDependencies.ZIPKIN_DEPENDENCIES.CHILD);
+        public static final UniqueKey<Record> KEY_ZIPKIN_SERVICE_NAMES_SERVICE_NAME = createUniqueKey(ZipkinServiceNames.ZIPKIN_SERVICE_NAMES, "KEY_zipkin_service_names_service_name", ZipkinServiceNames.ZIPKIN_SERVICE_NAMES.SERVICE_NAME);
+        public static final UniqueKey<Record> KEY_ZIPKIN_SPAN_NAMES_SERVICE_NAME = createUniqueKey(ZipkinSpanNames.ZIPKIN_SPAN_NAMES, "KEY_zipkin_span_names_service_name", ZipkinSpanNames.ZIPKIN_SPAN_NAMES.SERVICE_NAME, ZipkinSpanNames.ZIPKIN_SPAN_NAMES.SPAN_NAME);
         public static final UniqueKey<Record> KEY_ZIPKIN_SPANS_TRACE_ID_HIGH = createUniqueKey(ZipkinSpans.ZIPKIN_SPANS, "KEY_zipkin_spans_trace_id_high", ZipkinSpans.ZIPKIN_SPANS.TRACE_ID_HIGH, ZipkinSpans.ZIPKIN_SPANS.TRACE_ID, ZipkinSpans.ZIPKIN_SPANS.ID);
     }
 }
@@ -21,6 +21,8 @@ import javax.annotation.Generated;
 
 import zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies;
+import zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames;
+import zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinSpans;
 
 
@@ -47,6 +49,16 @@ public class Tables {
      */
     public static final ZipkinDependencies ZIPKIN_DEPENDENCIES = zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
+    /**
+     * The table <code>zipkin.zipkin_service_names</code>.
+     */
+    public static final ZipkinServiceNames ZIPKIN_SERVICE_NAMES = zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames.ZIPKIN_SERVICE_NAMES;
+
+    /**
+     * The table <code>zipkin.zipkin_span_names</code>.
+     */
+    public static final ZipkinSpanNames ZIPKIN_SPAN_NAMES = zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames.ZIPKIN_SPAN_NAMES;
+
     /**
      * The table <code>zipkin.zipkin_spans</code>.
      */
@@ -29,6 +29,8 @@ import org.jooq.impl.SchemaImpl;
 
 import zipkin.storage.mysql.internal.generated.tables.ZipkinAnnotations;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies;
+import zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames;
+import zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames;
 import zipkin.storage.mysql.internal.generated.tables.ZipkinSpans;
 
 
@@ -62,6 +64,16 @@ public class Zipkin extends SchemaImpl {
      */
     public final ZipkinDependencies ZIPKIN_DEPENDENCIES = zipkin.storage.mysql.internal.generated.tables.ZipkinDependencies.ZIPKIN_DEPENDENCIES;
 
+    /**
+     * The table <code>zipkin.zipkin_service_names</code>.
+     */
+    public final ZipkinServiceNames ZIPKIN_SERVICE_NAMES = zipkin.storage.mysql.internal.generated.tables.ZipkinServiceNames.ZIPKIN_SERVICE_NAMES;
+
+    /**
+     * The table <code>zipkin.zipkin_span_names</code>.
+     */
+    public final ZipkinSpanNames ZIPKIN_SPAN_NAMES = zipkin.storage.mysql.internal.generated.tables.ZipkinSpanNames.ZIPKIN_SPAN_NAMES;
+
     /**
      * The table <code>zipkin.zipkin_spans</code>.
      */
@@ -94,6 +106,8 @@ public class Zipkin extends SchemaImpl {
         return Arrays.<Table<?>>asList(
             ZipkinAnnotations.ZIPKIN_ANNOTATIONS,
             ZipkinDependencies.ZIPKIN_DEPENDENCIES,
+            ZipkinServiceNames.ZIPKIN_SERVICE_NAMES,
+            ZipkinSpanNames.ZIPKIN_SPAN_NAMES,
             ZipkinSpans.ZIPKIN_SPANS);
     }
 }
@@ -0,0 +1,16 @@
+-- Optional: run after mysql.sql to partition zipkin_spans and zipkin_annotations by timestamp.
+-- MySQLStorage.Builder.partitionRetentionDays then adds a partition per day, and expires data by
+-- dropping old partitions.
+--
+-- MySQL requires the partitioning column in each unique key. So, a span written with a tentative
+-- timestamp, then later with its authoritative one, has two rows. These merge when the trace is
+-- read, but are both returned by raw trace queries.
+--
+-- NULL never matches in a unique key, so start_ts is 0 instead of NULL when the span has no
+-- timestamp. Otherwise, each report of such a span would add a row.
+UPDATE zipkin_spans SET `start_ts` = 0 WHERE `start_ts` IS NULL;
+ALTER TABLE zipkin_spans MODIFY `start_ts` BIGINT NOT NULL DEFAULT 0 COMMENT 'Span.timestamp(): epoch micros used for endTs query and to implement TTL. 0 when unknown';
+ALTER TABLE zipkin_spans DROP INDEX `trace_id_high`, ADD UNIQUE KEY(`trace_id_high`, `trace_id`, `id`, `start_ts`) COMMENT 'ignore insert on duplicate';
+ALTER TABLE zipkin_spans PARTITION BY RANGE (`start_ts`) (PARTITION p_max VALUES LESS THAN MAXVALUE);
+
+ALTER TABLE zipkin_annotations PARTITION BY RANGE (`a_timestamp`) (PARTITION p_max VALUES LESS THAN MAXVALUE);
@@ -45,3 +45,16 @@ CREATE TABLE IF NOT EXISTS zipkin_dependencies (
 ) ENGINE=InnoDB ROW_FORMAT=COMPRESSED CHARACTER SET=utf8 COLLATE utf8_general_ci;
 
 ALTER TABLE zipkin_dependencies ADD UNIQUE KEY(`day`, `parent`, `child`);
+
+CREATE TABLE IF NOT EXISTS zipkin_service_names (
+  `service_name` VARCHAR(255) NOT NULL COMMENT 'coincides with zipkin_annotations.endpoint_service_name'
+) ENGINE=InnoDB ROW_FORMAT=COMPRESSED CHARACTER SET=utf8 COLLATE utf8_general_ci;
+
+ALTER TABLE zipkin_service_names ADD UNIQUE KEY(`service_name`) COMMENT 'for getServiceNames';
+
+CREATE TABLE IF NOT EXISTS zipkin_span_names (
+  `service_name` VARCHAR(255) NOT NULL COMMENT 'coincides with zipkin_annotations.endpoint_service_name',
+  `span_name` VARCHAR(255) NOT NULL COMMENT 'coincides with zipkin_spans.name'
+) ENGINE=InnoDB ROW_FORMAT=COMPRESSED CHARACTER SET=utf8 COLLATE utf8_general_ci;
+
+ALTER TABLE zipkin_span_names ADD UNIQUE KEY(`service_name`, `span_name`) COMMENT 'for getSpanNames';
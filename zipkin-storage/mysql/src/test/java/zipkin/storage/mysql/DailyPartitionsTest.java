@@ -0,0 +1,62 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
+import static zipkin.storage.mysql.DailyPartitions.DAY_MILLIS;
+
+public class DailyPartitionsTest {
+  static final long TODAY = 1485302400000L; // 2017-01-25T00:00:00Z
+  static final long NOW = TODAY + 3600000L;
+
+  @Test public void partitionName() {
+    assertThat(DailyPartitions.partitionName(TODAY))
+        .isEqualTo("p20170125");
+  }
+
+  @Test public void toAdd_whenNoDailyPartitions() {
+    assertThat(DailyPartitions.toAdd(new LinkedHashMap<>(), NOW)).containsExactly(
+        entry("p20170125", (TODAY + DAY_MILLIS) * 1000),
+        entry("p20170126", (TODAY + 2 * DAY_MILLIS) * 1000),
+        entry("p20170127", (TODAY + 3 * DAY_MILLIS) * 1000)
+    );
+  }
+
+  @Test public void toAdd_onlyAfterExisting() {
+    Map<String, Long> partitions = new LinkedHashMap<>();
+    partitions.put("p20170125", (TODAY + DAY_MILLIS) * 1000);
+    partitions.put("p20170126", (TODAY + 2 * DAY_MILLIS) * 1000);
+
+    assertThat(DailyPartitions.toAdd(partitions, NOW)).containsExactly(
+        entry("p20170127", (TODAY + 3 * DAY_MILLIS) * 1000)
+    );
+  }
+
+  @Test public void toDrop_olderThanRetention() {
+    Map<String, Long> partitions = new LinkedHashMap<>();
+    partitions.put("p20170122", (TODAY - 2 * DAY_MILLIS) * 1000);
+    partitions.put("p20170123", (TODAY - DAY_MILLIS) * 1000);
+    partitions.put("p20170124", TODAY * 1000);
+    partitions.put("p20170125", (TODAY + DAY_MILLIS) * 1000);
+
+    // keeps today and yesterday
+    assertThat(DailyPartitions.toDrop(partitions, NOW, 2))
+        .containsExactly("p20170122", "p20170123");
+  }
+}
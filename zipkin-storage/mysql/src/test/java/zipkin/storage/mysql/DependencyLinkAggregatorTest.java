@@ -0,0 +1,94 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin.internal.Pair;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.TestObjects.TODAY;
+import static zipkin.TestObjects.TRACE;
+
+public class DependencyLinkAggregatorTest {
+  DependencyLinkAggregator aggregator = new DependencyLinkAggregator(null, null, null, 60);
+  long delay = TimeUnit.SECONDS.toNanos(60);
+  Pair<Long> trace = Pair.create(TRACE.get(0).traceId, TODAY);
+
+  @Test public void linksTraceAfterDelay() {
+    aggregator.record(TRACE, 0L);
+    assertThat(aggregator.takeReady(0L)).isEmpty();
+    aggregator.record(TRACE.subList(0, 1), delay - 1);
+    assertThat(aggregator.takeReady(delay)).isEmpty();
+
+    // the last write was at delay - 1
+    assertThat(aggregator.takeReady(2 * delay - 1))
+        .containsOnly(trace);
+  }
+
+  @Test public void ignoresSpansOfLinkedTraces() {
+    aggregator.record(TRACE, 0L);
+    aggregator.linked(aggregator.takeReady(delay));
+
+    aggregator.record(TRACE, delay);
+    assertThat(aggregator.takeReady(2 * delay)).isEmpty();
+  }
+
+  /** Spans written while the links commit would otherwise be linked again */
+  @Test public void ignoresSpansOfTracesBeingLinked() {
+    aggregator.record(TRACE, 0L);
+    Set<Pair<Long>> ready = aggregator.takeReady(delay);
+
+    aggregator.record(TRACE, delay);
+    aggregator.linked(ready);
+    assertThat(aggregator.takeReady(2 * delay)).isEmpty();
+  }
+
+  @Test public void retriesFailedTracesAfterDelay() {
+    aggregator.record(TRACE, 0L);
+    aggregator.failed(aggregator.takeReady(delay), delay);
+
+    assertThat(aggregator.takeReady(2 * delay - 1)).isEmpty();
+    assertThat(aggregator.takeReady(2 * delay))
+        .containsOnly(trace);
+  }
+
+  /** Otherwise, a caller could return before traces the background thread took are linked */
+  @Test public void linkReadyWaitsForLinksInProgress() throws InterruptedException {
+    CountDownLatch linking = new CountDownLatch(1), committed = new CountDownLatch(1);
+    Thread background = new Thread(() -> {
+      synchronized (aggregator.linkLock) {
+        linking.countDown();
+        try {
+          committed.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    background.start();
+    linking.await();
+
+    Thread caller = new Thread(() -> aggregator.linkReady(delay));
+    caller.start();
+    caller.join(100L);
+    assertThat(caller.isAlive()).isTrue();
+
+    committed.countDown();
+    caller.join(1000L);
+    assertThat(caller.isAlive()).isFalse();
+  }
+}
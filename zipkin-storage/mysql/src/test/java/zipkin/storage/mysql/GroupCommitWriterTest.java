@@ -0,0 +1,179 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Span;
+import zipkin.TestObjects;
+import zipkin.internal.CallbackCaptor;
+import zipkin.storage.Callback;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class GroupCommitWriterTest {
+  DataSource dataSource = mock(DataSource.class);
+  GroupCommitWriter writer;
+
+  @After public void close() {
+    writer.close();
+  }
+
+  @Test public void rejectsWhenTooManySpansAreQueued() {
+    writer = new GroupCommitWriter(dataSource, null, null, 0 /* nothing drains the queue */, 1000,
+        2);
+
+    writer.accept(TestObjects.TRACE.subList(0, 2), Callback.NOOP);
+    CallbackCaptor<Void> captor = new CallbackCaptor<>();
+    writer.accept(TestObjects.TRACE.subList(2, 3), captor);
+
+    try {
+      captor.get();
+      failBecauseExceptionWasNotThrown(RejectedExecutionException.class);
+    } catch (RejectedExecutionException e) {
+    }
+    assertThat(writer.metrics())
+        .containsEntry("queued_spans", 2)
+        .containsEntry("spans_rejected", 1L);
+  }
+
+  @Test public void failsAllRequestsInTheTransaction() throws SQLException {
+    when(dataSource.getConnection()).thenThrow(new SQLException("foo"));
+    writer = new GroupCommitWriter(dataSource, null, null, 1, 1000, 1000);
+
+    CallbackCaptor<Void> captor = new CallbackCaptor<>();
+    writer.accept(TestObjects.TRACE, captor);
+
+    try {
+      captor.get();
+      failBecauseExceptionWasNotThrown(RuntimeException.class);
+    } catch (RuntimeException e) {
+      assertThat(e).hasCauseInstanceOf(SQLException.class);
+    }
+    assertThat(writer.metrics())
+        .containsEntry("queued_spans", 0)
+        .containsEntry("transactions_failed", 1L)
+        .containsEntry("spans", 0L);
+  }
+
+  @Test public void retriesDeadlocks() throws SQLException {
+    when(dataSource.getConnection()).thenThrow(new SQLException("Deadlock found", "40001"));
+    writer = new GroupCommitWriter(dataSource, null, null, 1, 1000, 1000);
+
+    CallbackCaptor<Void> captor = new CallbackCaptor<>();
+    writer.accept(TestObjects.TRACE, captor);
+
+    try {
+      captor.get();
+      failBecauseExceptionWasNotThrown(RuntimeException.class);
+    } catch (RuntimeException e) {
+      assertThat(e).hasCauseInstanceOf(SQLException.class);
+    }
+    verify(dataSource, times(1 + GroupCommitWriter.MAX_DEADLOCK_RETRIES)).getConnection();
+    assertThat(writer.metrics())
+        .containsEntry("transactions_failed", 1L + GroupCommitWriter.MAX_DEADLOCK_RETRIES)
+        .containsEntry("transactions_retried", (long) GroupCommitWriter.MAX_DEADLOCK_RETRIES);
+  }
+
+  @Test public void doesntRetryOtherFailures() throws SQLException {
+    when(dataSource.getConnection()).thenThrow(new SQLException("Data too long", "22001"));
+    writer = new GroupCommitWriter(dataSource, null, null, 1, 1000, 1000);
+
+    CallbackCaptor<Void> captor = new CallbackCaptor<>();
+    writer.accept(TestObjects.TRACE, captor);
+
+    try {
+      captor.get();
+      failBecauseExceptionWasNotThrown(RuntimeException.class);
+    } catch (RuntimeException e) {
+    }
+    verify(dataSource, times(1)).getConnection();
+    assertThat(writer.metrics())
+        .containsEntry("transactions_retried", 0L);
+  }
+
+  /** When a shared transaction fails, each request in it is written in its own transaction. */
+  @Test public void retriesEachRequestWhenTransactionFails() throws Exception {
+    CountDownLatch writing = new CountDownLatch(1), proceed = new CountDownLatch(1);
+    AtomicInteger connections = new AtomicInteger();
+    when(dataSource.getConnection()).thenAnswer(invocation -> {
+      if (connections.getAndIncrement() == 0) { // hold the writer while more requests queue
+        writing.countDown();
+        proceed.await();
+      }
+      throw new SQLException("foo");
+    });
+    writer = new GroupCommitWriter(dataSource, null, null, 1, 1000, 1000);
+
+    CallbackCaptor<Void> first = new CallbackCaptor<>();
+    writer.accept(TestObjects.TRACE.subList(0, 1), first);
+    writing.await();
+
+    CallbackCaptor<Void> second = new CallbackCaptor<>(), third = new CallbackCaptor<>();
+    writer.accept(TestObjects.TRACE.subList(1, 2), second);
+    writer.accept(TestObjects.TRACE.subList(2, 3), third);
+    proceed.countDown();
+
+    for (CallbackCaptor<Void> captor : Arrays.asList(first, second, third)) {
+      try {
+        captor.get();
+        failBecauseExceptionWasNotThrown(RuntimeException.class);
+      } catch (RuntimeException e) {
+        assertThat(e).hasCauseInstanceOf(SQLException.class);
+      }
+    }
+    // the first request alone, then the second and third together, then each separately
+    assertThat(connections.get()).isEqualTo(4);
+    assertThat(writer.metrics())
+        .containsEntry("transactions_failed", 4L);
+  }
+
+  @Test public void isDeadlock() {
+    assertThat(GroupCommitWriter.isDeadlock(new SQLException("deadlock", "40001")))
+        .isTrue();
+    assertThat(GroupCommitWriter.isDeadlock(new RuntimeException(
+        new SQLException("deadlock", "40001"))))
+        .isTrue();
+
+    SQLException batch = new SQLException("batch failed");
+    batch.setNextException(new SQLException("deadlock", "40001"));
+    assertThat(GroupCommitWriter.isDeadlock(batch))
+        .isTrue();
+
+    assertThat(GroupCommitWriter.isDeadlock(new SQLException("foo", "22001")))
+        .isFalse();
+  }
+
+  @Test public void sortsSpansByKey() {
+    List<Span> spans = new ArrayList<>(TestObjects.TRACE);
+    Collections.sort(spans, GroupCommitWriter.SPAN_KEY_ORDER);
+
+    assertThat(spans).extracting(s -> s.id)
+        .isSorted();
+  }
+}
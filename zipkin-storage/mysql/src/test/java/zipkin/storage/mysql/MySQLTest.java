@@ -13,11 +13,33 @@
  */
 package zipkin.storage.mysql;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.ClassRule;
+import org.junit.Test;
 import org.junit.experimental.runners.Enclosed;
 import org.junit.runner.RunWith;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Span;
+import zipkin.TestObjects;
+import zipkin.internal.CallbackCaptor;
+import zipkin.storage.QueryRequest;
 import zipkin.storage.StorageComponent;
 
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static zipkin.Constants.CLIENT_RECV;
+import static zipkin.Constants.LOCAL_COMPONENT;
+import static zipkin.Constants.CLIENT_SEND;
+import static zipkin.Constants.SERVER_RECV;
+import static zipkin.Constants.SERVER_SEND;
+import static zipkin.TestObjects.APP_ENDPOINT;
+import static zipkin.TestObjects.WEB_ENDPOINT;
+
 @RunWith(Enclosed.class)
 public class MySQLTest {
 
@@ -67,5 +89,176 @@ public class MySQLTest {
     }
   }
 
+  public static class IncrementalDependenciesTest extends zipkin.storage.DependenciesTest {
+
+    private final MySQLStorage storage;
+
+    public IncrementalDependenciesTest() {
+      this.storage = MySQLTest.storage.computeStorageBuilder()
+          .incrementalDependencies(true)
+          .dependencyLinkDelay(0) // link as soon as spans are written
+          .build();
+    }
+
+    @Override protected StorageComponent storage() {
+      return storage;
+    }
+
+    /**
+     * Links traces now, as opposed to waiting for the background thread. If that thread already
+     * took them, this waits for its links to commit.
+     */
+    @Override protected void processDependencies(List<Span> spans) {
+      super.processDependencies(spans);
+      storage.dependencies.linkReady(System.nanoTime());
+    }
+
+    @Override
+    public void clear() {
+      storage.clear();
+    }
+  }
+
+  public static class WriterThreadsTest extends zipkin.storage.SpanStoreTest {
+
+    private final MySQLStorage storage;
+
+    public WriterThreadsTest() {
+      this.storage = MySQLTest.storage.computeStorageBuilder()
+          .writerThreads(2)
+          .build();
+    }
+
+    @Override protected StorageComponent storage() {
+      return storage;
+    }
+
+    /** Writer threads updating the same rows concurrently shouldn't fail each other's requests */
+    @Test
+    public void overlappingSpansCommit() {
+      List<Span> clientHalves = new ArrayList<>(), serverHalves = new ArrayList<>();
+      for (long i = 1; i <= 100; i++) {
+        long timestamp = (TestObjects.TODAY + i) * 1000;
+        clientHalves.add(Span.builder().traceId(i).id(i).name("get")
+            .addAnnotation(Annotation.create(timestamp, CLIENT_SEND, WEB_ENDPOINT))
+            .addAnnotation(Annotation.create(timestamp + 100, CLIENT_RECV, WEB_ENDPOINT))
+            .build());
+        serverHalves.add(Span.builder().traceId(i).id(i).name("get")
+            .addAnnotation(Annotation.create(timestamp + 10, SERVER_RECV, APP_ENDPOINT))
+            .addAnnotation(Annotation.create(timestamp + 90, SERVER_SEND, APP_ENDPOINT))
+            .build());
+      }
+      Collections.reverse(serverHalves); // arrive in the opposite order to the client halves
+
+      List<CallbackCaptor<Void>> captors = new ArrayList<>();
+      for (int i = 0; i < 100; i += 10) {
+        for (List<Span> spans : asList(clientHalves.subList(i, i + 10),
+            serverHalves.subList(i, i + 10))) {
+          CallbackCaptor<Void> captor = new CallbackCaptor<>();
+          storage.asyncSpanConsumer().accept(spans, captor);
+          captors.add(captor);
+        }
+      }
+      for (CallbackCaptor<Void> captor : captors) {
+        captor.get(); // throws if the request failed
+      }
+
+      assertThat(store().getTraces(QueryRequest.builder().serviceName("app").limit(100).build()))
+          .hasSize(100);
+    }
+
+    @Override
+    public void clear() {
+      storage.clear();
+    }
+  }
+
+  public static class KeysetSearchTest extends zipkin.storage.SpanStoreTest {
+
+    private final MySQLStorage storage;
+
+    public KeysetSearchTest() {
+      this.storage = MySQLTest.storage.computeStorageBuilder()
+          .keysetSearch(true)
+          .build();
+    }
 
+    @Override protected StorageComponent storage() {
+      return storage;
+    }
+
+    @Override
+    public void clear() {
+      storage.clear();
+    }
+  }
+
+  public static class MultiRowInsertsTest extends zipkin.storage.SpanStoreTest {
+
+    private final MySQLStorage storage;
+
+    public MultiRowInsertsTest() {
+      this.storage = MySQLTest.storage.computeStorageBuilder()
+          .multiRowInserts(true)
+          .maxInsertBytes(4096) // small enough to split a statement
+          .build();
+    }
+
+    @Override protected StorageComponent storage() {
+      return storage;
+    }
+
+    @Override
+    public void clear() {
+      storage.clear();
+    }
+  }
+
+  public static class PartitionedTest extends zipkin.storage.SpanStoreTest {
+
+    @BeforeClass public static void partitionTables() {
+      ZipkinMySQLContainer.executeScripts(MySQLTest.storage.get().datasource(),
+          "mysql-partitioned.sql");
+    }
+
+    @AfterClass public static void recreateTables() {
+      ZipkinMySQLContainer.executeScripts(MySQLTest.storage.get().datasource(),
+          "drop_zipkin_tables.sql", "mysql.sql");
+    }
+
+    private final MySQLStorage storage;
+
+    public PartitionedTest() {
+      // not the shared storage, as that read the schema before the tables were partitioned
+      this.storage = MySQLTest.storage.computeStorageBuilder().build();
+    }
+
+    @Override protected StorageComponent storage() {
+      return storage;
+    }
+
+    @Test
+    public void detectsPartitions() {
+      assertThat(storage.schema.get().hasDailyPartitions).isTrue();
+    }
+
+    /** A NULL start_ts wouldn't match the unique key, so repeating the span would add a row */
+    @Test
+    public void spanWithoutTimestampIsntDuplicated() {
+      Span span = Span.builder().traceId(1L).id(1L).name("get")
+          .addBinaryAnnotation(BinaryAnnotation.create(LOCAL_COMPONENT, "cache", WEB_ENDPOINT))
+          .build();
+
+      accept(span);
+      accept(span);
+
+      assertThat(store().getRawTrace(0L, span.traceId))
+          .containsExactly(span);
+    }
+
+    @Override
+    public void clear() {
+      storage.clear();
+    }
+  }
 }
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2015-2017 The OpenZipkin Authors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package zipkin.storage.mysql;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.junit.Test;
+import zipkin.Endpoint;
+import zipkin.internal.Pair;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NameTablesWriterTest {
+  NameTablesWriter writer = new NameTablesWriter();
+  Endpoint web = Endpoint.create("web", 127 << 24 | 1);
+  Set<String> serviceNames = new LinkedHashSet<>();
+  Set<Pair<String>> spanNames = new LinkedHashSet<>();
+
+  @Test public void addsNames() {
+    writer.addUnwritten(web, "get", serviceNames, spanNames);
+
+    assertThat(serviceNames).containsExactly("web");
+    assertThat(spanNames).containsExactly(Pair.create("web", "get"));
+  }
+
+  @Test public void skipsRecentlyWritten() {
+    writer.serviceNames.put("web", true);
+    writer.spanNames.put(Pair.create("web", "get"), true);
+
+    writer.addUnwritten(web, "get", serviceNames, spanNames);
+
+    assertThat(serviceNames).isEmpty();
+    assertThat(spanNames).isEmpty();
+  }
+
+  /** These are replaced in zipkin_spans once the real name arrives, so aren't span names */
+  @Test public void skipsPlaceholderSpanNames() {
+    writer.addUnwritten(web, "", serviceNames, spanNames);
+    writer.addUnwritten(web, "unknown", serviceNames, spanNames);
+
+    assertThat(serviceNames).containsExactly("web");
+    assertThat(spanNames).isEmpty();
+  }
+}
@@ -75,4 +75,20 @@ public class SchemaTest {
 
     assertThat(schema.hasPreAggregatedDependencies).isFalse();
   }
+
+  @Test
+  public void hasNameTables_missing() throws SQLException {
+    SQLSyntaxErrorException sqlException = new SQLSyntaxErrorException(
+        "SQL [select `zipkin_service_names`.`service_name` from `zipkin_service_names` limit ?]; "
+            + "Table 'zipkin.zipkin_service_names' doesn't exist",
+        "42S02", 1146);
+    DataSource dataSource = mock(DataSource.class);
+
+    // cheats to lower mock count: this exception is really thrown during execution of the query
+    when(dataSource.getConnection()).thenThrow(
+        new DataAccessException(sqlException.getMessage(), sqlException));
+
+    assertThat(new Schema(dataSource, new DSLContexts(new Settings().withRenderSchema(false), null))
+        .hasNameTables).isFalse();
+  }
 }
@@ -22,6 +22,7 @@ import org.testcontainers.jdbc.ext.ScriptUtils;
 import org.testcontainers.shaded.com.google.common.io.Resources;
 
 import javax.script.ScriptException;
+import javax.sql.DataSource;
 import java.io.IOException;
 import java.net.URL;
 import java.nio.charset.Charset;
@@ -73,14 +74,17 @@ public class ZipkinMySQLContainer extends GenericContainer<ZipkinMySQLContainer>
   }
 
   @Override protected void containerIsStarted(InspectContainerResponse containerInfo) {
-    String[] scripts = {
+    executeScripts(dataSource,
         // Drop all previously created tables in zipkin.*
         "drop_zipkin_tables.sql",
 
         // Populate the schema
         "mysql.sql"
-    };
+    );
+  }
 
+  /** Runs the scripts, which are classpath resources, in order */
+  static void executeScripts(DataSource dataSource, String... scripts) {
     try (Connection connection = dataSource.getConnection()) {
       for (String script : scripts) {
         URL scriptURL = Resources.getResource(script);